@@ -110,7 +110,8 @@ public class QueueManagerTest {
                     }
 */
                     @Override
-                    public void onQueueUpdated(String title, List<MediaSessionCompat.QueueItem> newQueue) {
+                    public void onQueueUpdated(String title, List<MediaSessionCompat.QueueItem> newQueue,
+                                               QueueDelta<MediaSessionCompat.QueueItem> delta) {
                         if (expectedNewQueue != null) {
                             assertEquals(expectedNewQueue, newQueue);
                         }
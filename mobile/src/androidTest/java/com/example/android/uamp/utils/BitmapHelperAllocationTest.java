@@ -0,0 +1,153 @@
+/*
+* Copyright (C) 2014 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.uamp.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Before/after allocation benchmark of album art decoding: the old path decoded the whole image,
+ * scaled it to the big size and then scaled that down to the icon, while
+ * {@link BitmapHelper#decodeSampledBitmap} subsamples each size straight from the source and
+ * reuses its intermediate bitmaps.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapHelperAllocationTest {
+    private static final String TAG = "BitmapHelperAllocation";
+
+    private static final int SOURCE_SIZE = 1500;  // pixels
+    private static final int ART_WIDTH = 800;
+    private static final int ART_HEIGHT = 480;
+    private static final int ICON_SIZE = 128;
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 20;
+
+    private byte[] jpeg;
+
+    @Before
+    public void createSourceImage() {
+        Bitmap source = Bitmap.createBitmap(SOURCE_SIZE, SOURCE_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(source);
+        Paint paint = new Paint();
+        for (int i = 0; i < 16; i++) {
+            paint.setColor(Color.rgb(i * 16, 255 - i * 16, (i * 97) % 256));
+            canvas.drawCircle(SOURCE_SIZE / 2, SOURCE_SIZE / 2, SOURCE_SIZE / 2 - i * 40, paint);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        source.recycle();
+        jpeg = out.toByteArray();
+    }
+
+    @Test
+    public void testSampledDecodeAllocatesLess() {
+        // From Oreo on, bitmap pixels are allocated on the native heap, out of sight of the
+        // allocation counters
+        assumeTrue(Build.VERSION.SDK_INT < Build.VERSION_CODES.O);
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            decodeFullAndScale();
+            decodeSampled();
+        }
+        long before = measure(new Runnable() {
+            @Override
+            public void run() {
+                decodeFullAndScale();
+            }
+        });
+        long after = measure(new Runnable() {
+            @Override
+            public void run() {
+                decodeSampled();
+            }
+        });
+        Log.i(TAG, "bytes allocated per art decode: before=" + before / RUNS
+                + " after=" + after / RUNS);
+        assertTrue("before=" + before + " after=" + after, after < before);
+    }
+
+    @Test
+    public void testIconIsDecodedWithoutAlpha() {
+        Bitmap icon = BitmapHelper.decodeSampledBitmap(jpeg, ICON_SIZE, ICON_SIZE,
+                Bitmap.Config.RGB_565);
+        assertEquals(Bitmap.Config.RGB_565, icon.getConfig());
+        assertEquals(ICON_SIZE, icon.getWidth());
+        assertEquals(ICON_SIZE, icon.getHeight());
+    }
+
+    private void decodeFullAndScale() {
+        Bitmap full = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        Bitmap bitmap = scale(full, ART_WIDTH, ART_HEIGHT);
+        Bitmap icon = scale(bitmap, ICON_SIZE, ICON_SIZE);
+        recycle(new Bitmap[] {full, bitmap, icon});
+    }
+
+    private void decodeSampled() {
+        recycle(new Bitmap[] {
+                BitmapHelper.decodeSampledBitmap(jpeg, ART_WIDTH, ART_HEIGHT,
+                        Bitmap.Config.ARGB_8888),
+                BitmapHelper.decodeSampledBitmap(jpeg, ICON_SIZE, ICON_SIZE,
+                        Bitmap.Config.RGB_565)});
+    }
+
+    private static Bitmap scale(Bitmap src, int maxWidth, int maxHeight) {
+        double scaleFactor = Math.min(
+                ((double) maxWidth)/src.getWidth(), ((double) maxHeight)/src.getHeight());
+        return Bitmap.createScaledBitmap(src, (int) (src.getWidth() * scaleFactor),
+                (int) (src.getHeight() * scaleFactor), false);
+    }
+
+    private static void recycle(Bitmap[] bitmaps) {
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * @return the bytes allocated on the Java heap by RUNS runs of decode
+     */
+    @SuppressWarnings("deprecation")
+    private static long measure(Runnable decode) {
+        Runtime.getRuntime().gc();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < RUNS; i++) {
+                decode.run();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocSize();
+    }
+}
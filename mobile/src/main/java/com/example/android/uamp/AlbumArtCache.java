@@ -16,17 +16,40 @@
 
 package com.example.android.uamp;
 
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.LruCache;
 
+import com.example.android.uamp.model.AlbumArtResolver;
 import com.example.android.uamp.utils.BitmapHelper;
+import com.example.android.uamp.utils.DiskLruCache;
 import com.example.android.uamp.utils.LogHelper;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implements a basic cache of album arts, with async loading support.
+ * Bitmaps are held in memory, backed by a disk cache of their already rescaled versions
+ * (once {@link #attach} has been called), so that a memory miss after a restart
+ * costs a small local read instead of a download and rescale.
  */
 public final class AlbumArtCache {
     private static final String TAG = LogHelper.makeLogTag(AlbumArtCache.class);
@@ -34,6 +57,7 @@ public final class AlbumArtCache {
     private static final int MAX_ALBUM_ART_CACHE_SIZE = 12*1024*1024;  // 12 MB
     private static final int MAX_ART_WIDTH = 800;  // pixels
     private static final int MAX_ART_HEIGHT = 480;  // pixels
+    private static final Bitmap.Config ART_CONFIG = Bitmap.Config.ARGB_8888;
 
     // Resolution reasonable for carrying around as an icon (generally in
     // MediaDescription.getIconBitmap). This should not be bigger than necessary, because
@@ -41,11 +65,29 @@ public final class AlbumArtCache {
     // serialize the MediaDescription, you may get FAILED BINDER TRANSACTION errors.
     private static final int MAX_ART_WIDTH_ICON = 128;  // pixels
     private static final int MAX_ART_HEIGHT_ICON = 128;  // pixels
+    // Icons need no alpha channel, so they take half the memory
+    private static final Bitmap.Config ICON_CONFIG = Bitmap.Config.RGB_565;
+
+    private static final long MAX_DISK_CACHE_SIZE = 20*1024*1024;  // 20 MB
+    private static final String DISK_CACHE_DIR = "albumart";
+    private static final int DISK_CACHE_JPEG_QUALITY = 90;
+    private static final String DISK_KEY_BIG_SUFFIX = "_big";
+    private static final String DISK_KEY_ICON_SUFFIX = "_icon";
 
     private static final int BIG_BITMAP_INDEX = 0;
     private static final int ICON_BITMAP_INDEX = 1;
 
+    // Downloads and decodes are memory hungry, so only a couple run at once
+    private static final int DECODE_THREADS = 2;
+    private static final long DECODE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
     private final LruCache<String, Bitmap[]> mCache;
+    // Art URL -> the fetch of it in progress
+    private final Map<String, InFlightFetch> mInFlight = new HashMap<>();
+    private final ExecutorService mDecodeExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile DiskLruCache mDiskCache;
+    private volatile Context mContext;
 
     private static final AlbumArtCache sInstance = new AlbumArtCache();
 
@@ -65,6 +107,45 @@ public final class AlbumArtCache {
                     + value[ICON_BITMAP_INDEX].getByteCount();
             }
         };
+        ThreadPoolExecutor decodeExecutor = new ThreadPoolExecutor(
+            DECODE_THREADS, DECODE_THREADS,
+            DECODE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "AlbumArtDecode");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        decodeExecutor.allowCoreThreadTimeOut(true);
+        mDecodeExecutor = decodeExecutor;
+    }
+
+    /**
+     * Gives the cache the app context it needs to read art from the device, and backs the
+     * memory cache with a disk cache in the app's cache directory.
+     * Can be called any number of times; the disk cache is only opened on first use, on a
+     * background thread.
+     */
+    public void attach(Context context) {
+        if (mDiskCache == null) {
+            synchronized (this) {
+                if (mDiskCache == null) {
+                    mContext = context.getApplicationContext();
+                    mDiskCache = new DiskLruCache(
+                        new File(mContext.getCacheDir(), DISK_CACHE_DIR),
+                        MAX_DISK_CACHE_SIZE);
+                }
+            }
+        }
     }
 
     public Bitmap getBigImage(String artUrl) {
@@ -77,52 +158,245 @@ public final class AlbumArtCache {
         return result == null ? null : result[ICON_BITMAP_INDEX];
     }
 
-    public void fetch(final String artUrl, final FetchListener listener) {
-        // WARNING: for the sake of simplicity, simultaneous multi-thread fetch requests
-        // are not handled properly: they may cause redundant costly operations, like HTTP
-        // requests and bitmap rescales. For production-level apps, we recommend you use
-        // a proper image loading library, like Glide.
+    /**
+     * Gets the big image and icon for artUrl, from the cache if possible or else by downloading
+     * and decoding it on the art decode pool. The listener is always called on the main thread.
+     * Concurrent requests for the same URL share one download and decode.
+     * @return a handle that can be used to cancel the request, e.g. when the view that wanted
+     * the art is recycled. Cancelling after the listener has been called does nothing.
+     */
+    public FetchRequest fetch(final String artUrl, final FetchListener listener) {
         Bitmap[] bitmap = mCache.get(artUrl);
         if (bitmap != null) {
             LogHelper.d(TAG, "getOrFetch: album art is in cache, using it", artUrl);
             listener.onFetched(artUrl, bitmap[BIG_BITMAP_INDEX], bitmap[ICON_BITMAP_INDEX]);
+            return new FetchRequest(null, listener);
+        }
+
+        synchronized (mInFlight) {
+            InFlightFetch fetch = mInFlight.get(artUrl);
+            if (fetch == null) {
+                LogHelper.d(TAG, "getOrFetch: starting fetch of ", artUrl);
+                fetch = new InFlightFetch(artUrl);
+                mInFlight.put(artUrl, fetch);
+                fetch.mListeners.add(listener);
+                fetch.mFuture = mDecodeExecutor.submit(fetch);
+            } else {
+                LogHelper.d(TAG, "getOrFetch: joining fetch already in progress for ", artUrl);
+                fetch.mListeners.add(listener);
+            }
+            return new FetchRequest(fetch, listener);
+        }
+    }
+
+    /**
+     * @return the rescaled images from the disk cache, or null if they aren't both there
+     */
+    private Bitmap[] readFromDisk(String artUrl) {
+        DiskLruCache diskCache = mDiskCache;
+        if (diskCache == null) {
+            return null;
+        }
+        String key = diskKey(artUrl);
+        File bigFile = diskCache.get(key + DISK_KEY_BIG_SUFFIX);
+        File iconFile = diskCache.get(key + DISK_KEY_ICON_SUFFIX);
+        if (bigFile == null || iconFile == null) {
+            return null;
+        }
+        // decoding can fail if the file was evicted after we looked it up
+        Bitmap bitmap = decodeFile(bigFile, ART_CONFIG);
+        Bitmap icon = decodeFile(iconFile, ICON_CONFIG);
+        if (bitmap == null || icon == null) {
+            return null;
+        }
+        LogHelper.d(TAG, "readFromDisk: found ", artUrl);
+        return new Bitmap[] {bitmap, icon};
+    }
+
+    /**
+     * Decodes a file of the disk cache with the config its memory cache tier uses
+     */
+    private static Bitmap decodeFile(File file, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    private void writeToDisk(String artUrl, Bitmap[] bitmaps) {
+        DiskLruCache diskCache = mDiskCache;
+        if (diskCache == null) {
             return;
         }
-        LogHelper.d(TAG, "getOrFetch: starting asynctask to fetch ", artUrl);
+        String key = diskKey(artUrl);
+        try {
+            diskCache.put(key + DISK_KEY_BIG_SUFFIX, compress(bitmaps[BIG_BITMAP_INDEX]));
+            diskCache.put(key + DISK_KEY_ICON_SUFFIX, compress(bitmaps[ICON_BITMAP_INDEX]));
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "writeToDisk: could not cache ", artUrl);
+        }
+    }
 
-        new AsyncTask<Void, Void, Bitmap[]>() {
-            @Override
-            protected Bitmap[] doInBackground(Void[] objects) {
-                Bitmap[] bitmaps;
-                try {
-                    Bitmap bitmap = BitmapHelper.fetchAndRescaleBitmap(artUrl,
-                        MAX_ART_WIDTH, MAX_ART_HEIGHT);
-                    Bitmap icon = BitmapHelper.scaleBitmap(bitmap,
-                        MAX_ART_WIDTH_ICON, MAX_ART_HEIGHT_ICON);
-                    bitmaps = new Bitmap[] {bitmap, icon};
-                    mCache.put(artUrl, bitmaps);
-                } catch (IOException e) {
-                    return null;
-                }
-                LogHelper.d(TAG, "doInBackground: putting bitmap in cache. cache size=" +
-                    mCache.size());
-                return bitmaps;
+    private static byte[] compress(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_JPEG_QUALITY, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * URLs can't be used as file names, so the disk cache is keyed by their SHA-1
+     */
+    private static String diskKey(String artUrl) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(artUrl.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
             }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(artUrl.hashCode());
+        }
+    }
 
-            @Override
-            protected void onPostExecute(Bitmap[] bitmaps) {
+    /**
+     * @return the rescaled images, or null if artUrl is the art of an album that has none
+     */
+    private Bitmap[] fetchAndDecode(String artUrl) throws IOException {
+        byte[] data;
+        Context context = mContext;
+        if (AlbumArtResolver.isLocalArt(artUrl)) {
+            if (context == null) {
+                throw new IOException("Can't read local art before attach(): " + artUrl);
+            }
+            data = AlbumArtResolver.loadArt(context, artUrl);
+            if (data == null) {
+                return null;
+            }
+        } else {
+            data = BitmapHelper.fetchBytes(artUrl);
+        }
+        // Both sizes are decoded from the source: subsampling straight to icon size is much
+        // cheaper than scaling the big image down
+        Bitmap bitmap = BitmapHelper.decodeSampledBitmap(data,
+            MAX_ART_WIDTH, MAX_ART_HEIGHT, ART_CONFIG);
+        Bitmap icon = BitmapHelper.decodeSampledBitmap(data,
+            MAX_ART_WIDTH_ICON, MAX_ART_HEIGHT_ICON, ICON_CONFIG);
+        if (bitmap == null || icon == null) {
+            throw new IOException("Could not decode " + artUrl);
+        }
+        return new Bitmap[] {bitmap, icon};
+    }
+
+    /**
+     * One download and decode, shared by every listener that asked for the same URL while it
+     * was running. mListeners and mFuture are guarded by mInFlight.
+     */
+    private final class InFlightFetch implements Runnable {
+        final String mArtUrl;
+        final List<FetchListener> mListeners = new ArrayList<>();
+        Future<?> mFuture;
+
+        InFlightFetch(String artUrl) {
+            mArtUrl = artUrl;
+        }
+
+        @Override
+        public void run() {
+            Bitmap[] bitmaps = null;
+            Exception error = null;
+            try {
+                bitmaps = readFromDisk(mArtUrl);
                 if (bitmaps == null) {
-                    listener.onError(artUrl, new IllegalArgumentException("got null bitmaps"));
+                    bitmaps = fetchAndDecode(mArtUrl);
+                    if (bitmaps != null) {
+                        writeToDisk(mArtUrl, bitmaps);
+                    }
+                }
+                if (bitmaps != null) {
+                    mCache.put(mArtUrl, bitmaps);
+                    LogHelper.d(TAG, "fetch: putting bitmap in cache. cache size=", mCache.size());
+                } else {
+                    LogHelper.d(TAG, "fetch: no art for ", mArtUrl);
+                }
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+            final Bitmap[] result = bitmaps;
+            final Exception resultError = error;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(result, resultError);
+                }
+            });
+        }
+
+        private void deliver(Bitmap[] bitmaps, Exception error) {
+            List<FetchListener> listeners;
+            synchronized (mInFlight) {
+                if (mInFlight.get(mArtUrl) == this) {
+                    mInFlight.remove(mArtUrl);
+                }
+                listeners = new ArrayList<>(mListeners);
+                mListeners.clear();
+            }
+            for (FetchListener listener : listeners) {
+                if (error != null) {
+                    listener.onError(mArtUrl, error);
+                } else if (bitmaps == null) {
+                    listener.onNoArt(mArtUrl);
                 } else {
-                    listener.onFetched(artUrl,
+                    listener.onFetched(mArtUrl,
                         bitmaps[BIG_BITMAP_INDEX], bitmaps[ICON_BITMAP_INDEX]);
                 }
             }
-        }.execute();
+        }
+
+        void cancel(FetchListener listener) {
+            synchronized (mInFlight) {
+                if (mListeners.remove(listener) && mListeners.isEmpty()) {
+                    // Nobody wants this art anymore, so don't spend a decode thread on it
+                    LogHelper.d(TAG, "cancel: no listeners left for ", mArtUrl);
+                    mFuture.cancel(true);
+                    if (mInFlight.get(mArtUrl) == this) {
+                        mInFlight.remove(mArtUrl);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returned by {@link #fetch}, to let the caller withdraw its listener.
+     */
+    public static final class FetchRequest {
+        private final InFlightFetch mFetch;
+        private final FetchListener mListener;
+
+        private FetchRequest(InFlightFetch fetch, FetchListener listener) {
+            mFetch = fetch;
+            mListener = listener;
+        }
+
+        /**
+         * The listener won't be called. The download and decode are abandoned if no other
+         * listener is waiting for the same art.
+         */
+        public void cancel() {
+            if (mFetch != null) {
+                mFetch.cancel(mListener);
+            }
+        }
     }
 
     public static abstract class FetchListener {
         public abstract void onFetched(String artUrl, Bitmap bigImage, Bitmap iconImage);
+        /**
+         * Called instead of onFetched when artUrl is the art of an album that has none
+         */
+        public void onNoArt(String artUrl) {
+        }
         public void onError(String artUrl, Exception e) {
             LogHelper.e(TAG, e, "AlbumArtFetchListener: error while downloading " + artUrl);
         }
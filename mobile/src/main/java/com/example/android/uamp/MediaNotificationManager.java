@@ -25,7 +25,9 @@ import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
+import android.os.Handler;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.media.MediaDescriptionCompat;
@@ -34,6 +36,7 @@ import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v7.app.NotificationCompat;
+import android.text.TextUtils;
 
 import com.example.android.uamp.ui.MediaBrowserClient.MediaBrowserUampActivity;
 import com.example.android.uamp.utils.LogHelper;
@@ -43,6 +46,12 @@ import com.example.android.uamp.utils.ResourceHelper;
  * Keeps track of a notification and updates it automatically for a given
  * MediaSession. Maintaining a visible notification (usually) guarantees that the music service
  * won't be killed during playback.
+ *
+ * Playback state updates come in bursts (seeks, buffering, position updates), so they are
+ * coalesced into at most one notification post every UPDATE_INTERVAL_MS, which keeps the posts
+ * under NotificationManager's rate limit, and a post is skipped altogether when nothing it shows
+ * has changed. The position is shown by the notification's chronometer, which
+ * counts on its own: only a seek, which moves the chronometer's base, needs a new post.
  */
 public class MediaNotificationManager extends BroadcastReceiver {
     private static final String TAG = LogHelper.makeLogTag(MediaNotificationManager.class);
@@ -50,6 +59,12 @@ public class MediaNotificationManager extends BroadcastReceiver {
     private static final int NOTIFICATION_ID = 412;
     private static final int REQUEST_CODE = 100;
 
+    // NotificationManager drops updates of a package posted more than about 10 times a second,
+    // which could lose the last state of a burst
+    private static final long UPDATE_INTERVAL_MS = 150;
+    // A chronometer base that moved less than this is drift, not a seek
+    private static final long CHRONOMETER_TOLERANCE_MS = 1000;
+
     public static final String ACTION_PAUSE = "com.example.android.uamp.pause";
     public static final String ACTION_PLAY = "com.example.android.uamp.play";
     public static final String ACTION_PREV = "com.example.android.uamp.prev";
@@ -77,6 +92,23 @@ public class MediaNotificationManager extends BroadcastReceiver {
 
     private boolean mStarted = false;
 
+    private final Handler mHandler = new Handler();
+    private boolean mUpdatePending;
+    private long mLastUpdateTime;
+
+    private Bitmap mPlaceholderArt;
+    // The art of the current track, once it is in memory
+    private String mArtUrl;
+    private Bitmap mArt;
+
+    // What the posted notification shows, to tell whether a new state needs a new post
+    private MediaMetadataCompat mShownMetadata;
+    private int mShownState = PlaybackStateCompat.STATE_NONE;
+    private long mShownActions;
+    private long mShownChronometerBase;
+    private Bitmap mShownArt;
+    private String mShownCastName;
+
     public MediaNotificationManager(MusicService service) throws RemoteException {
         mService = service;
         updateSessionToken();
@@ -146,10 +178,112 @@ public class MediaNotificationManager extends BroadcastReceiver {
             } catch (IllegalArgumentException ex) {
                 // ignore if the receiver is not registered.
             }
+            mHandler.removeCallbacks(mUpdateRunnable);
+            mUpdatePending = false;
+            mShownMetadata = null;
             mService.stopForeground(true);
         }
     }
 
+    /**
+     * Posts the notification at most once every UPDATE_INTERVAL_MS (150ms), however many updates
+     * come in meanwhile
+     */
+    private void scheduleUpdate() {
+        if (mUpdatePending) {
+            return;
+        }
+        mUpdatePending = true;
+        long delay = mLastUpdateTime + UPDATE_INTERVAL_MS - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mUpdateRunnable, Math.max(0, delay));
+    }
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mUpdatePending = false;
+            mLastUpdateTime = SystemClock.uptimeMillis();
+            if (!mStarted || !hasVisibleChanges()) {
+                return;
+            }
+            Notification notification = createNotification();
+            if (notification != null) {
+                mNotificationManager.notify(NOTIFICATION_ID, notification);
+            }
+        }
+    };
+
+    private boolean hasVisibleChanges() {
+        if (mMetadata == null || mPlaybackState == null) {
+            return false;
+        }
+        if (mMetadata != mShownMetadata
+                || isPlaying(mPlaybackState) != isPlaying(mShownState)
+                || mPlaybackState.getActions() != mShownActions
+                || getArt(mMetadata.getDescription()) != mShownArt
+                || !TextUtils.equals(getCastName(), mShownCastName)) {
+            return true;
+        }
+        return isPlaying(mPlaybackState) && Math.abs(getChronometerBase(mPlaybackState)
+                - mShownChronometerBase) > CHRONOMETER_TOLERANCE_MS;
+    }
+
+    private static boolean isPlaying(PlaybackStateCompat state) {
+        return isPlaying(state.getState());
+    }
+
+    private static boolean isPlaying(int state) {
+        return state == PlaybackStateCompat.STATE_PLAYING;
+    }
+
+    /**
+     * @return the wall clock time at which the track would have started, had it played without
+     * pause up to its current position
+     */
+    private static long getChronometerBase(PlaybackStateCompat state) {
+        long position = state.getPosition();
+        if (state.getLastPositionUpdateTime() > 0) {
+            position += (long) ((SystemClock.elapsedRealtime()
+                    - state.getLastPositionUpdateTime()) * state.getPlaybackSpeed());
+        }
+        return System.currentTimeMillis() - position;
+    }
+
+    private String getCastName() {
+        if (mController != null && mController.getExtras() != null) {
+            return mController.getExtras().getString(MusicService.EXTRA_CONNECTED_CAST);
+        }
+        return null;
+    }
+
+    /**
+     * @return the art to show for description: its own if it is in memory, otherwise the
+     * placeholder (and the art is fetched), or null if it has none
+     */
+    private Bitmap getArt(MediaDescriptionCompat description) {
+        if (description.getIconUri() == null) {
+            return null;
+        }
+        // This sample assumes the iconUri will be a valid URL formatted String, but
+        // it can actually be any valid Android Uri formatted String.
+        String artUrl = description.getIconUri().toString();
+        if (!artUrl.equals(mArtUrl)) {
+            mArtUrl = artUrl;
+            mArt = AlbumArtCache.getInstance().getBigImage(artUrl);
+            if (mArt == null) {
+                fetchBitmapFromURLAsync(artUrl);
+            }
+        }
+        if (mArt != null) {
+            return mArt;
+        }
+        if (mPlaceholderArt == null) {
+            mPlaceholderArt = BitmapFactory.decodeResource(mService.getResources(),
+                    R.drawable.ic_default_art);
+        }
+        return mPlaceholderArt;
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
         final String action = intent.getAction();
@@ -221,10 +355,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
                     state.getState() == PlaybackStateCompat.STATE_NONE) {
                 stopNotification();
             } else {
-                Notification notification = createNotification();
-                if (notification != null) {
-                    mNotificationManager.notify(NOTIFICATION_ID, notification);
-                }
+                scheduleUpdate();
             }
         }
 
@@ -232,10 +363,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
         public void onMetadataChanged(MediaMetadataCompat metadata) {
             mMetadata = metadata;
             LogHelper.d(TAG, "Received new metadata ", metadata);
-            Notification notification = createNotification();
-            if (notification != null) {
-                mNotificationManager.notify(NOTIFICATION_ID, notification);
-            }
+            scheduleUpdate();
         }
 
         @Override
@@ -280,22 +408,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
         }
 
         MediaDescriptionCompat description = mMetadata.getDescription();
-
-        String fetchArtUrl = null;
-        Bitmap art = null;
-        if (description.getIconUri() != null) {
-            // This sample assumes the iconUri will be a valid URL formatted String, but
-            // it can actually be any valid Android Uri formatted String.
-            // async fetch the album art icon
-            String artUrl = description.getIconUri().toString();
-            art = AlbumArtCache.getInstance().getBigImage(artUrl);
-            if (art == null) {
-                fetchArtUrl = artUrl;
-                // use a placeholder art while the remote art is being downloaded
-                art = BitmapFactory.decodeResource(mService.getResources(),
-                    R.drawable.ic_default_art);
-            }
-        }
+        Bitmap art = getArt(description);
 
         notificationBuilder
                 .setStyle(new NotificationCompat.MediaStyle()
@@ -311,22 +424,22 @@ public class MediaNotificationManager extends BroadcastReceiver {
                 .setContentText(description.getSubtitle())
                 .setLargeIcon(art);
 
-        if (mController != null && mController.getExtras() != null) {
-            String castName = mController.getExtras().getString(MusicService.EXTRA_CONNECTED_CAST);
-            if (castName != null) {
-                String castInfo = mService.getResources()
-                        .getString(R.string.casting_to_device, castName);
-                notificationBuilder.setSubText(castInfo);
-                notificationBuilder.addAction(R.drawable.ic_close_black_24dp,
-                        mService.getString(R.string.stop_casting), mStopCastIntent);
-            }
+        String castName = getCastName();
+        if (castName != null) {
+            String castInfo = mService.getResources()
+                    .getString(R.string.casting_to_device, castName);
+            notificationBuilder.setSubText(castInfo);
+            notificationBuilder.addAction(R.drawable.ic_close_black_24dp,
+                    mService.getString(R.string.stop_casting), mStopCastIntent);
         }
 
         setNotificationPlaybackState(notificationBuilder);
-        if (fetchArtUrl != null) {
-            fetchBitmapFromURLAsync(fetchArtUrl, notificationBuilder);
-        }
 
+        mShownMetadata = mMetadata;
+        mShownState = mPlaybackState.getState();
+        mShownActions = mPlaybackState.getActions();
+        mShownArt = art;
+        mShownCastName = castName;
         return notificationBuilder.build();
     }
 
@@ -356,10 +469,11 @@ public class MediaNotificationManager extends BroadcastReceiver {
         }
         if (mPlaybackState.getState() == PlaybackStateCompat.STATE_PLAYING
                 && mPlaybackState.getPosition() >= 0) {
+            mShownChronometerBase = getChronometerBase(mPlaybackState);
             LogHelper.d(TAG, "updateNotificationPlaybackState. updating playback position to ",
-                    (System.currentTimeMillis() - mPlaybackState.getPosition()) / 1000, " seconds");
+                    (System.currentTimeMillis() - mShownChronometerBase) / 1000, " seconds");
             builder
-                .setWhen(System.currentTimeMillis() - mPlaybackState.getPosition())
+                .setWhen(mShownChronometerBase)
                 .setShowWhen(true)
                 .setUsesChronometer(true);
         } else {
@@ -374,17 +488,15 @@ public class MediaNotificationManager extends BroadcastReceiver {
         builder.setOngoing(mPlaybackState.getState() == PlaybackStateCompat.STATE_PLAYING);
     }
 
-    private void fetchBitmapFromURLAsync(final String bitmapUrl,
-                                         final NotificationCompat.Builder builder) {
+    private void fetchBitmapFromURLAsync(final String bitmapUrl) {
         AlbumArtCache.getInstance().fetch(bitmapUrl, new AlbumArtCache.FetchListener() {
             @Override
             public void onFetched(String artUrl, Bitmap bitmap, Bitmap icon) {
-                if (mMetadata != null && mMetadata.getDescription().getIconUri() != null &&
-                            mMetadata.getDescription().getIconUri().toString().equals(artUrl)) {
+                if (artUrl.equals(mArtUrl)) {
                     // If the media is still the same, update the notification:
                     LogHelper.d(TAG, "fetchBitmapFromURLAsync: set bitmap to ", artUrl);
-                    builder.setLargeIcon(bitmap);
-                    mNotificationManager.notify(NOTIFICATION_ID, builder.build());
+                    mArt = bitmap;
+                    scheduleUpdate();
                 }
             }
         });
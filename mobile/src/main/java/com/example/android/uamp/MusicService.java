@@ -35,15 +35,15 @@
  import android.support.v4.media.session.MediaSessionCompat;
  import android.support.v4.media.session.PlaybackStateCompat;
  import android.support.v7.media.MediaRouter;
+ import android.text.TextUtils;
 
  import com.example.android.uamp.ui.MediaBrowserClient.BrowsableItem;
- /*
- import com.example.android.uamp.model.CursorBasedPagedAlbumByIdMediaProvider;
- import com.example.android.uamp.model.CursorBasedPagedAlbumsMediaProvider;
- import com.example.android.uamp.model.CursorBasedPagedArtistByIdMediaProvider;
- import com.example.android.uamp.model.CursorBasedPagedArtistsMediaProvider;
- */
+ import com.example.android.uamp.database.PlayHistoryRepository;
+ import com.example.android.uamp.database.TrackStats;
+ import com.example.android.uamp.model.CatalogDelta;
+ import com.example.android.uamp.model.HistoryRing;
  import com.example.android.uamp.model.MusicProvider;
+ import com.example.android.uamp.model.TrackStatistics;
  import com.example.android.uamp.playback.*;
  import com.example.android.uamp.settings.Settings;
  import com.example.android.uamp.ui.MainLauncherActivity;
@@ -59,11 +59,13 @@
  import com.google.android.gms.common.ConnectionResult;
  import com.google.android.gms.common.GoogleApiAvailability;
 
+ import java.io.FileDescriptor;
+ import java.io.PrintWriter;
  import java.lang.ref.WeakReference;
  import java.util.ArrayList;
- import java.util.Iterator;
  import java.util.List;
- //import com.example.android.uamp.model.CursorBasedPagedMediaProvider;
+ import java.util.concurrent.ExecutorService;
+ import java.util.concurrent.Executors;
 
  import static com.example.android.uamp.ui.MediaBrowserClient.MediaIDUampHelper.MEDIA_ID_EMPTY_ROOT;
  import static com.example.android.uamp.ui.MediaBrowserClient.MediaIDUampHelper.MEDIA_ID_ROOT;
@@ -145,9 +147,12 @@
      public static final String CMD_STOP_CASTING = "CMD_STOP_CASTING";
      // Delay stopSelf by using a handler.
      private static final int STOP_DELAY = 30000;
+     // How long changes to the queue are collected before the whole of it is given to the session
+     private static final int SET_SESSION_QUEUE_DELAY_MS = 1000;
 
      private MusicProvider mMusicProvider;
      private PlaybackManager mPlaybackManager;
+     private QueueManager mQueueManager;
 
      private MediaSessionCompat mSession;
      private MediaNotificationManager mMediaNotificationManager;
@@ -161,31 +166,97 @@
      private boolean mIsConnectedToCar;
      private BroadcastReceiver mCarConnectionReceiver;
 
-     // Used by the onLoadChildren to get paginated data
-     /*
-     private CursorBasedPagedMediaProvider mCursorBasedPagedMediaProvider;
-     private CursorBasedPagedAlbumsMediaProvider mCursorBasedPagedAlbumsMediaProvider;
-     private CursorBasedPagedAlbumByIdMediaProvider mCursorBasedPagedAlbumByIdMediaProvider;
-     private CursorBasedPagedArtistByIdMediaProvider mCursorBasedPagedArtistByIdMediaProvider;
-     private CursorBasedPagedArtistsMediaProvider mCursorBasedPagedArtistsMediaProvider;
-    */
-     private ArrayList<MediaItem> mHistoryList = new ArrayList<>();
-
-     private void addItemToHistory(MediaMetadataCompat metadata) {
-         int historySize = Settings.getHistorySize(getApplicationContext());
-         MediaItem mediaItem = new MediaItem(metadata.getDescription(), MediaItem.FLAG_PLAYABLE);
-         mHistoryList.add(0, mediaItem); // add to top of history (most recent)
-         if (mHistoryList.size() > historySize) {
-             int index = 0;
-             Iterator<MediaItem> itr = mHistoryList.iterator();
-             while (itr.hasNext()) {
-                 itr.next();
-                 if (index++ > historySize) {
-                     LogHelper.i(TAG, "remove item from history");
-                     itr.remove();
+     // Used by onLoadChildren to build (pages of) catalog lists off the main thread
+     private final ExecutorService mBrowseExecutor = Executors.newSingleThreadExecutor();
+     private final Handler mMainHandler = new Handler();
+     // Recently played tracks, newest first. Used on the main thread only.
+     private HistoryRing<MediaItem> mHistory;
+     private PlayHistoryRepository mPlayHistoryRepository;
+     // The latest queue, not yet given to the session. Our own activity follows the queue
+     // through its deltas; the session queue is for other controllers, so it is only sent
+     // once for all the changes made within SET_SESSION_QUEUE_DELAY_MS.
+     private List<MediaSessionCompat.QueueItem> mPendingSessionQueue;
+     private final Runnable mSetSessionQueueRunnable = new Runnable() {
+         @Override
+         public void run() {
+             mSession.setQueue(mPendingSessionQueue);
+             mPendingSessionQueue = null;
+         }
+     };
+
+     /**
+      * @return true if the track was added, false if it is already the newest item
+      */
+     private boolean addItemToHistory(MediaMetadataCompat metadata) {
+         mHistory.setCapacity(Settings.getHistorySize(getApplicationContext()));
+         MediaItem newest = mHistory.peekNewest();
+         String mediaId = metadata.getDescription().getMediaId();
+         if (newest != null && TextUtils.equals(newest.getMediaId(), mediaId)) {
+             // the same track's metadata again (e.g. now with its album art)
+             return false;
+         }
+         mHistory.add(new MediaItem(metadata.getDescription(), MediaItem.FLAG_PLAYABLE));
+         mMusicProvider.markRecent(mediaId);
+         try {
+             mPlayHistoryRepository.recordPlay(Long.parseLong(mediaId), System.currentTimeMillis());
+         } catch (NumberFormatException e) {
+             LogHelper.w(TAG, "Not recording play of ", mediaId);
+         }
+         return true;
+     }
+
+     /**
+      * Fills the history with the plays stored before the service was last stopped. Plays made
+      * while they are being read stay the newest.
+      */
+     private void restoreHistory() {
+         final int historySize = Settings.getHistorySize(getApplicationContext());
+         mBrowseExecutor.execute(new Runnable() {
+             @Override
+             public void run() {
+                 List<Long> trackIds = mPlayHistoryRepository.loadRecentTrackIds(historySize);
+                 List<String> musicIds = new ArrayList<>(trackIds.size());
+                 for (Long trackId : trackIds) {
+                     musicIds.add(Long.toString(trackId));
+                 }
+                 final ArrayList<MediaItem> items = new ArrayList<>(trackIds.size());
+                 for (MediaMetadataCompat metadata : mMusicProvider.getMusicBatch(musicIds)) {
+                     if (metadata != null) {
+                         items.add(new MediaItem(metadata.getDescription(), MediaItem.FLAG_PLAYABLE));
+                     }
                  }
+                 mMainHandler.post(new Runnable() {
+                     @Override
+                     public void run() {
+                         HistoryRing<MediaItem> history = new HistoryRing<>(mHistory.getCapacity());
+                         for (int i = items.size() - 1; i >= 0; i--) {
+                             history.add(items.get(i));
+                         }
+                         for (int i = mHistory.size() - 1; i >= 0; i--) {
+                             history.add(mHistory.get(i));
+                         }
+                         mHistory = history;
+                         notifyChildrenChanged(MediaIDUampHelper.MEDIA_ID_HISTORY);
+                     }
+                 });
              }
-         }
+         });
+     }
+
+     /**
+      * Loads the stored completions and skips that weight random picks
+      */
+     private void restoreTrackStatistics() {
+         mBrowseExecutor.execute(new Runnable() {
+             @Override
+             public void run() {
+                 TrackStatistics statistics = mMusicProvider.getTrackStatistics();
+                 for (TrackStats stats : mPlayHistoryRepository.loadRatedTrackStats()) {
+                     statistics.load(stats.getTrackId(), stats.getCompleteCount(),
+                             stats.getSkipCount());
+                 }
+             }
+         });
      }
 
      /*
@@ -196,8 +267,20 @@
      public void onCreate() {
          super.onCreate();
          LogHelper.i(TAG, "onCreate");
+         AlbumArtCache.getInstance().attach(this);
 
          mMusicProvider = new MusicProvider(this);
+         mMusicProvider.setCatalogListener(new MusicProvider.CatalogListener() {
+             @Override
+             public void onCatalogChanged(long generation, final CatalogDelta delta) {
+                 mMainHandler.post(new Runnable() {
+                     @Override
+                     public void run() {
+                         notifyCatalogChanged(delta);
+                     }
+                 });
+             }
+         });
 
          // To make the app more responsive, fetch and cache catalog information now.
          // This can help improve the response time in the method
@@ -208,17 +291,23 @@
 
          mPackageValidator = new PackageValidator(this);
 
+         mHistory = new HistoryRing<>(Settings.getHistorySize(getApplicationContext()));
+         mPlayHistoryRepository = new PlayHistoryRepository(getApplicationContext());
+         restoreHistory();
+         restoreTrackStatistics();
+
          // Queue manager is just our local utility class, maintaining a queue of MediaSessionCompat.QueueItem
          // Any changes to the queue (current queue index updated or queue changed will be called back to this service
          // (using QueueManager.MetadataUpdateListener)
          // So in effect the sevice holds the queue, via the queuemanager
-         QueueManager queueManager = new QueueManager(mMusicProvider, getResources(), getApplicationContext(),
+         mQueueManager = new QueueManager(mMusicProvider, getResources(), getApplicationContext(),
                  new QueueManager.MetadataUpdateListener() {
                      @Override
                      public void onMetadataChanged(MediaMetadataCompat metadata) {
                          LogHelper.i(TAG, "Service MetadataUpdateListener onMetadataChanged ", metadata.getDescription().getTitle());
-                         addItemToHistory(metadata);
-                         notifyChildrenChanged("HISTORY");
+                         if (addItemToHistory(metadata)) {
+                             notifyChildrenChanged(MediaIDUampHelper.MEDIA_ID_HISTORY);
+                         }
                          mSession.setMetadata(metadata);
                      }
 
@@ -251,12 +340,25 @@
 
                      @Override
                      public void onQueueUpdated(String title,
-                                                List<MediaSessionCompat.QueueItem> newQueue) {
+                                                List<MediaSessionCompat.QueueItem> newQueue,
+                                                QueueDelta<MediaSessionCompat.QueueItem> delta) {
                          LogHelper.i(TAG, "Service MetadataUpdateListener onQueueUpdated: size= ", newQueue.size());
                          // So when the queue is updated we tell our mediaSessionCompat
                          // The media session has callbacks which are handled by mPlaybackManager
-                         mSession.setQueue(newQueue);// DISABLED
+                         if (delta != null) {
+                             mSession.sendSessionEvent(QueueDeltaBundle.EVENT_QUEUE_DELTA,
+                                     QueueDeltaBundle.toBundle(delta));
+                             if (mPendingSessionQueue == null) {
+                                 mMainHandler.postDelayed(mSetSessionQueueRunnable,
+                                         SET_SESSION_QUEUE_DELAY_MS);
+                             }
+                             mPendingSessionQueue = new ArrayList<>(newQueue);
+                         }
                          mSession.setQueueTitle(title);// DISABLED
+                         if (mPlaybackManager != null) {
+                             // the head of the queue is what plays next, so let it be preloaded
+                             mPlaybackManager.updateNextQueueItem();
+                         }
                      }
                  });
 
@@ -264,7 +366,7 @@
          Context context = getApplicationContext();
 
          StoragePlayback /*LocalPlayback*/ playback = new StoragePlayback /*LocalPlayback*/ (this, mMusicProvider);
-         mPlaybackManager = new PlaybackManager(this, getResources(), mMusicProvider, queueManager,
+         mPlaybackManager = new PlaybackManager(this, getResources(), mMusicProvider, mQueueManager,
                  playback, context);
 
          // Start a new MediaSession
@@ -308,8 +410,8 @@
          mMediaRouter = MediaRouter.getInstance(getApplicationContext());
 
          registerCarConnectionReceiver();
-         // fill an initial random queue. Does not set any song to play
-         queueManager.fillRandomQueue();
+         // restore the queue saved last time (or fill an initial random queue). Does not start playing
+         mQueueManager.restoreQueue();
      }
 
      /**
@@ -349,6 +451,7 @@
          unregisterCarConnectionReceiver();
          // Service is being killed, so make sure we release our resources
          mPlaybackManager.handleStopRequest(null);
+         mPlaybackManager.release();
          mMediaNotificationManager.stopNotification();
 
          if (mCastSessionManager != null) {
@@ -357,7 +460,42 @@
          }
 
          mDelayedStopHandler.removeCallbacksAndMessages(null);
+         mMainHandler.removeCallbacks(mSetSessionQueueRunnable);
          mSession.release();
+         mBrowseExecutor.shutdownNow();
+         mQueueManager.release();
+         mPlayHistoryRepository.release();
+         mMusicProvider.setCatalogListener(null);
+         mMusicProvider.release();
+     }
+
+     /**
+      * Tells browsers to reload only the nodes whose children differ in the new catalog
+      */
+     private void notifyCatalogChanged(CatalogDelta delta) {
+         notifyChildrenChanged(MediaIDUampHelper.MEDIA_ID_ALL_SONGS);
+         if (delta.isAlbumListChanged()) {
+             notifyChildrenChanged(MediaIDUampHelper.MEDIA_ID_ALBUMS);
+         }
+         if (delta.isArtistListChanged()) {
+             notifyChildrenChanged(MediaIDUampHelper.MEDIA_ID_ARTISTS);
+         }
+         for (long albumId : delta.getChangedAlbumIds()) {
+             notifyChildrenChanged(MediaIDUampHelper.MEDIA_ID_ALBUM + albumId);
+         }
+         for (long artistId : delta.getChangedArtistIds()) {
+             notifyChildrenChanged(MediaIDUampHelper.MEDIA_ID_ARTIST + artistId);
+         }
+     }
+
+     /**
+      * Adds the playback timings to "adb shell dumpsys activity service MusicService"
+      */
+     @Override
+     public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+         super.dump(fd, writer, args);
+         writer.println("Playback trace:");
+         writer.print(PlaybackTrace.getInstance().dump());
      }
 
      @Override
@@ -420,37 +558,48 @@
 
      /**
       * Overriden method of MediaBrowserServiceCompat
-      * Used to get history
+      * Used by clients that subscribe without paging options: returns all the children
       * @param parentMediaId
       * @param result
       */
      @Override
      public void onLoadChildren(@NonNull final String parentMediaId,
                                 @NonNull final Result<List<MediaItem>> result) {
-         LogHelper.i(TAG, "OnLoadChildren id=", parentMediaId);
+         loadChildren(parentMediaId, result, -1, -1);
+     }
+
+     /**
+      * Overriden method of MediaBrowserServiceCompat
+      * Honours {@link MediaBrowserCompat#EXTRA_PAGE} and {@link MediaBrowserCompat#EXTRA_PAGE_SIZE}
+      * so that browsers (Android Auto, TV...) can pull large lists one page at a time
+      * @param parentMediaId
+      * @param result
+      * @param options
+      */
+     @Override
+     public void onLoadChildren(@NonNull final String parentMediaId,
+                                @NonNull final Result<List<MediaItem>> result,
+                                @NonNull Bundle options) {
+         int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+         int pageSize = options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+         loadChildren(parentMediaId, result, page, pageSize);
+     }
+
+     /**
+      * Sends the children of parentMediaId, or one page of them if page and pageSize are valid.
+      * Anything that needs the music catalog is built on mBrowseExecutor, so large libraries
+      * don't block the service's main thread; the result is sent back on the main thread.
+      */
+     private void loadChildren(final String parentMediaId, final Result<List<MediaItem>> result,
+                               int page, int pageSize) {
+         LogHelper.i(TAG, "OnLoadChildren id=", parentMediaId, " page=", page, " pageSize=", pageSize);
+         final boolean paged = page >= 0 && pageSize > 0;
+         final int offset = paged ? page * pageSize : 0;
+         final int limit = paged ? pageSize : Integer.MAX_VALUE;
+
          if (parentMediaId.equals(MediaIDUampHelper.MEDIA_ID_HISTORY)) {
-             result.sendResult(mHistoryList);
-         } else if (parentMediaId.equals(MediaIDUampHelper.MEDIA_ID_ALL_SONGS)) {
-             ArrayList<MediaItem> mediaItems = mMusicProvider.getAllSongs();
-             result.sendResult(mediaItems);
-         } else if (parentMediaId.equals(MediaIDUampHelper.MEDIA_ID_ARTISTS)) {
-             ArrayList<MediaItem> mediaItems = mMusicProvider.getArtistMediaItems();
-             LogHelper.i(TAG, "found ", mediaItems.size()," items");
-             result.sendResult(mediaItems);
-         } else if (parentMediaId.equals(MediaIDUampHelper.MEDIA_ID_ALBUMS)) {
-             ArrayList<MediaItem> mediaItems = mMusicProvider.getAlbumMediaItems();
-             LogHelper.i(TAG, "found ", mediaItems.size()," items");
-             result.sendResult(mediaItems);
-         } else if (parentMediaId.startsWith(MediaIDUampHelper.MEDIA_ID_ARTIST)) {
-             String artistMediaID = MediaIDUampHelper.getArtistIdFromMediaId(parentMediaId);
-             LogHelper.i(TAG, "id = ", artistMediaID);
-             ArrayList<MediaItem> mediaItems = mMusicProvider.getMediaItemsByArtist(artistMediaID);
-             result.sendResult(mediaItems);
-         } else if (parentMediaId.startsWith(MediaIDUampHelper.MEDIA_ID_ALBUM)) {
-             String AlbumMediaId = MediaIDUampHelper.getAlbumIdFromMediaId(parentMediaId);
-             LogHelper.i(TAG, "id = ", AlbumMediaId);
-             ArrayList<MediaItem> mediaItems = mMusicProvider.getMediaItemsByAlbum(AlbumMediaId);
-             result.sendResult(mediaItems);
+             result.sendResult(mHistory.toList(offset, limit));
+             return;
          } else if (parentMediaId.equals(MEDIA_ID_ROOT)) {
              ArrayList<BrowsableItem> mainMenuItems = new ArrayList<>();
              BrowsableItem s;
@@ -463,10 +612,69 @@
              s = new BrowsableItem("Artists", "View all artists", MediaIDUampHelper.MEDIA_ID_ARTISTS, false, true);
              mainMenuItems.add(s);
              List<MediaBrowserCompat.MediaItem> mediaItems = mapToMediaItems(mainMenuItems);
-             result.sendResult(mediaItems);
+             result.sendResult(subList(mediaItems, offset, limit));
+             return;
+         }
+
+         result.detach();
+         mBrowseExecutor.execute(new Runnable() {
+             @Override
+             public void run() {
+                 List<MediaItem> children;
+                 try {
+                     children = loadCatalogChildren(parentMediaId, offset, limit);
+                 } catch (RuntimeException e) {
+                     // the result was detached, so it must still be sent or the client waits forever
+                     LogHelper.e(TAG, e, "Could not load children of ", parentMediaId);
+                     children = null;
+                 }
+                 final List<MediaItem> mediaItems = children;
+                 mMainHandler.post(new Runnable() {
+                     @Override
+                     public void run() {
+                         result.sendResult(mediaItems);
+                     }
+                 });
+             }
+         });
+     }
+
+     /**
+      * Runs on mBrowseExecutor
+      * @return the requested range of children, or null if parentMediaId is not known
+      */
+     private List<MediaItem> loadCatalogChildren(String parentMediaId, int offset, int limit) {
+         List<MediaItem> mediaItems;
+         if (parentMediaId.equals(MediaIDUampHelper.MEDIA_ID_ALL_SONGS)) {
+             mediaItems = mMusicProvider.getAllSongs(offset, limit);
+         } else if (parentMediaId.equals(MediaIDUampHelper.MEDIA_ID_ARTISTS)) {
+             mediaItems = mMusicProvider.getArtistMediaItems(offset, limit);
+         } else if (parentMediaId.equals(MediaIDUampHelper.MEDIA_ID_ALBUMS)) {
+             mediaItems = mMusicProvider.getAlbumMediaItems(offset, limit);
+         } else if (parentMediaId.startsWith(MediaIDUampHelper.MEDIA_ID_ARTIST)) {
+             String artistMediaID = MediaIDUampHelper.getArtistIdFromMediaId(parentMediaId);
+             LogHelper.i(TAG, "id = ", artistMediaID);
+             mediaItems = subList(mMusicProvider.getMediaItemsByArtist(artistMediaID), offset, limit);
+         } else if (parentMediaId.startsWith(MediaIDUampHelper.MEDIA_ID_ALBUM)) {
+             String AlbumMediaId = MediaIDUampHelper.getAlbumIdFromMediaId(parentMediaId);
+             LogHelper.i(TAG, "id = ", AlbumMediaId);
+             mediaItems = subList(mMusicProvider.getMediaItemsByAlbum(AlbumMediaId), offset, limit);
          } else {
-             result.sendResult(null);
+             return null;
+         }
+         LogHelper.i(TAG, "found ", mediaItems.size()," items");
+         return mediaItems;
+     }
+
+     private static List<MediaItem> subList(List<MediaItem> list, int offset, int limit) {
+         if (offset == 0 && limit >= list.size()) {
+             return new ArrayList<>(list);
          }
+         int end = (int) Math.min(list.size(), (long) offset + limit);
+         if (offset >= end) {
+             return new ArrayList<>();
+         }
+         return new ArrayList<>(list.subList(offset, end));
      }
 
      /**
@@ -508,6 +716,28 @@
          mSession.setPlaybackState(newState);
      }
 
+     @Override
+     public void onTrackCompleted(String mediaId) {
+         try {
+             long trackId = Long.parseLong(mediaId);
+             mMusicProvider.getTrackStatistics().recordCompletion(trackId);
+             mPlayHistoryRepository.recordCompletion(trackId);
+         } catch (NumberFormatException e) {
+             LogHelper.w(TAG, "Not recording completion of ", mediaId);
+         }
+     }
+
+     @Override
+     public void onTrackSkipped(String mediaId) {
+         try {
+             long trackId = Long.parseLong(mediaId);
+             mMusicProvider.getTrackStatistics().recordSkip(trackId);
+             mPlayHistoryRepository.recordSkip(trackId);
+         } catch (NumberFormatException e) {
+             LogHelper.w(TAG, "Not recording skip of ", mediaId);
+         }
+     }
+
      private void registerCarConnectionReceiver() {
          IntentFilter filter = new IntentFilter(CarHelper.ACTION_MEDIA_STATUS);
          mCarConnectionReceiver = new BroadcastReceiver() {
@@ -0,0 +1,130 @@
+package com.example.android.uamp.database;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The writer thread of a repository that batches its changes: they are collected in a pending
+ * object of type W, and written together by {@link #write} on the writer thread a fixed delay
+ * after the first of them. Reads also run on the writer thread, after the pending changes have
+ * been written, so they see everything the repository was asked to store. All writes go through
+ * the one thread, so they reach the database in the order they were made.
+ */
+abstract class BatchedDatabaseWriter<W> {
+
+    private final String mTag;
+    private final long mWriteDelayMs;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    // Guarded by this
+    private W mPending;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param tag the repository's log tag
+     * @param writeDelayMs how long to wait for further changes before writing them out together
+     */
+    BatchedDatabaseWriter(String tag, long writeDelayMs) {
+        mTag = tag;
+        mWriteDelayMs = writeDelayMs;
+    }
+
+    /**
+     * @return a new, empty set of pending changes
+     */
+    protected abstract W newPending();
+
+    /**
+     * Runs on the writer thread. Writes pending, which nobody else holds any more.
+     */
+    protected abstract void write(W pending);
+
+    /**
+     * Must be called holding the lock of this writer, which must still be held while the changes
+     * are added.
+     * @return the changes waiting to be written, which are written writeDelayMs after the first
+     * of them was added
+     */
+    W pending() {
+        if (mPending == null) {
+            mPending = newPending();
+        }
+        if (!mFlushScheduled && !mExecutor.isShutdown()) {
+            mFlushScheduled = true;
+            mExecutor.schedule(mFlushRunnable, mWriteDelayMs, TimeUnit.MILLISECONDS);
+        }
+        return mPending;
+    }
+
+    /**
+     * Writes the pending changes and then runs query, on the writer thread. Blocks until it is
+     * done, so it must not be called on the main thread.
+     * @return the result of query, or fallback if it failed or the writer has been released
+     */
+    <T> T query(final Callable<T> query, T fallback) {
+        try {
+            return mExecutor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    flush();
+                    return query.call();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LogHelper.w(mTag, e, "Interrupted while reading");
+            return fallback;
+        } catch (ExecutionException e) {
+            LogHelper.e(mTag, e, "Could not read");
+            return fallback;
+        } catch (RejectedExecutionException e) {
+            // e.g. a restore that only got to run after the service was destroyed
+            LogHelper.w(mTag, "Read after release");
+            return fallback;
+        }
+    }
+
+    /**
+     * Writes any pending changes now rather than after the usual delay, then stops the writer
+     * thread. Nothing can be written through this writer afterwards.
+     */
+    synchronized void release() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mExecutor.execute(mFlushRunnable);
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Runs on the writer thread. Takes everything queued up so far and writes it.
+     */
+    private void flush() {
+        W pending;
+        synchronized (this) {
+            pending = mPending;
+            mPending = null;
+            mFlushScheduled = false;
+        }
+        if (pending == null) {
+            return;
+        }
+        try {
+            write(pending);
+        } catch (RuntimeException e) {
+            LogHelper.e(mTag, e, "Could not write");
+        }
+    }
+}
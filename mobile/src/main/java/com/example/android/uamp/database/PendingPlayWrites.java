@@ -0,0 +1,68 @@
+package com.example.android.uamp.database;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plays, completions and skips waiting to be written by {@link PlayHistoryRepository}, with their
+ * effect on each track's {@link TrackStats} already summed, so that a flush updates each track's
+ * stats once however many times it was played.
+ */
+class PendingPlayWrites {
+
+    private static final int PLAYS = 0;
+    private static final int LAST_PLAYED = 1;
+    private static final int COMPLETIONS = 2;
+    private static final int SKIPS = 3;
+
+    private final ArrayList<PlayEvent> mEvents = new ArrayList<>();
+    // trackId -> {plays, last played, completions, skips}
+    private final LinkedHashMap<Long, long[]> mCounts = new LinkedHashMap<>();
+
+    void add(long trackId, long playedAt) {
+        mEvents.add(new PlayEvent(trackId, playedAt));
+        long[] counts = counts(trackId);
+        counts[PLAYS]++;
+        counts[LAST_PLAYED] = Math.max(counts[LAST_PLAYED], playedAt);
+    }
+
+    void addCompletion(long trackId) {
+        counts(trackId)[COMPLETIONS]++;
+    }
+
+    void addSkip(long trackId) {
+        counts(trackId)[SKIPS]++;
+    }
+
+    private long[] counts(long trackId) {
+        long[] counts = mCounts.get(trackId);
+        if (counts == null) {
+            counts = new long[4];
+            mCounts.put(trackId, counts);
+        }
+        return counts;
+    }
+
+    boolean isEmpty() {
+        return mCounts.isEmpty();
+    }
+
+    /**
+     * Writes the pending plays. Must be called inside a transaction.
+     */
+    void applyTo(PlayHistoryDao dao) {
+        if (!mEvents.isEmpty()) {
+            dao.insertPlayEvents(mEvents);
+        }
+        for (Map.Entry<Long, long[]> entry : mCounts.entrySet()) {
+            long trackId = entry.getKey();
+            long[] counts = entry.getValue();
+            if (dao.addCounts(trackId, (int) counts[PLAYS], counts[LAST_PLAYED],
+                    (int) counts[COMPLETIONS], (int) counts[SKIPS]) == 0) {
+                dao.insertTrackStats(new TrackStats(trackId, (int) counts[PLAYS],
+                        counts[LAST_PLAYED], (int) counts[COMPLETIONS], (int) counts[SKIPS]));
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.uamp.database;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The net effect of a burst of queue mutations, waiting to be written by {@link QueuedSongRepository}.
+ *
+ * Mutations are folded together as they arrive, so that a flush only writes the final state
+ * of each row once: a replace discards everything before it, a row that is appended and then
+ * removed is never written, and a row that is reordered several times gets a single update.
+ */
+class PendingQueueWrites {
+
+    // SQLite refuses statements with more than 999 bound variables
+    static final int MAX_DELETE_BATCH = 500;
+
+    private boolean mClearAll;
+    private final LinkedHashSet<Long> mDeletes = new LinkedHashSet<>();
+    private final LinkedHashMap<Long, QueuedSong> mInserts = new LinkedHashMap<>();
+    private final LinkedHashMap<Long, QueuedSong> mUpdates = new LinkedHashMap<>();
+
+    void append(List<QueuedSong> songs) {
+        for (QueuedSong song : songs) {
+            Long queueId = song.getQueueId();
+            mDeletes.remove(queueId);
+            mUpdates.remove(queueId);
+            mInserts.put(queueId, song);
+        }
+    }
+
+    void remove(List<Long> queueIds) {
+        for (Long queueId : queueIds) {
+            mInserts.remove(queueId);
+            mUpdates.remove(queueId);
+            // Once the table is cleared, only the rows we insert exist in it
+            if (!mClearAll) {
+                mDeletes.add(queueId);
+            }
+        }
+    }
+
+    void reorder(List<QueuedSong> songs) {
+        for (QueuedSong song : songs) {
+            Long queueId = song.getQueueId();
+            if (mInserts.containsKey(queueId)) {
+                mInserts.put(queueId, song);
+            } else {
+                mUpdates.put(queueId, song);
+            }
+        }
+    }
+
+    void replace(List<QueuedSong> songs) {
+        mClearAll = true;
+        mDeletes.clear();
+        mUpdates.clear();
+        mInserts.clear();
+        append(songs);
+    }
+
+    boolean isEmpty() {
+        return !mClearAll && mDeletes.isEmpty() && mInserts.isEmpty() && mUpdates.isEmpty();
+    }
+
+    /**
+     * Writes the pending changes. Must be called inside a transaction.
+     */
+    void applyTo(QueuedSongDao dao) {
+        if (mClearAll) {
+            dao.deleteAllQueuedSongs();
+        }
+        if (!mDeletes.isEmpty()) {
+            List<Long> deletes = new ArrayList<>(mDeletes);
+            for (int start = 0; start < deletes.size(); start += MAX_DELETE_BATCH) {
+                int end = Math.min(deletes.size(), start + MAX_DELETE_BATCH);
+                dao.deleteQueuedSongs(deletes.subList(start, end));
+            }
+        }
+        if (!mInserts.isEmpty()) {
+            dao.insertQueuedSongs(new ArrayList<>(mInserts.values()));
+        }
+        if (!mUpdates.isEmpty()) {
+            dao.updateQueuedSongs(new ArrayList<>(mUpdates.values()));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.android.uamp.database;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * One play of a track. Rows are only ever appended, and old ones deleted by compaction
+ * (see {@link PlayHistoryRepository}).
+ */
+@Entity(tableName = "playevents", indices = {@Index("playedat")})
+public class PlayEvent {
+
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "id")
+    private long id;
+
+    @ColumnInfo(name = "trackid")
+    private long trackId;
+
+    // System.currentTimeMillis() when the track started
+    @ColumnInfo(name = "playedat")
+    private long playedAt;
+
+    public PlayEvent(long trackId, long playedAt) {
+        this.trackId = trackId;
+        this.playedAt = playedAt;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getTrackId() {
+        return this.trackId;
+    }
+
+    public long getPlayedAt() {
+        return this.playedAt;
+    }
+}
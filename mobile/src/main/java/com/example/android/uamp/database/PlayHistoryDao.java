@@ -0,0 +1,44 @@
+package com.example.android.uamp.database;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface PlayHistoryDao {
+
+    @Insert
+    void insertPlayEvents(List<PlayEvent> events);
+
+    @Query ("SELECT trackid FROM playevents ORDER BY playedat DESC, id DESC LIMIT :limit")
+    List<Long> getRecentTrackIds(int limit);
+
+    /**
+     * Deletes the plays before cutoff, except the newest keep plays
+     * @return the number of rows deleted
+     */
+    @Query ("DELETE FROM playevents WHERE playedat < :cutoff AND id NOT IN "
+            + "(SELECT id FROM playevents ORDER BY playedat DESC, id DESC LIMIT :keep)")
+    int deletePlayEventsBefore(long cutoff, int keep);
+
+    /**
+     * @return the number of rows updated: 0 if the track has no stats yet
+     */
+    @Query ("UPDATE trackstats SET playcount = playcount + :plays, "
+            + "lastplayed = MAX(lastplayed, :lastPlayed), "
+            + "completecount = completecount + :completions, skipcount = skipcount + :skips "
+            + "WHERE trackid = :trackId")
+    int addCounts(long trackId, int plays, long lastPlayed, int completions, int skips);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertTrackStats(TrackStats stats);
+
+    @Query ("SELECT * FROM trackstats WHERE trackid = :trackId")
+    TrackStats getTrackStats(long trackId);
+
+    @Query ("SELECT * FROM trackstats WHERE completecount > 0 OR skipcount > 0")
+    List<TrackStats> getRatedTrackStats();
+}
@@ -0,0 +1,143 @@
+package com.example.android.uamp.database;
+
+import android.content.Context;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores which tracks were played and when, so the history survives the service being killed,
+ * and how often each was played to the end or skipped.
+ *
+ * Plays are written in batches: recordPlay, recordCompletion and recordSkip only queue the
+ * change, and a flush WRITE_DELAY_MS later writes everything queued in one transaction. Old
+ * plays are deleted at most once a day, keeping at least the newest MIN_KEPT_EVENTS so a long
+ * break doesn't empty the history. The per-track counts in {@link TrackStats} are never
+ * compacted.
+ */
+public class PlayHistoryRepository {
+
+    private static final String TAG = LogHelper.makeLogTag(PlayHistoryRepository.class);
+
+    private static final long WRITE_DELAY_MS = 5000;
+    private static final long COMPACT_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long RETENTION_MS = TimeUnit.DAYS.toMillis(90);
+    private static final int MIN_KEPT_EVENTS = 1000;
+
+    private final QueuedSongDatabase mDatabase;
+    private final PlayHistoryDao mPlayHistoryDao;
+
+    // Used on the writer thread only
+    private long mLastCompactionTime;
+
+    private final BatchedDatabaseWriter<PendingPlayWrites> mWriter =
+            new BatchedDatabaseWriter<PendingPlayWrites>(TAG, WRITE_DELAY_MS) {
+                @Override
+                protected PendingPlayWrites newPending() {
+                    return new PendingPlayWrites();
+                }
+
+                @Override
+                protected void write(PendingPlayWrites writes) {
+                    writePlays(writes);
+                }
+            };
+
+    public PlayHistoryRepository(Context context) {
+        mDatabase = QueuedSongDatabase.getDatabase(context);
+        mPlayHistoryDao = mDatabase.PlayHistoryDao();
+    }
+
+    /**
+     * @param playedAt System.currentTimeMillis() when the track started
+     */
+    public void recordPlay(long trackId, long playedAt) {
+        synchronized (mWriter) {
+            mWriter.pending().add(trackId, playedAt);
+        }
+    }
+
+    /**
+     * Records that the track was played to the end
+     */
+    public void recordCompletion(long trackId) {
+        synchronized (mWriter) {
+            mWriter.pending().addCompletion(trackId);
+        }
+    }
+
+    /**
+     * Records that the user skipped the track before it ended
+     */
+    public void recordSkip(long trackId) {
+        synchronized (mWriter) {
+            mWriter.pending().addSkip(trackId);
+        }
+    }
+
+    /**
+     * Reads the most recently played tracks. Blocks until any pending plays have been written,
+     * so it must not be called on the main thread.
+     * @return up to limit track ids, newest first, or an empty list if they could not be read or
+     * the repository has been released
+     */
+    public List<Long> loadRecentTrackIds(final int limit) {
+        return query(new Callable<List<Long>>() {
+            @Override
+            public List<Long> call() {
+                return mPlayHistoryDao.getRecentTrackIds(limit);
+            }
+        });
+    }
+
+    /**
+     * Reads the stats of every track that has been played to the end or skipped. Blocks like
+     * {@link #loadRecentTrackIds}.
+     */
+    public List<TrackStats> loadRatedTrackStats() {
+        return query(new Callable<List<TrackStats>>() {
+            @Override
+            public List<TrackStats> call() {
+                return mPlayHistoryDao.getRatedTrackStats();
+            }
+        });
+    }
+
+    private <T> List<T> query(Callable<List<T>> query) {
+        return mWriter.query(query, Collections.<T>emptyList());
+    }
+
+    /**
+     * Writes anything pending now rather than after the usual delay. Nothing can be written
+     * through this repository afterwards.
+     */
+    public void release() {
+        mWriter.release();
+    }
+
+    /**
+     * Runs on the writer thread. Writes a batch of plays in one transaction, and compacts the
+     * plays if it has not been done for a day.
+     */
+    private void writePlays(final PendingPlayWrites writes) {
+        if (!writes.isEmpty()) {
+            mDatabase.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    writes.applyTo(mPlayHistoryDao);
+                }
+            });
+        }
+        long now = System.currentTimeMillis();
+        if (now - mLastCompactionTime > COMPACT_INTERVAL_MS) {
+            mLastCompactionTime = now;
+            int deleted = mPlayHistoryDao.deletePlayEventsBefore(now - RETENTION_MS,
+                    MIN_KEPT_EVENTS);
+            LogHelper.i(TAG, "Compacted play history, deleted=", deleted);
+        }
+    }
+}
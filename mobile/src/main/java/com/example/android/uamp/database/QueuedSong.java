@@ -13,10 +13,11 @@ import io.reactivex.annotations.NonNull;
 @Entity(tableName = "queuedsongs")
 public class QueuedSong {
 
+    // The queueId of the MediaSessionCompat.QueueItem, so that queue mutations can address rows directly
     @NonNull
-    @PrimaryKey (autoGenerate = true)
-    @ColumnInfo(name = "pk")
-    private int pk;
+    @PrimaryKey
+    @ColumnInfo(name = "queueid")
+    private long queueId;
 
     @NonNull
     @ColumnInfo(name = "queueorder")
@@ -30,15 +31,15 @@ public class QueuedSong {
     @ColumnInfo(name = "description")
     private String description;
 
-    public QueuedSong(@NonNull int pk, @NonNull int queueorder, @NonNull int trackId, @NonNull String description) {
-        this.pk = pk;
+    public QueuedSong(@NonNull long queueId, @NonNull int queueorder, @NonNull int trackId, @NonNull String description) {
+        this.queueId = queueId;
         this.trackId = trackId;
         this.queueorder = queueorder;
         this.description = description;
     }
 
-    public int getPk() {
-        return this.pk;
+    public long getQueueId() {
+        return this.queueId;
     }
 
     public int getQueueorder() {
@@ -2,7 +2,9 @@ package com.example.android.uamp.database;
 
 import android.arch.persistence.room.Dao;
 import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
 import android.arch.persistence.room.Query;
+import android.arch.persistence.room.Update;
 
 import java.util.List;
 
@@ -16,6 +18,12 @@ public interface QueuedSongDao {
     @Insert
     void insertQueuedSong(QueuedSong song);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertQueuedSongs(List<QueuedSong> songs);
+
+    @Update
+    void updateQueuedSongs(List<QueuedSong> songs);
+
     @Query ("Select * from queuedsongs Order BY queueorder")
     List<QueuedSong> getAllQueuedSongs();
 
@@ -25,4 +33,10 @@ public interface QueuedSongDao {
     @Query ("Delete From queuedsongs WHERE queueorder = :queueorder")
     void deleteQueuedSong(int queueorder);
 
+    @Query ("Delete From queuedsongs WHERE queueid IN (:queueIds)")
+    void deleteQueuedSongs(List<Long> queueIds);
+
+    @Query ("Delete From queuedsongs")
+    void deleteAllQueuedSongs();
+
 }
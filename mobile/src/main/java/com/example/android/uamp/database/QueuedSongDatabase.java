@@ -10,10 +10,11 @@ import android.content.Context;
  */
 
 
-@Database(entities = {QueuedSong.class}, version =3)
+@Database(entities = {QueuedSong.class, PlayEvent.class, TrackStats.class}, version =6)
 public abstract class QueuedSongDatabase extends RoomDatabase {
 
     public abstract QueuedSongDao QueuedSongDao();
+    public abstract PlayHistoryDao PlayHistoryDao();
     private static QueuedSongDatabase INSTANCE;
 
     static QueuedSongDatabase getDatabase(final Context context) {
@@ -5,7 +5,11 @@ import android.arch.lifecycle.MutableLiveData;
 import android.content.Context;
 import android.os.AsyncTask;
 
+import com.example.android.uamp.utils.LogHelper;
+
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Created by AsbridgeD on 29-Oct-18.
@@ -13,14 +17,103 @@ import java.util.List;
 
 public class QueuedSongRepository implements AsyncResult {
 
+    private static final String TAG = LogHelper.makeLogTag(QueuedSongRepository.class);
+
+    // How long to wait for further queue changes before writing them out together
+    private static final long WRITE_DELAY_MS = 250;
+
     private List<QueuedSong> searchResults;
+    private QueuedSongDatabase mDatabase;
     private QueuedSongDao mQueuedSongDao;
 
+    private final BatchedDatabaseWriter<PendingQueueWrites> mWriter =
+            new BatchedDatabaseWriter<PendingQueueWrites>(TAG, WRITE_DELAY_MS) {
+                @Override
+                protected PendingQueueWrites newPending() {
+                    return new PendingQueueWrites();
+                }
+
+                @Override
+                protected void write(final PendingQueueWrites writes) {
+                    if (writes.isEmpty()) {
+                        return;
+                    }
+                    mDatabase.runInTransaction(new Runnable() {
+                        @Override
+                        public void run() {
+                            writes.applyTo(mQueuedSongDao);
+                        }
+                    });
+                }
+            };
+
     public QueuedSongRepository(Context context) {
-        QueuedSongDatabase db = QueuedSongDatabase.getDatabase(context);
-        mQueuedSongDao = db.QueuedSongDao();
+        mDatabase = QueuedSongDatabase.getDatabase(context);
+        mQueuedSongDao = mDatabase.QueuedSongDao();
+    }
+
+    /**
+     * Adds songs to the stored queue
+     * @param songs new rows, with their queueorder already set
+     */
+    public void appendQueuedSongs(List<QueuedSong> songs) {
+        synchronized (mWriter) {
+            mWriter.pending().append(songs);
+        }
+    }
+
+    /**
+     * Removes songs from the stored queue
+     * @param queueIds the queueIds of the rows to delete
+     */
+    public void removeQueuedSongs(List<Long> queueIds) {
+        synchronized (mWriter) {
+            mWriter.pending().remove(queueIds);
+        }
+    }
+
+    /**
+     * Stores the new queueorder of songs that have moved
+     * @param songs the moved rows, with their new queueorder
+     */
+    public void reorderQueuedSongs(List<QueuedSong> songs) {
+        synchronized (mWriter) {
+            mWriter.pending().reorder(songs);
+        }
+    }
+
+    /**
+     * Replaces the whole stored queue
+     * @param songs the new contents of the queue
+     */
+    public void replaceQueuedSongs(List<QueuedSong> songs) {
+        synchronized (mWriter) {
+            mWriter.pending().replace(songs);
+        }
     }
 
+    /**
+     * Reads the stored queue, in queue order. Blocks until any pending changes have been written,
+     * so it must not be called on the main thread.
+     * @return the stored songs, or an empty list if they could not be read or the repository
+     * has been released
+     */
+    public List<QueuedSong> loadQueuedSongs() {
+        return mWriter.query(new Callable<List<QueuedSong>>() {
+            @Override
+            public List<QueuedSong> call() {
+                return mQueuedSongDao.getAllQueuedSongs();
+            }
+        }, Collections.<QueuedSong>emptyList());
+    }
+
+    /**
+     * Writes any pending changes now rather than after the usual delay. Nothing can be written
+     * through this repository afterwards.
+     */
+    public void release() {
+        mWriter.release();
+    }
 
     @Override
     public void asyncFinished(List<QueuedSong> results){
@@ -49,25 +142,6 @@ public class QueuedSongRepository implements AsyncResult {
         }
     }
 
-    public void insertQueuedSong(QueuedSong queuedSong) {
-        new insertAsyncTask(mQueuedSongDao).execute(queuedSong);
-    }
-
-    private static class insertAsyncTask extends AsyncTask<QueuedSong, Void, Void> {
-
-        private QueuedSongDao asyncTaskDao;
-
-        insertAsyncTask(QueuedSongDao dao) {
-            asyncTaskDao = dao;
-        }
-
-        @Override
-        protected Void doInBackground(final QueuedSong... params) {
-            asyncTaskDao.insertQueuedSong(params[0]);
-            return null;
-        }
-    }
-
     private static class deleteAsyncTask extends AsyncTask<Integer, Void, Void> {
 
         private QueuedSongDao asyncTaskDao;
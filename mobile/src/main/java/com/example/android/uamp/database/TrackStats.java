@@ -0,0 +1,60 @@
+package com.example.android.uamp.database;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * How often and how recently a track has been played, kept up to date as plays are written so
+ * that a track's counts never need a scan of every {@link PlayEvent}. Also how often the track
+ * was played to the end or skipped, which says how much it is liked.
+ */
+@Entity(tableName = "trackstats", indices = {@Index("playcount"), @Index("lastplayed")})
+public class TrackStats {
+
+    @PrimaryKey
+    @ColumnInfo(name = "trackid")
+    private long trackId;
+
+    @ColumnInfo(name = "playcount")
+    private int playCount;
+
+    @ColumnInfo(name = "lastplayed")
+    private long lastPlayed;
+
+    @ColumnInfo(name = "completecount")
+    private int completeCount;
+
+    @ColumnInfo(name = "skipcount")
+    private int skipCount;
+
+    public TrackStats(long trackId, int playCount, long lastPlayed, int completeCount,
+                      int skipCount) {
+        this.trackId = trackId;
+        this.playCount = playCount;
+        this.lastPlayed = lastPlayed;
+        this.completeCount = completeCount;
+        this.skipCount = skipCount;
+    }
+
+    public long getTrackId() {
+        return this.trackId;
+    }
+
+    public int getPlayCount() {
+        return this.playCount;
+    }
+
+    public long getLastPlayed() {
+        return this.lastPlayed;
+    }
+
+    public int getCompleteCount() {
+        return this.completeCount;
+    }
+
+    public int getSkipCount() {
+        return this.skipCount;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+import com.example.android.uamp.utils.BitmapHelper;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds the art of the albums on the device.
+ *
+ * Every track of an album gets the same art URI, content://media/external/audio/albumart/[album id],
+ * so the album art caches hold one picture per album however many of its tracks are queued.
+ * The art is read from MediaStore's album art thumbnail when there is one, otherwise from the
+ * picture embedded in (the ID3 or FLAC tags of) one of the album's files. Albums found to have
+ * neither are remembered, so asking for their art again costs no query or file read until
+ * {@link #forgetMissingArt()} is called.
+ */
+public class AlbumArtResolver {
+    private static final String TAG = LogHelper.makeLogTag(AlbumArtResolver.class);
+
+    private static final Uri ALBUM_ART_BASE_URI = Uri.parse("content://media/external/audio/albumart");
+
+    private static final int MAX_MISSING_ART_ALBUMS = 256;
+
+    // Album id -> TRUE for albums known to have no art
+    private static final LruCache<Long, Boolean> sMissingArt =
+            new LruCache<>(MAX_MISSING_ART_ALBUMS);
+
+    public static String getAlbumArtUri(long albumId) {
+        return ContentUris.withAppendedId(ALBUM_ART_BASE_URI, albumId).toString();
+    }
+
+    /**
+     * @return true if artUrl is read from the device rather than downloaded
+     */
+    public static boolean isLocalArt(String artUrl) {
+        String scheme = Uri.parse(artUrl).getScheme();
+        return ContentResolver.SCHEME_CONTENT.equals(scheme)
+                || ContentResolver.SCHEME_FILE.equals(scheme)
+                || ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme);
+    }
+
+    /**
+     * Forgets which albums have no art, e.g. because the device's music has changed.
+     */
+    public static void forgetMissingArt() {
+        sMissingArt.evictAll();
+    }
+
+    /**
+     * Must not be called on the main thread.
+     * @return the encoded image (JPEG, PNG...) at artUrl, for the caller to decode at the
+     * size(s) it needs, or null if artUrl is the art of an album that has none
+     * @throws IOException if there is no art at any other artUrl (FileNotFoundException) or it
+     * can't be read
+     */
+    public static byte[] loadArt(Context context, String artUrl) throws IOException {
+        Uri uri = Uri.parse(artUrl);
+        boolean isAlbumArt = artUrl.startsWith(ALBUM_ART_BASE_URI.toString());
+        long albumId = isAlbumArt ? ContentUris.parseId(uri) : -1;
+        if (isAlbumArt && sMissingArt.get(albumId) != null) {
+            return null;
+        }
+        try {
+            InputStream is = context.getContentResolver().openInputStream(uri);
+            if (is == null) {
+                throw new FileNotFoundException("No content for " + artUrl);
+            }
+            try {
+                return BitmapHelper.readFully(is);
+            } finally {
+                is.close();
+            }
+        } catch (FileNotFoundException e) {
+            if (!isAlbumArt) {
+                throw e;
+            }
+        }
+        // MediaStore didn't extract a thumbnail for this album, so look inside its files
+        String path = findAlbumTrackPath(context, albumId);
+        if (path == null) {
+            LogHelper.d(TAG, "loadArt: no tracks for album ", albumId);
+            sMissingArt.put(albumId, Boolean.TRUE);
+            return null;
+        }
+        LogHelper.d(TAG, "loadArt: reading embedded art of album ", albumId, " from ", path);
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            byte[] picture = retriever.getEmbeddedPicture();
+            if (picture == null) {
+                LogHelper.d(TAG, "loadArt: no art for album ", albumId);
+                sMissingArt.put(albumId, Boolean.TRUE);
+            }
+            return picture;
+        } catch (IllegalArgumentException e) {
+            // thrown by setDataSource for files it can't open
+            throw new IOException("Could not read " + path, e);
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private static String findAlbumTrackPath(Context context, long albumId) {
+        Cursor cursor = context.getContentResolver().query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[] {MediaStore.Audio.Media.DATA},
+                MediaStore.Audio.Media.ALBUM_ID + "=?",
+                new String[] {Long.toString(albumId)},
+                null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What changed between two catalog snapshots, as the browse nodes whose children are different:
+ * the albums and artists that gained, lost or changed a track, and whether the album and artist
+ * lists themselves changed (an album or artist appeared, disappeared or was renamed).
+ */
+public final class CatalogDelta {
+
+    private final Set<Long> mChangedAlbumIds = new HashSet<>();
+    private final Set<Long> mChangedArtistIds = new HashSet<>();
+    private boolean mAlbumListChanged;
+    private boolean mArtistListChanged;
+
+    private CatalogDelta() {
+    }
+
+    public static CatalogDelta compute(TrackCatalog oldCatalog, TrackCatalog newCatalog) {
+        CatalogDelta delta = new CatalogDelta();
+        for (int row = 0; row < newCatalog.size(); row++) {
+            int oldRow = oldCatalog.indexOf(newCatalog.getId(row));
+            if (oldRow < 0) {
+                delta.addTrack(newCatalog, row);
+            } else if (!sameTrack(oldCatalog, oldRow, newCatalog, row)) {
+                delta.addTrack(oldCatalog, oldRow);
+                delta.addTrack(newCatalog, row);
+            }
+        }
+        for (int row = 0; row < oldCatalog.size(); row++) {
+            if (newCatalog.indexOf(oldCatalog.getId(row)) < 0) {
+                delta.addTrack(oldCatalog, row);
+            }
+        }
+
+        for (long albumId : delta.mChangedAlbumIds) {
+            if (!sameAlbumListItem(oldCatalog, newCatalog, albumId)) {
+                delta.mAlbumListChanged = true;
+                break;
+            }
+        }
+        for (long artistId : delta.mChangedArtistIds) {
+            if (!sameArtistListItem(oldCatalog, newCatalog, artistId)) {
+                delta.mArtistListChanged = true;
+                break;
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * @return false if the two snapshots have the same tracks
+     */
+    public boolean hasChanges() {
+        return !mChangedAlbumIds.isEmpty() || !mChangedArtistIds.isEmpty();
+    }
+
+    public Set<Long> getChangedAlbumIds() {
+        return Collections.unmodifiableSet(mChangedAlbumIds);
+    }
+
+    public Set<Long> getChangedArtistIds() {
+        return Collections.unmodifiableSet(mChangedArtistIds);
+    }
+
+    public boolean isAlbumListChanged() {
+        return mAlbumListChanged;
+    }
+
+    public boolean isArtistListChanged() {
+        return mArtistListChanged;
+    }
+
+    private void addTrack(TrackCatalog catalog, int row) {
+        mChangedAlbumIds.add(catalog.getAlbumId(row));
+        mChangedArtistIds.add(catalog.getArtistId(row));
+    }
+
+    private static boolean sameTrack(TrackCatalog a, int rowA, TrackCatalog b, int rowB) {
+        return a.getAlbumId(rowA) == b.getAlbumId(rowB)
+                && a.getArtistId(rowA) == b.getArtistId(rowB)
+                && a.getDurationMs(rowA) == b.getDurationMs(rowB)
+                && a.getTrackNumber(rowA) == b.getTrackNumber(rowB)
+                && equal(a.getTitle(rowA), b.getTitle(rowB))
+                && equal(a.getArtist(rowA), b.getArtist(rowB))
+                && equal(a.getAlbum(rowA), b.getAlbum(rowB));
+    }
+
+    // An album's item in the album list shows its name and the artist of its first track
+    private static boolean sameAlbumListItem(TrackCatalog a, TrackCatalog b, long albumId) {
+        int[] rowsA = a.getRowsForAlbum(albumId);
+        int[] rowsB = b.getRowsForAlbum(albumId);
+        if (rowsA.length == 0 || rowsB.length == 0) {
+            return rowsA.length == rowsB.length;
+        }
+        return equal(a.getAlbum(rowsA[0]), b.getAlbum(rowsB[0]))
+                && equal(a.getArtist(rowsA[0]), b.getArtist(rowsB[0]));
+    }
+
+    private static boolean sameArtistListItem(TrackCatalog a, TrackCatalog b, long artistId) {
+        int[] rowsA = a.getRowsForArtist(artistId);
+        int[] rowsB = b.getRowsForArtist(artistId);
+        if (rowsA.length == 0 || rowsB.length == 0) {
+            return rowsA.length == rowsB.length;
+        }
+        return equal(a.getArtist(rowsA[0]), b.getArtist(rowsB[0]));
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
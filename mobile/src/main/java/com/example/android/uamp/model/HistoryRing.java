@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent items added, up to a fixed capacity, in a ring buffer: adding is O(1) and
+ * drops the oldest item once the ring is full. Items are indexed newest first.
+ */
+public class HistoryRing<T> {
+
+    private Object[] mItems;
+    // slot of the newest item
+    private int mHead = -1;
+    private int mSize;
+
+    public HistoryRing(int capacity) {
+        mItems = new Object[Math.max(0, capacity)];
+    }
+
+    public void add(T item) {
+        if (mItems.length == 0) {
+            return;
+        }
+        mHead = (mHead + 1) % mItems.length;
+        mItems[mHead] = item;
+        if (mSize < mItems.length) {
+            mSize++;
+        }
+    }
+
+    /**
+     * @param index 0 for the newest item
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        int slot = mHead - index;
+        if (slot < 0) {
+            slot += mItems.length;
+        }
+        return (T) mItems[slot];
+    }
+
+    /**
+     * @return the newest item, or null if there are none
+     */
+    public T peekNewest() {
+        return mSize == 0 ? null : get(0);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mItems.length;
+    }
+
+    /**
+     * Changes the capacity, keeping the newest items that fit
+     */
+    public void setCapacity(int capacity) {
+        capacity = Math.max(0, capacity);
+        if (capacity == mItems.length) {
+            return;
+        }
+        int size = Math.min(mSize, capacity);
+        Object[] items = new Object[capacity];
+        // oldest kept item first, so the newest ends up in the last used slot
+        for (int i = 0; i < size; i++) {
+            items[i] = get(size - 1 - i);
+        }
+        mItems = items;
+        mSize = size;
+        mHead = size - 1;
+    }
+
+    /**
+     * @return up to limit items, newest first, starting offset items from the newest
+     */
+    public List<T> toList(int offset, int limit) {
+        int from = Math.max(0, offset);
+        int to = (int) Math.min((long) from + Math.max(0, limit), mSize);
+        ArrayList<T> list = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            list.add(get(i));
+        }
+        return list;
+    }
+}
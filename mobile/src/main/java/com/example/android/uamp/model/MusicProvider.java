@@ -19,80 +19,405 @@ package com.example.android.uamp.model;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
-import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.provider.MediaStore;
+import android.support.annotation.NonNull;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
+import android.util.LruCache;
 import com.example.android.uamp.settings.Settings;
 import com.example.android.uamp.utils.LogHelper;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 
 
 /**
- * Simple data provider for music tracks. The actual metadata source is delegated to a
- * MusicProviderSource defined by a constructor argument of this class.
+ * Simple data provider for music tracks, backed by MediaStore.
+ *
+ * The audio table is read once into an in-memory {@link TrackCatalog} and all browsing,
+ * lookups and searches are answered from that snapshot. When MediaStore reports a change the
+ * catalog is updated on a background thread and swapped in; callers keep using the previous
+ * snapshot until then.
+ *
+ * Media scans send bursts of change notifications, so the update waits until they have stopped
+ * for REFRESH_DELAY_MS (but no more than MAX_REFRESH_DELAY_MS in all), and changes reported
+ * while an update is running start another once it ends. An update reads only the rows added
+ * or edited since the current snapshot (by the snapshot's highest _ID and DATE_MODIFIED) and
+ * the ids of all rows, to find the deleted ones, and builds the new snapshot from the current
+ * one with those changes applied. Each new snapshot gets the next generation
+ * number and is reported to the CatalogListener with the albums and artists that changed.
  */
 public class MusicProvider {
 
     private static final String TAG = LogHelper.makeLogTag(MusicProvider.class);
 
+    private static final String[] CATALOG_COLUMNS = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ARTIST_ID,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.TRACK,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+
+    private static final long REFRESH_DELAY_MS = 2000;
+    private static final long MAX_REFRESH_DELAY_MS = 10000;
+
+    public interface CatalogListener {
+        /**
+         * Called on a background thread when a new catalog snapshot has replaced the previous one
+         * @param generation the number of the new snapshot
+         * @param delta the albums and artists that differ from the previous snapshot
+         */
+        void onCatalogChanged(long generation, CatalogDelta delta);
+    }
+
+    // Passed as minDurationMs when tracks should not be filtered by length
+    private static final long NO_MIN_DURATION = -1;
+
+    // A random song is not picked again until this many other songs have been picked or played
+    private static final int RECENT_TRACKS_WINDOW = 200;
+
+    // How many tracks' metadata getMusic keeps, so looking up the now playing track is free
+    private static final int METADATA_CACHE_SIZE = 32;
+    // SQLite allows at most 999 ? parameters in a statement
+    private static final int MAX_QUERY_ARGS = 999;
 
     private Context context;
 
+    private volatile TrackCatalog mCatalog;
+    // Replaced (after mCatalog) when the catalog is, so it never holds metadata of an older one
+    private volatile LruCache<String, MediaMetadataCompat> mMetadataCache =
+            new LruCache<>(METADATA_CACHE_SIZE);
+    private volatile long mCatalogGeneration;
+    // The highest _ID and DATE_MODIFIED (in seconds) of the rows mCatalog was loaded from
+    private volatile long mMaxTrackId;
+    private volatile long mMaxDateModified;
+    private final ScheduledExecutorService mCatalogExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+    // mPendingRefresh, mFirstPendingChangeMs, mRefreshRunning and mRefreshDirty are guarded by this
+    private ScheduledFuture<?> mPendingRefresh;
+    private long mFirstPendingChangeMs;
+    private boolean mRefreshRunning;
+    // MediaStore changed while a refresh was running, which may already have read past the change
+    private boolean mRefreshDirty;
+    private volatile CatalogListener mCatalogListener;
+    // Built on the first search; rebuilt (reusing its folded strings) when the catalog changes
+    private volatile SearchIndex mSearchIndex;
+    private final Object mSearchIndexLock = new Object();
+    private boolean mObserverRegistered;
+    private final TrackStatistics mTrackStatistics = new TrackStatistics();
+    private final RandomTrackSampler mRandomSampler = new RandomTrackSampler(mTrackStatistics,
+            RECENT_TRACKS_WINDOW);
+
+    private final ContentObserver mMediaStoreObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            LogHelper.v(TAG, "MediaStore changed");
+            scheduleRefresh();
+        }
+    };
+
     public MusicProvider(Context context) {
         this.context = context;
 
     }
 
+    public void setCatalogListener(CatalogListener listener) {
+        mCatalogListener = listener;
+    }
+
     /**
-     * Get a list of artists
-     *
-     * @return artists
+     * @return the number of the current catalog snapshot, incremented each time MediaStore
+     * changes are loaded
      */
-    public ArrayList<MediaBrowserCompat.MediaItem> getArtistMediaItems() {
-        final Uri uri = MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI;
-        final String _ID = MediaStore.Audio.Artists._ID;
-        final String NAME_COLUMN = MediaStore.Audio.Artists.ARTIST;
-        final String[] cursorColumns={_ID, NAME_COLUMN };
-        final String orderby = NAME_COLUMN + " COLLATE NOCASE";
-        final String where = null;
+    public long getCatalogGeneration() {
+        return mCatalogGeneration;
+    }
 
+    /**
+     * @return the completions and skips that weight the tracks picked by {@link #getRandomSongs}
+     */
+    public TrackStatistics getTrackStatistics() {
+        return mTrackStatistics;
+    }
+
+    /**
+     * Stop listening for MediaStore changes. Call when the owner of this provider is destroyed.
+     */
+    public void release() {
+        if (mObserverRegistered) {
+            context.getContentResolver().unregisterContentObserver(mMediaStoreObserver);
+            mObserverRegistered = false;
+        }
+        mCatalogExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the current catalog snapshot, loading it on the calling thread if this is the
+     * first time it is needed.
+     */
+    public TrackCatalog getCatalog() {
+        TrackCatalog catalog = mCatalog;
+        if (catalog == null) {
+            synchronized (this) {
+                catalog = mCatalog;
+                if (catalog == null) {
+                    catalog = loadCatalog();
+                    mCatalog = catalog;
+                    if (!mObserverRegistered) {
+                        context.getContentResolver().registerContentObserver(
+                                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+                                mMediaStoreObserver);
+                        mObserverRegistered = true;
+                    }
+                }
+            }
+        }
+        return catalog;
+    }
+
+    private synchronized void scheduleRefresh() {
+        if (mRefreshRunning) {
+            mRefreshDirty = true;
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        // not running, so a refresh that isn't done is still waiting for its delay
+        if (mPendingRefresh != null && !mPendingRefresh.isDone()) {
+            if (now - mFirstPendingChangeMs >= MAX_REFRESH_DELAY_MS) {
+                // a long scan: refresh with what it has done so far
+                return;
+            }
+            mPendingRefresh.cancel(false);
+        } else {
+            mFirstPendingChangeMs = now;
+        }
+        mPendingRefresh = mCatalogExecutor.schedule(mRefreshTask, REFRESH_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable mRefreshTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MusicProvider.this) {
+                mRefreshRunning = true;
+            }
+            try {
+                refreshCatalog();
+            } finally {
+                synchronized (MusicProvider.this) {
+                    mRefreshRunning = false;
+                    mPendingRefresh = null;
+                    if (mRefreshDirty && !mCatalogExecutor.isShutdown()) {
+                        mRefreshDirty = false;
+                        scheduleRefresh();
+                    }
+                }
+            }
+        }
+    };
+
+    private void refreshCatalog() {
+        TrackCatalog oldCatalog = mCatalog;
+        TrackCatalog catalog = oldCatalog == null ? loadCatalog() : updateCatalog(oldCatalog);
+        if (catalog == oldCatalog) {
+            LogHelper.i(TAG, "MediaStore audio unchanged, keeping catalog");
+            return;
+        }
+        CatalogDelta delta = CatalogDelta.compute(
+                oldCatalog == null ? TrackCatalog.EMPTY : oldCatalog, catalog);
+        long generation;
+        synchronized (this) {
+            mCatalog = catalog;
+            mMetadataCache = new LruCache<>(METADATA_CACHE_SIZE);
+            generation = ++mCatalogGeneration;
+        }
+        // Tracks may have been added to, or retagged in, albums that had no art
+        AlbumArtResolver.forgetMissingArt();
+        LogHelper.i(TAG, "Loaded catalog generation ", generation);
+        if (mSearchIndex != null) {
+            // Searching has been used, so have the new index ready for the next query
+            getSearchIndex(catalog);
+        }
+        CatalogListener listener = mCatalogListener;
+        if (listener != null && delta.hasChanges()) {
+            listener.onCatalogChanged(generation, delta);
+        }
+    }
+
+    /**
+     * Applies the MediaStore rows added, edited or deleted since catalog was loaded to a copy of
+     * it. Only those rows and the ids of all rows are read; the other tracks are copied from
+     * catalog.
+     * @return the updated catalog, or catalog itself if nothing changed
+     */
+    private TrackCatalog updateCatalog(TrackCatalog catalog) {
+        long start = System.currentTimeMillis();
         ContentResolver cr = context.getContentResolver();
-        Cursor artistsCursor =  cr.query(uri, cursorColumns, where, null, orderby);
-        ArrayList<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
-        MediaBrowserCompat.MediaItem mediaItem;
+        long maxTrackId = mMaxTrackId;
+        long maxDateModified = mMaxDateModified;
+        Cursor changed = cr.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, CATALOG_COLUMNS,
+                MediaStore.Audio.Media._ID + ">? OR " + MediaStore.Audio.Media.DATE_MODIFIED + ">?",
+                new String[] {Long.toString(maxTrackId), Long.toString(maxDateModified)},
+                null);
+        Cursor all = cr.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[] {MediaStore.Audio.Media._ID}, null, null, null);
+        if (changed == null || all == null) {
+            if (changed != null) {
+                changed.close();
+            }
+            if (all != null) {
+                all.close();
+            }
+            LogHelper.w(TAG, "updateCatalog: MediaStore query failed, loading it all");
+            return loadCatalog();
+        }
+        try {
+            long[] presentIds = new long[all.getCount()];
+            for (int i = 0; all.moveToNext(); i++) {
+                presentIds[i] = all.getLong(0);
+            }
+            Arrays.sort(presentIds);
+            // The tracks to drop from the old catalog: deleted ones, and edited ones, which are
+            // added again from the changed rows
+            long[] excludedIds = new long[catalog.size() + changed.getCount()];
+            int excluded = 0;
+            int kept = 0;
+            for (int row = 0; row < catalog.size(); row++) {
+                long id = catalog.getId(row);
+                if (Arrays.binarySearch(presentIds, id) < 0) {
+                    excludedIds[excluded++] = id;
+                } else {
+                    kept++;
+                }
+            }
+            if (changed.getCount() == 0 && kept == presentIds.length) {
+                return catalog;
+            }
+            while (changed.moveToNext()) {
+                excludedIds[excluded++] = changed.getLong(0);
+            }
+            excludedIds = Arrays.copyOf(excludedIds, excluded);
+            Arrays.sort(excludedIds);
+
+            TrackCatalog.Builder builder = catalog.toBuilder(excludedIds);
+            changed.moveToPosition(-1);
+            while (changed.moveToNext()) {
+                addTrack(builder, changed);
+                maxTrackId = Math.max(maxTrackId, changed.getLong(0));
+                maxDateModified = Math.max(maxDateModified, changed.getLong(8));
+            }
+            mMaxTrackId = maxTrackId;
+            mMaxDateModified = maxDateModified;
+            TrackCatalog updated = builder.build();
+            LogHelper.i(TAG, "updateCatalog: ", changed.getCount(), " rows changed in ",
+                    System.currentTimeMillis() - start, "ms");
+            return updated;
+        } finally {
+            changed.close();
+            all.close();
+        }
+    }
+
+    private TrackCatalog loadCatalog() {
+        long start = System.currentTimeMillis();
+        ContentResolver cr = context.getContentResolver();
+        Cursor tracksCursor = cr.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                CATALOG_COLUMNS, null, null, null);
+        if (tracksCursor == null) {
+            LogHelper.w(TAG, "loadCatalog: MediaStore query failed");
+            return TrackCatalog.EMPTY;
+        }
+
+        TrackCatalog.Builder builder = new TrackCatalog.Builder(tracksCursor.getCount());
+        long maxTrackId = 0;
+        long maxDateModified = 0;
         try {
-            while (artistsCursor.moveToNext()) {
-                String id = artistsCursor.getString(0);
-                String name = artistsCursor.getString(1);
-                MediaDescriptionCompat mediaDescription = new MediaDescriptionCompat.Builder()
-                        .setTitle(name)
-                        .setSubtitle("Songs by "+name)
-                        .setMediaId("__ARTIST__"+id)
-                        .build();
-
-                int flags = MediaBrowserCompat.MediaItem.FLAG_PLAYABLE | MediaBrowserCompat.MediaItem.FLAG_BROWSABLE;
-                mediaItem = new MediaBrowserCompat.MediaItem(mediaDescription, flags);
-                mediaItems.add(mediaItem);
+            while (tracksCursor.moveToNext()) {
+                maxTrackId = Math.max(maxTrackId, tracksCursor.getLong(0));
+                maxDateModified = Math.max(maxDateModified, tracksCursor.getLong(8));
+                addTrack(builder, tracksCursor);
             }
         } finally {
-            artistsCursor.close();
+            tracksCursor.close();
         }
+        mMaxTrackId = maxTrackId;
+        mMaxDateModified = maxDateModified;
+        TrackCatalog catalog = builder.build();
+        LogHelper.i(TAG, "loadCatalog: ", catalog.size(), " tracks in ",
+                System.currentTimeMillis() - start, "ms");
+        return catalog;
+    }
+
+    /**
+     * Adds the track at the cursor's position, read with CATALOG_COLUMNS
+     */
+    private static void addTrack(TrackCatalog.Builder builder, Cursor tracksCursor) {
+        builder.addTrack(
+                tracksCursor.getLong(0),
+                tracksCursor.getString(1),
+                tracksCursor.getString(2),
+                tracksCursor.getLong(3),
+                tracksCursor.getString(4),
+                tracksCursor.getLong(5),
+                tracksCursor.getLong(6),
+                tracksCursor.getInt(7));
+    }
+
+    private long getMinDurationMs() {
+        return Settings.getMinDurationInSeconds(context) * 1000L;
+    }
 
+    /**
+     * Get a list of artists
+     *
+     * @return artists
+     */
+    public ArrayList<MediaBrowserCompat.MediaItem> getArtistMediaItems() {
+        return getArtistMediaItems(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get one page of the list of artists. Only the items of the page are built.
+     *
+     * @param offset index of the first artist to return
+     * @param limit maximum number of artists to return
+     */
+    public ArrayList<MediaBrowserCompat.MediaItem> getArtistMediaItems(int offset, int limit) {
+        TrackCatalog catalog = getCatalog();
+        int end = rangeEnd(catalog.getArtistCount(), offset, limit);
+        ArrayList<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>(Math.max(0, end - offset));
+        int flags = MediaBrowserCompat.MediaItem.FLAG_PLAYABLE | MediaBrowserCompat.MediaItem.FLAG_BROWSABLE;
+        for (int i = offset; i < end; i++) {
+            String name = catalog.getArtistNameAt(i);
+            MediaDescriptionCompat mediaDescription = new MediaDescriptionCompat.Builder()
+                    .setTitle(name)
+                    .setSubtitle("Songs by "+name)
+                    .setMediaId("__ARTIST__"+catalog.getArtistIdAt(i))
+                    .build();
+            mediaItems.add(new MediaBrowserCompat.MediaItem(mediaDescription, flags));
+        }
         return mediaItems;
 
     }
@@ -103,71 +428,69 @@ public class MusicProvider {
      * @return albums
      */
     public ArrayList<MediaBrowserCompat.MediaItem> getAlbumMediaItems() {
-        final Uri uri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
-        final String _ID = MediaStore.Audio.Albums._ID;
-        final String ARTIST_COLUMN = MediaStore.Audio.Albums.ARTIST;
-        final String NAME_COLUMN = MediaStore.Audio.Albums.ALBUM;
-
-        final String[] cursorColumns={_ID, NAME_COLUMN, ARTIST_COLUMN};
-        final String orderby = NAME_COLUMN + " COLLATE NOCASE";
-
-        final String where = null;
-        ContentResolver cr = context.getContentResolver();
-        Cursor albumsCursor =  cr.query(uri, cursorColumns, where, null, orderby);
+        return getAlbumMediaItems(0, Integer.MAX_VALUE);
+    }
 
-        ArrayList<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
-        MediaBrowserCompat.MediaItem mediaItem;
-        try {
-            while (albumsCursor.moveToNext()) {
-                String id = albumsCursor.getString(0);
-                String name = albumsCursor.getString(1);
-                String artist = albumsCursor.getString(2);
-                MediaDescriptionCompat mediaDescription = new MediaDescriptionCompat.Builder()
-                        .setTitle(name)
-                        .setSubtitle(artist)
-                        .setMediaId("__ALBUM__"+id)
-                        .build();
-
-                int flags = MediaBrowserCompat.MediaItem.FLAG_PLAYABLE | MediaBrowserCompat.MediaItem.FLAG_BROWSABLE;
-
-                mediaItem = new MediaBrowserCompat.MediaItem(mediaDescription, flags);
-                mediaItems.add(mediaItem);
-            }
-        } finally {
-            albumsCursor.close();
+    /**
+     * Get one page of the list of albums. Only the items of the page are built.
+     *
+     * @param offset index of the first album to return
+     * @param limit maximum number of albums to return
+     */
+    public ArrayList<MediaBrowserCompat.MediaItem> getAlbumMediaItems(int offset, int limit) {
+        TrackCatalog catalog = getCatalog();
+        int end = rangeEnd(catalog.getAlbumCount(), offset, limit);
+        ArrayList<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>(Math.max(0, end - offset));
+        int flags = MediaBrowserCompat.MediaItem.FLAG_PLAYABLE | MediaBrowserCompat.MediaItem.FLAG_BROWSABLE;
+        for (int i = offset; i < end; i++) {
+            MediaDescriptionCompat mediaDescription = new MediaDescriptionCompat.Builder()
+                    .setTitle(catalog.getAlbumNameAt(i))
+                    .setSubtitle(catalog.getAlbumArtistAt(i))
+                    .setMediaId("__ALBUM__"+catalog.getAlbumIdAt(i))
+                    .build();
+            mediaItems.add(new MediaBrowserCompat.MediaItem(mediaDescription, flags));
         }
-
         return mediaItems;
     }
 
 
     /**
      * Get a random song from ALL songs on the phone
-     * More efficient version of the code (does not load all songs into memory)
-     * @return
+     * @return a random track, or null if there are no tracks long enough to play
      */
     public MediaMetadataCompat getRandomSongFromAllSongsOnDevice() {
-        long randomSongID = 0;
-
-        // First select ONE song ID (randomly)
-        // Uses random ordering in DB (not efficient, but does not use memory)
-        ContentResolver musicResolver = context.getContentResolver();
-        Uri musicUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        List<MediaMetadataCompat> songs = getRandomSongs(1);
+        return songs.isEmpty() ? null : songs.get(0);
+    }
 
-        String[] projection = {
-                MediaStore.Audio.Media._ID,     // context id/ uri id of the file
-        };
+    /**
+     * Get distinct random songs from ALL songs on the phone, skipping songs shorter than the
+     * minimum song length setting. Songs that are usually played to the end are more likely to be
+     * picked than songs that are usually skipped (see {@link TrackStatistics}), and songs that
+     * were picked, played or queued recently are left out (see {@link #markRecent}). The songs
+     * are picked from the catalog in one pass, without touching MediaStore.
+     *
+     * @param numSongs number of songs wanted
+     * @return up to numSongs tracks, fewer only if the device does not have enough songs
+     */
+    public List<MediaMetadataCompat> getRandomSongs(int numSongs) {
+        TrackCatalog catalog = getCatalog();
+        int[] rows = mRandomSampler.sample(catalog, getMinDurationMs(), numSongs);
+        return buildMetadata(catalog, rows, NO_MIN_DURATION);
+    }
 
-        Cursor musicCursor = musicResolver.query(musicUri, projection, null /*selection*/, null /*selectionArgs*/, "RANDOM() LIMIT 1");
-        if(musicCursor!=null && musicCursor.moveToFirst()){
-            int idColumn = musicCursor.getColumnIndex
-                    (MediaStore.Audio.Media._ID);
-            randomSongID = musicCursor.getLong(idColumn);
-            musicCursor.close();
+    /**
+     * Keeps a song out of {@link #getRandomSongs} for a while, because it has just been played or
+     * is already waiting in the queue
+     *
+     * @param musicId The unique, non-hierarchical music ID.
+     */
+    public void markRecent(String musicId) {
+        try {
+            mRandomSampler.markRecent(Long.parseLong(musicId));
+        } catch (NumberFormatException e) {
+            LogHelper.w(TAG, "Not a track id: ", musicId);
         }
-        // Now get the song by the randomly chosen ID
-        MediaMetadataCompat song = getMusic(Long.toString(randomSongID));
-        return song;
     }
 
     /**
@@ -176,47 +499,11 @@ public class MusicProvider {
      */
     // TODO: this is actually albums
     public Iterable<MediaMetadataCompat> getMusicsByGenreById(String id) {
-        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        final String _ID = MediaStore.Audio.Media._ID;
-        final String TITLE = MediaStore.Audio.Media.TITLE;
-        final String ARTIST = MediaStore.Audio.Albums.ARTIST;
-        final String ALBUM = MediaStore.Audio.Albums.ALBUM;
-        final String ALBUM_ID = MediaStore.Audio.Albums.ALBUM_ID;
-        final String DURATION_IN_MS = MediaStore.Audio.Media.DURATION;
-        final String TRACK_NO = MediaStore.Audio.Media.TRACK;
-
-        final String[] cursorColumns={_ID, TITLE, ARTIST, ALBUM, ALBUM_ID, DURATION_IN_MS, TRACK_NO};
-        final String orderby = TITLE + " COLLATE NOCASE";
-
-        String selection = null;
-        String[] selectionArgs = null;
-        if (id != null && !id.isEmpty()) {
-            selection = MediaStore.Audio.Media.ALBUM_ID + "=?";
-            selectionArgs = new String [1];
-            selectionArgs[0] = id;
+        TrackCatalog catalog = getCatalog();
+        if (id == null || id.isEmpty()) {
+            return buildMetadata(catalog, null, NO_MIN_DURATION);
         }
-        ContentResolver cr = context.getContentResolver();
-        Cursor tracksCursor =  cr.query(uri, cursorColumns, selection, selectionArgs, orderby);
-        ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-
-        try {
-            while (tracksCursor.moveToNext()) {
-                String trackid = tracksCursor.getString(0);
-                String title= tracksCursor.getString(1);
-                String artist = tracksCursor.getString(2);
-                String album = tracksCursor.getString(3);
-                String albumId = tracksCursor.getString(4);
-                Long durationInMs = tracksCursor.getLong(5);
-                Long trackNo = tracksCursor.getLong(6);
-
-                tracks.add(buildMetadataFromProperties(trackid,title,artist, album, durationInMs, trackNo));
-            }
-        } finally {
-            tracksCursor.close();
-        }
-
-        return tracks;
+        return buildMetadata(catalog, catalog.getRowsForAlbum(parseId(id)), NO_MIN_DURATION);
     }
     /**
      * Get music tracks of the given genre
@@ -224,44 +511,16 @@ public class MusicProvider {
      */
     // TODO: this is actually albums
     public Iterable<MediaMetadataCompat> getMusicsByGenre(String genreName) {
-        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        final String _ID = MediaStore.Audio.Media._ID;
-        final String TITLE = MediaStore.Audio.Media.TITLE;
-        final String ARTIST = MediaStore.Audio.Albums.ARTIST;
-        final String ALBUM = MediaStore.Audio.Albums.ALBUM;
-        final String DURATION_IN_MS = MediaStore.Audio.Media.DURATION;
-        final String TRACK_NO = MediaStore.Audio.Media.TRACK;
-
-        final String[] cursorColumns={_ID,TITLE, ARTIST, ALBUM, DURATION_IN_MS, TRACK_NO};
-        final String orderby = TITLE + " COLLATE NOCASE";
-
-        String selection = null;
-        String[] selectionArgs = null;
-        if (genreName != null && !genreName.isEmpty()) {
-            selection = MediaStore.Audio.Media.ALBUM + "=?";
-            selectionArgs = new String [1];
-            selectionArgs[0] = genreName;
+        TrackCatalog catalog = getCatalog();
+        if (genreName == null || genreName.isEmpty()) {
+            return buildMetadata(catalog, null, NO_MIN_DURATION);
         }
-        ContentResolver cr = context.getContentResolver();
-        Cursor tracksCursor =  cr.query(uri, cursorColumns, selection, selectionArgs, orderby);
         ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-
-        try {
-            while (tracksCursor.moveToNext()) {
-                String id = tracksCursor.getString(0);
-                String title= tracksCursor.getString(1);
-                String artist = tracksCursor.getString(2);
-                String album = tracksCursor.getString(3);
-                Long durationInMs = tracksCursor.getLong(4);
-                Long trackNo = tracksCursor.getLong(5);
-
-                tracks.add(buildMetadataFromProperties(id,title,artist, album, durationInMs, trackNo));
+        for (int row = 0; row < catalog.size(); row++) {
+            if (genreName.equals(catalog.getAlbum(row))) {
+                tracks.add(buildMetadata(catalog, row));
             }
-        } finally {
-            tracksCursor.close();
         }
-
         return tracks;
     }
 
@@ -296,103 +555,74 @@ public class MusicProvider {
     /**
      * Get music tracks of the given artist
      * By the supplied artist ID, not the artist name
-     *
+     * Tracks shorter than the minimum song length setting are skipped
      */
     public Iterable<MediaMetadataCompat> getMusicsByArtist(String artistId) {
         LogHelper.i(TAG, "getMusicsByArtist" , artistId);
-        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        final String _ID = MediaStore.Audio.Media._ID;
-        final String TITLE = MediaStore.Audio.Media.TITLE;
-        final String ARTIST = MediaStore.Audio.Media.ARTIST;
-        final String ARTIST_ID = MediaStore.Audio.Media.ARTIST_ID;
-        final String ALBUM = MediaStore.Audio.Albums.ALBUM;
-        final String DURATION_IN_MS = MediaStore.Audio.Media.DURATION;
-        final String TRACK_NO = MediaStore.Audio.Media.TRACK;
-
-        final String[] cursorColumns={_ID,TITLE, ARTIST, ARTIST_ID, ALBUM, DURATION_IN_MS, TRACK_NO};
-        final String orderby = TITLE + " COLLATE NOCASE";
-
-        String selection = ARTIST_ID + "=? AND " + DURATION_IN_MS + " > ?";;
-        String[] selectionArgs = new String [2];
-        selectionArgs[0] = artistId;
-        selectionArgs[1] = Integer.toString(Settings.getMinDurationInSeconds(context));
-
-        ContentResolver cr = context.getContentResolver();
-        Cursor tracksCursor =  cr.query(uri, cursorColumns, selection, selectionArgs, orderby);
-        ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-
-        try {
-            while (tracksCursor.moveToNext()) {
-                String id = tracksCursor.getString(0);
-                String title= tracksCursor.getString(1);
-                String artist = tracksCursor.getString(2);
-                String artist_id = tracksCursor.getString(3);
-                String album = tracksCursor.getString(4);
-                Long durationInMs = tracksCursor.getLong(5);
-                Long trackNo = tracksCursor.getLong(6);
-                LogHelper.i(TAG, "Track ", id, " artist id=",artist_id );
-                tracks.add(buildMetadataFromProperties(id,title,artist, album, durationInMs, trackNo));
-            }
-        } finally {
-            tracksCursor.close();
-        }
-
-        return tracks;
+        TrackCatalog catalog = getCatalog();
+        return buildMetadata(catalog, catalog.getRowsForArtist(parseId(artistId)),
+                getMinDurationMs());
     }
 
     /**
      * Get all songs
      */
     public ArrayList<MediaBrowserCompat.MediaItem> getAllSongs() {
-        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        final String _ID = MediaStore.Audio.Media._ID;
-        final String TITLE = MediaStore.Audio.Media.TITLE;
-        final String ARTIST = MediaStore.Audio.Media.ARTIST;
-        final String ARTIST_ID = MediaStore.Audio.Media.ARTIST_ID;
-        final String ALBUM = MediaStore.Audio.Albums.ALBUM;
-        final String DURATION_IN_MS = MediaStore.Audio.Media.DURATION;
-        final String TRACK_NO = MediaStore.Audio.Media.TRACK;
-
-        final String[] cursorColumns={_ID,TITLE, ARTIST, ARTIST_ID, ALBUM, DURATION_IN_MS, TRACK_NO};
-        final String orderby = TITLE + " COLLATE NOCASE";
+        return getAllSongs(0, Integer.MAX_VALUE);
+    }
 
-        String selection = null;
-        String[] selectionArgs = null;
+    /**
+     * Get one page of all songs, in title order. Only the items of the page are built.
+     *
+     * @param offset index of the first song to return
+     * @param limit maximum number of songs to return
+     */
+    public ArrayList<MediaBrowserCompat.MediaItem> getAllSongs(int offset, int limit) {
+        TrackCatalog catalog = getCatalog();
+        int end = rangeEnd(catalog.size(), offset, limit);
+        ArrayList<MediaBrowserCompat.MediaItem> tracks = new ArrayList<>(Math.max(0, end - offset));
+        for (int row = offset; row < end; row++) {
+            MediaDescriptionCompat mediaDescription = new MediaDescriptionCompat.Builder()
+                    .setTitle(catalog.getTitle(row))
+                    .setSubtitle(catalog.getArtist(row))
+                    .setMediaId(Long.toString(catalog.getId(row)))
+                    .build();
+
+            tracks.add(new MediaBrowserCompat.MediaItem(mediaDescription,
+                    MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
+        }
+        return tracks;
+    }
 
-        ContentResolver cr = context.getContentResolver();
-        Cursor tracksCursor =  cr.query(uri, cursorColumns, selection, selectionArgs, orderby);
-        ArrayList<MediaBrowserCompat.MediaItem> tracks = new ArrayList<>();
-        MediaBrowserCompat.MediaItem mediaItem;
+    private static int rangeEnd(int size, int offset, int limit) {
+        return (int) Math.min(size, (long) offset + limit);
+    }
 
-        try {
-            while (tracksCursor.moveToNext()) {
-                String id = tracksCursor.getString(0);
-                String title= tracksCursor.getString(1);
-                String artist = tracksCursor.getString(2);
-                String artist_id = tracksCursor.getString(3);
-                String album = tracksCursor.getString(4);
-                Long durationInMs = tracksCursor.getLong(5);
-                Long trackNo = tracksCursor.getLong(6);
-                LogHelper.i(TAG, "Track ", id, " artist id=",artist_id );
-                MediaDescriptionCompat mediaDescription = new MediaDescriptionCompat.Builder()
-                        .setTitle(title)
-                        .setSubtitle(artist)
-                        .setMediaId(id)
-                        .build();
-
-                mediaItem = new MediaBrowserCompat.MediaItem(mediaDescription, MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
-                tracks.add(mediaItem);
+    /**
+     * Build metadata for the given catalog rows, skipping tracks shorter than minDurationMs.
+     * @param rows the rows to build, or null for every row in the catalog
+     */
+    private ArrayList<MediaMetadataCompat> buildMetadata(TrackCatalog catalog, int[] rows,
+                                                         long minDurationMs) {
+        int count = rows == null ? catalog.size() : rows.length;
+        ArrayList<MediaMetadataCompat> tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int row = rows == null ? i : rows[i];
+            if (catalog.getDurationMs(row) > minDurationMs) {
+                tracks.add(buildMetadata(catalog, row));
             }
-        } finally {
-            tracksCursor.close();
         }
-
         return tracks;
     }
 
-    private MediaMetadataCompat buildMetadataFromProperties(String id, String title, String artist, String album, Long durationInMs, Long trackNumber) {
+    private MediaMetadataCompat buildMetadata(TrackCatalog catalog, int row) {
+        return buildMetadataFromProperties(Long.toString(catalog.getId(row)),
+                catalog.getTitle(row), catalog.getArtist(row), catalog.getAlbum(row),
+                catalog.getAlbumId(row), catalog.getDurationMs(row),
+                catalog.getTrackNumber(row));
+    }
+
+    private MediaMetadataCompat buildMetadataFromProperties(String id, String title, String artist, String album, long albumId, long durationInMs, long trackNumber) {
         // Adding the music source to the MediaMetadata (and consequently using it in the
         // mediaSession.setMetadata) is not a good idea for a real world music app, because
         // the session metadata can be accessed by notification listeners. This is done in this
@@ -401,7 +631,8 @@ public class MusicProvider {
 
         Uri trackUri = ContentUris.withAppendedId(
                 android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, Long.parseLong(id));
-        LogHelper.i(TAG, "build Metadata from id=", id, " trackUri", trackUri.toString(), " artist=", artist);
+        // called for every track of the catalog when listing it, so only logged when verbose
+        LogHelper.v(TAG, "build Metadata from id=", id, " artist=", artist);
         return new MediaMetadataCompat.Builder()
                 .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, id)
                 //.putString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE, "source")
@@ -409,7 +640,8 @@ public class MusicProvider {
                 .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artist)
                 .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, durationInMs) // in ms
                 .putString(MediaMetadataCompat.METADATA_KEY_GENRE, "countryjazzfusion")
-                //.putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, iconUrl)
+                // one URI per album, so its art is loaded and cached once for all of its tracks
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, AlbumArtResolver.getAlbumArtUri(albumId))
                 .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
                 .putLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER, trackNumber)
                 .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, trackUri.toString())
@@ -418,169 +650,219 @@ public class MusicProvider {
 
     /**
      * Get music tracks of the given album
-     *
+     * Tracks shorter than the minimum song length setting are skipped
      */
     public Iterable<MediaMetadataCompat> getMusicsByAlbum(String albumId) {
-        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        final String _ID = MediaStore.Audio.Media._ID;
-        final String TITLE = MediaStore.Audio.Media.TITLE;
-        final String ARTIST = MediaStore.Audio.Albums.ARTIST;
-        final String ALBUM = MediaStore.Audio.Albums.ALBUM;
-        final String ALBUM_ID = MediaStore.Audio.Albums.ALBUM_ID;
-
-        final String DURATION_IN_MS = MediaStore.Audio.Media.DURATION;
-        final String TRACK_NO = MediaStore.Audio.Media.TRACK;
-
-        final String[] cursorColumns={_ID,TITLE, ARTIST, ALBUM, DURATION_IN_MS, TRACK_NO};
-        final String orderby = TITLE + " COLLATE NOCASE";
-
-        String selection = ALBUM_ID + "=? AND " + DURATION_IN_MS + " > ?";;
-        String[] selectionArgs = new String [2];
-        selectionArgs[0] = albumId;
-        selectionArgs[1] = Integer.toString(Settings.getMinDurationInSeconds(context));
-
-        ContentResolver cr = context.getContentResolver();
-        Cursor tracksCursor =  cr.query(uri, cursorColumns, selection, selectionArgs, orderby);
-        ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-
-        try {
-            while (tracksCursor.moveToNext()) {
-                String id = tracksCursor.getString(0);
-                String title= tracksCursor.getString(1);
-                String artist = tracksCursor.getString(2);
-                String album = tracksCursor.getString(3);
-                Long durationInMs = tracksCursor.getLong(4);
-                Long trackNo = tracksCursor.getLong(5);
-
-                tracks.add(buildMetadataFromProperties(id,title,artist, album, durationInMs, trackNo));
-            }
-        } finally {
-            tracksCursor.close();
-        }
-
-        return tracks;
+        TrackCatalog catalog = getCatalog();
+        return buildMetadata(catalog, catalog.getRowsForAlbum(parseId(albumId)),
+                getMinDurationMs());
 
     }
 
     /**
-     * Very basic implementation of a search that filter music tracks with AlbumTitle containing
-     * the given query.
-     *
+     * Search for music tracks with a title containing the given query, ignoring case and accents.
+     * Best matches come first.
      */
     public Iterable<MediaMetadataCompat> searchMusicBySongTitle(String query) {
         return searchMusic(MediaMetadataCompat.METADATA_KEY_TITLE, query);
     }
 
     /**
-     * Very basic implementation of a search that filter music tracks with album containing
-     * the given query.
-     *
+     * Search for music tracks with an album containing the given query, ignoring case and
+     * accents. Best matches come first.
      */
     public Iterable<MediaMetadataCompat> searchMusicByAlbum(String query) {
         return searchMusic(MediaMetadataCompat.METADATA_KEY_ALBUM, query);
     }
 
     /**
-     * Very basic implementation of a search that filter music tracks with artist containing
-     * the given query.
-     *
+     * Search for music tracks with an artist containing the given query, ignoring case and
+     * accents. Best matches come first.
      */
     public Iterable<MediaMetadataCompat> searchMusicByArtist(String query) {
         return searchMusic(MediaMetadataCompat.METADATA_KEY_ARTIST, query);
     }
 
-    Iterable<MediaMetadataCompat> searchMusic(String metadataField, String query) {
-        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        final String _ID = MediaStore.Audio.Media._ID;
-        final String TITLE = MediaStore.Audio.Media.TITLE;
-        final String ARTIST = MediaStore.Audio.Media.ARTIST;
-        final String ARTIST_ID = MediaStore.Audio.Media.ARTIST_ID;
-        final String ALBUM = MediaStore.Audio.Albums.ALBUM;
-        final String DURATION_IN_MS = MediaStore.Audio.Media.DURATION;
-        final String TRACK_NO = MediaStore.Audio.Media.TRACK;
-
-        final String[] cursorColumns={_ID,TITLE, ARTIST, ARTIST_ID, ALBUM, DURATION_IN_MS, TRACK_NO};
-        final String orderby = TITLE + " COLLATE NOCASE";
+    /**
+     * Search for music tracks with a title, artist or album containing the given query, for
+     * queries that don't say which one they are about. Title matches rank first.
+     */
+    public Iterable<MediaMetadataCompat> searchMusicUnstructured(String query) {
+        return searchMusic(null, query);
+    }
 
-        String selection = null;
-        String[] selectionArgs = null;
-        if (query != null && !query.isEmpty()) {
-            selection = MediaStore.Audio.Media.TITLE + " LIKE ?";
-            selectionArgs = new String [1];
-            selectionArgs[0] = "%" + query + "%";
+    /**
+     * @param metadataField METADATA_KEY_TITLE, METADATA_KEY_ARTIST or METADATA_KEY_ALBUM, or
+     *                      null to search all three
+     */
+    Iterable<MediaMetadataCompat> searchMusic(String metadataField, String query) {
+        TrackCatalog catalog = getCatalog();
+        if (query == null || query.isEmpty()) {
+            return buildMetadata(catalog, null, NO_MIN_DURATION);
         }
+        long start = System.nanoTime();
+        SearchIndex index = getSearchIndex(catalog);
+        int[] rows;
+        if (metadataField == null) {
+            rows = index.searchAnyField(query);
+        } else if (MediaMetadataCompat.METADATA_KEY_ARTIST.equals(metadataField)) {
+            rows = index.search(SearchIndex.FIELD_ARTIST, query);
+        } else if (MediaMetadataCompat.METADATA_KEY_ALBUM.equals(metadataField)) {
+            rows = index.search(SearchIndex.FIELD_ALBUM, query);
+        } else {
+            rows = index.search(SearchIndex.FIELD_TITLE, query);
+        }
+        LogHelper.d(TAG, "searchMusic: tracks=", rows.length, " us=",
+                (System.nanoTime() - start) / 1000);
+        return buildMetadata(catalog, rows, NO_MIN_DURATION);
+    }
 
-        ContentResolver cr = context.getContentResolver();
-        Cursor tracksCursor =  cr.query(uri, cursorColumns, selection, selectionArgs, orderby);
-        ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-
-        try {
-            while (tracksCursor.moveToNext()) {
-                String id = tracksCursor.getString(0);
-                String title= tracksCursor.getString(1);
-                String artist = tracksCursor.getString(2);
-                String artist_id = tracksCursor.getString(3);
-                String album = tracksCursor.getString(4);
-                Long durationInMs = tracksCursor.getLong(5);
-                Long trackNo = tracksCursor.getLong(6);
-                LogHelper.i(TAG, "Track ", id, " artist id=",artist_id );
-                tracks.add(buildMetadataFromProperties(id,title,artist, album, durationInMs, trackNo));
+    /**
+     * @return the search index of catalog, building it if the current one is for an older
+     * snapshot
+     */
+    private SearchIndex getSearchIndex(TrackCatalog catalog) {
+        SearchIndex index = mSearchIndex;
+        if (index != null && index.getCatalog() == catalog) {
+            return index;
+        }
+        synchronized (mSearchIndexLock) {
+            index = mSearchIndex;
+            if (index == null || index.getCatalog() != catalog) {
+                long start = System.currentTimeMillis();
+                index = SearchIndex.build(catalog, index);
+                LogHelper.i(TAG, "Built search index: tracks=", catalog.size(), " ms=",
+                        System.currentTimeMillis() - start);
+                if (catalog == mCatalog) {
+                    mSearchIndex = index;
+                }
             }
-        } finally {
-            tracksCursor.close();
         }
-
-        return tracks;
+        return index;
     }
 
 
     /**
      * Return the MediaMetadataCompat for the given musicID.
+     * Tracks added since the catalog snapshot was taken are looked up in MediaStore directly.
+     * The last METADATA_CACHE_SIZE tracks looked up are kept, so asking again is free.
      *
      * @param musicId The unique, non-hierarchical music ID.
      */
     //TODO: rename to 'getTrackById', 'getMusic' is a bit vague
     public MediaMetadataCompat getMusic(String musicId) {
-        LogHelper.i(TAG, "getTrackById=", musicId);
-        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        final String _ID = MediaStore.Audio.Media._ID;
-        final String TITLE = MediaStore.Audio.Media.TITLE;
-        final String ARTIST = MediaStore.Audio.Albums.ARTIST;
-        final String ALBUM = MediaStore.Audio.Albums.ALBUM;
-        final String DURATION_IN_MS = MediaStore.Audio.Media.DURATION;
-        final String TRACK_NO = MediaStore.Audio.Media.TRACK;
-
-        final String[] cursorColumns={_ID,TITLE, ARTIST, ALBUM, DURATION_IN_MS, TRACK_NO};
-        final String orderby = TITLE + " COLLATE NOCASE";
-
-        String selection = null;
-        String[] selectionArgs = null;
-        if (musicId != null && !musicId.isEmpty()) {
-            selection = MediaStore.Audio.Media._ID + "=?";
-            selectionArgs = new String [1];
-            selectionArgs[0] = musicId;
+        LogHelper.v(TAG, "getTrackById=", musicId);
+        return getMusicBatch(Collections.singletonList(musicId)).get(0);
+    }
+
+    /**
+     * Return the MediaMetadataCompat of each of the given musicIDs, like {@link #getMusic} but
+     * with the tracks that are not in the catalog snapshot looked up in MediaStore together,
+     * in as few queries as SQLite's limit on parameters allows.
+     *
+     * @param musicIds The unique, non-hierarchical music IDs.
+     * @return a list the size of musicIds, holding the track of each ID in the same order, or
+     * null where there is no such track
+     */
+    public List<MediaMetadataCompat> getMusicBatch(@NonNull Collection<String> musicIds) {
+        LruCache<String, MediaMetadataCompat> cache = mMetadataCache;
+        TrackCatalog catalog = getCatalog();
+        // Only single lookups are kept: a batch (e.g. restoring the queue) would just push the
+        // now playing track out of the cache
+        boolean remember = musicIds.size() == 1;
+        ArrayList<MediaMetadataCompat> tracks = new ArrayList<>(musicIds.size());
+        // the ids to look up in MediaStore, and where their tracks go in the result
+        ArrayList<String> missingIds = null;
+        ArrayList<Integer> missingIndices = null;
+        for (String musicId : musicIds) {
+            MediaMetadataCompat track = null;
+            long id = parseId(musicId);
+            if (id >= 0) {
+                track = cache.get(musicId);
+                if (track == null) {
+                    int row = catalog.indexOf(id);
+                    if (row >= 0) {
+                        track = buildMetadata(catalog, row);
+                        if (remember) {
+                            cache.put(musicId, track);
+                        }
+                    } else {
+                        if (missingIds == null) {
+                            missingIds = new ArrayList<>();
+                            missingIndices = new ArrayList<>();
+                        }
+                        missingIds.add(musicId);
+                        missingIndices.add(tracks.size());
+                    }
+                }
+            }
+            tracks.add(track);
         }
-        ContentResolver cr = context.getContentResolver();
-        Cursor tracksCursor =  cr.query(uri, cursorColumns, selection, selectionArgs, orderby);
-        MediaMetadataCompat track = null;
+        if (missingIds != null) {
+            HashMap<String, MediaMetadataCompat> found = queryMusic(missingIds);
+            for (int i = 0; i < missingIds.size(); i++) {
+                MediaMetadataCompat track = found.get(missingIds.get(i));
+                if (track != null) {
+                    tracks.set(missingIndices.get(i), track);
+                    if (remember) {
+                        cache.put(missingIds.get(i), track);
+                    }
+                }
+            }
+        }
+        return tracks;
+    }
 
+    /**
+     * @return the track, album or artist id, or -1 (which matches nothing) if id is not one
+     */
+    private static long parseId(String id) {
+        if (id == null || id.isEmpty()) {
+            return -1;
+        }
         try {
-            if (tracksCursor.moveToNext()) {
-                String id = tracksCursor.getString(0);
-                String title= tracksCursor.getString(1);
-                String artist = tracksCursor.getString(2);
-                String album = tracksCursor.getString(3);
-                Long durationInMs = tracksCursor.getLong(4);
-                Long trackNo = tracksCursor.getLong(5);
-
-                track = buildMetadataFromProperties(id,title,artist, album, durationInMs, trackNo);
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            LogHelper.w(TAG, "Not an id: ", id);
+            return -1;
+        }
+    }
+
+    /**
+     * Looks tracks up in MediaStore, MAX_QUERY_ARGS ids per query
+     * @return the tracks found, by id
+     */
+    private HashMap<String, MediaMetadataCompat> queryMusic(List<String> musicIds) {
+        HashMap<String, MediaMetadataCompat> tracks = new HashMap<>();
+        final Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        ContentResolver cr = context.getContentResolver();
+        for (int start = 0; start < musicIds.size(); start += MAX_QUERY_ARGS) {
+            int end = Math.min(musicIds.size(), start + MAX_QUERY_ARGS);
+            StringBuilder selection = new StringBuilder(MediaStore.Audio.Media._ID).append(" IN (");
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+            }
+            selection.append(')');
+            String[] selectionArgs = musicIds.subList(start, end).toArray(new String[end - start]);
+            Cursor tracksCursor = cr.query(uri, CATALOG_COLUMNS, selection.toString(),
+                    selectionArgs, null);
+            if (tracksCursor == null) {
+                continue;
+            }
+            try {
+                while (tracksCursor.moveToNext()) {
+                    MediaMetadataCompat track = buildMetadataFromProperties(
+                            tracksCursor.getString(0), tracksCursor.getString(1),
+                            tracksCursor.getString(2), tracksCursor.getString(4),
+                            tracksCursor.getLong(5), tracksCursor.getLong(6),
+                            tracksCursor.getLong(7));
+                    tracks.put(tracksCursor.getString(0), track);
+                }
+            } finally {
+                tracksCursor.close();
             }
-        } finally {
-            tracksCursor.close();
         }
-        return track;
+        return tracks;
     }
 
     public synchronized void updateMusicArt(String musicId, Bitmap albumArt, Bitmap icon) {
@@ -611,4 +893,4 @@ public class MusicProvider {
         */
     }
 
-}
\ No newline at end of file
+}
@@ -3,9 +3,13 @@ package com.example.android.uamp.model;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -18,10 +22,13 @@ import android.widget.TextView;
 import com.example.android.uamp.R;
 import com.example.android.uamp.model.recyclerhelpers.ItemTouchHelperAdapter;
 import com.example.android.uamp.model.recyclerhelpers.ItemTouchHelperViewHolder;
+import com.example.android.uamp.playback.QueueDelta;
 import com.example.android.uamp.utils.LogHelper;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by asbridged on 06/07/2017.
@@ -29,6 +36,13 @@ import java.util.Collections;
  * The activity hosting th list MUST implement interface PlayQueueActionsListener to receive callbacks
  * - For example 'remove button'
  * This is for the recycler view based list and replaces the PlayQueueAdapter
+ *
+ * Changes to the queue that are known edit by edit are passed to applyDelta, which makes them
+ * straight away. Otherwise new queues are passed to submitList, which works out on a background
+ * thread what changed (items are identified by their queue id) and applies it as individual
+ * inserts, removes and moves. Drags and swipes change the list straight away on the UI thread, because
+ * ItemTouchHelper expects the adapter to have moved the item when onMove returns; they discard
+ * any comparison still in progress, as it was made against the list before the change.
  */
 public class PlayQueueRecyclerAdapter  extends RecyclerView.Adapter<PlayQueueRecyclerAdapter.MyViewHolder>
         implements ItemTouchHelperAdapter
@@ -36,7 +50,15 @@ public class PlayQueueRecyclerAdapter  extends RecyclerView.Adapter<PlayQueueRec
 
     private static String TAG = "PlayQueueAdapter";
 
-    private ArrayList<MediaSessionCompat.QueueItem> mDataset;
+    // One differ thread is enough for the one play queue on screen
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Used on the UI thread only
+    private ArrayList<MediaSessionCompat.QueueItem> mDataset = new ArrayList<>();
+    // Incremented by every change to mDataset, so that a diff computed against an older list is
+    // dropped
+    private int mGeneration;
 
     // this is from https://medium.com/@ipaulpro/drag-and-swipe-with-recyclerview-6a6f0c422efd
     // It communicates with the adapter's activity (or fragment).
@@ -63,6 +85,7 @@ public class PlayQueueRecyclerAdapter  extends RecyclerView.Adapter<PlayQueueRec
         LogHelper.i(TAG, "onItemDismiss: pos=",position);
         mDragStartListener.onItemRemoved(mDataset.get(position).getQueueId()); //getuniqueQueueId());
         mDataset.remove(position);
+        mGeneration++;
         notifyItemRemoved(position); // This tells the recycler _view_ that something been removed
 
     }
@@ -70,22 +93,11 @@ public class PlayQueueRecyclerAdapter  extends RecyclerView.Adapter<PlayQueueRec
 
     @Override
     public void onItemMove(int fromPosition, int toPosition) {
-        LogHelper.i(TAG, "onItemMove: from=",fromPosition,", to=", toPosition);
-        /* Note that on the webpage this doesn't swap... it has the code
-       String prev = mItems.remove(fromPosition);
-        mItems.add(toPosition > fromPosition ? toPosition - 1 : toPosition, prev);
-        notifyItemMoved(fromPosition, toPosition);
-         */
-
-        if (fromPosition < toPosition) {
-            for (int i = fromPosition; i < toPosition; i++) {
-                Collections.swap(mDataset, i, i + 1);
-            }
-        } else {
-            for (int i = fromPosition; i > toPosition; i--) {
-                Collections.swap(mDataset, i, i - 1);
-            }
-        }
+        LogHelper.d(TAG, "onItemMove: from=",fromPosition,", to=", toPosition);
+        // A move is the item leaving fromPosition and being inserted at toPosition, which is
+        // what notifyItemMoved means too
+        mDataset.add(toPosition, mDataset.remove(fromPosition));
+        mGeneration++;
         notifyItemMoved(fromPosition, toPosition); // This tells the recycler _view_ that something has moved
     }
     ///////////////////////////////////////////////////////////////////////
@@ -111,11 +123,121 @@ public class PlayQueueRecyclerAdapter  extends RecyclerView.Adapter<PlayQueueRec
         public View view;
     }
 */
-    public PlayQueueRecyclerAdapter(ArrayList<MediaSessionCompat.QueueItem> myDataset, OnDragStartListener dragStartListener) {
-        mDataset = myDataset;
+    public PlayQueueRecyclerAdapter(OnDragStartListener dragStartListener) {
         mDragStartListener = dragStartListener;
     }
 
+    /**
+     * Shows queue, animating the differences from the queue shown now
+     */
+    public void submitList(List<MediaSessionCompat.QueueItem> queue) {
+        final int generation = ++mGeneration;
+        final ArrayList<MediaSessionCompat.QueueItem> newList = new ArrayList<>(queue);
+        if (mDataset.isEmpty() || newList.isEmpty()) {
+            // nothing to compare
+            int oldSize = mDataset.size();
+            mDataset = newList;
+            if (oldSize > 0) {
+                notifyItemRangeRemoved(0, oldSize);
+            }
+            if (!newList.isEmpty()) {
+                notifyItemRangeInserted(0, newList.size());
+            }
+            return;
+        }
+        // a copy, as drags and swipes change mDataset while the diff runs
+        final List<MediaSessionCompat.QueueItem> oldList = new ArrayList<>(mDataset);
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new QueueDiffCallback(oldList, newList));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mDataset = newList;
+                            result.dispatchUpdatesTo(PlayQueueRecyclerAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Makes the edits in delta to the list shown, which must be the queue the delta applies to
+     * (see isShowing)
+     */
+    public void applyDelta(QueueDelta<MediaSessionCompat.QueueItem> delta) {
+        mGeneration++;
+        delta.applyTo(mDataset, new QueueDelta.Listener() {
+            @Override
+            public void onInserted(int index, int count) {
+                notifyItemRangeInserted(index, count);
+            }
+
+            @Override
+            public void onRemoved(int index, int count) {
+                notifyItemRangeRemoved(index, count);
+            }
+
+            @Override
+            public void onMoved(int from, int to) {
+                notifyItemMoved(from, to);
+            }
+        });
+    }
+
+    /**
+     * @return true if the list shown has the same items as queue, in the same order
+     */
+    public boolean isShowing(List<MediaSessionCompat.QueueItem> queue) {
+        if (queue.size() != mDataset.size()) {
+            return false;
+        }
+        for (int i = 0; i < queue.size(); i++) {
+            if (queue.get(i).getQueueId() != mDataset.get(i).getQueueId()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class QueueDiffCallback extends DiffUtil.Callback {
+        private final List<MediaSessionCompat.QueueItem> mOldList;
+        private final List<MediaSessionCompat.QueueItem> mNewList;
+
+        QueueDiffCallback(List<MediaSessionCompat.QueueItem> oldList,
+                          List<MediaSessionCompat.QueueItem> newList) {
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOldList.get(oldPosition).getQueueId() == mNewList.get(newPosition).getQueueId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            MediaDescriptionCompat oldDescription = mOldList.get(oldPosition).getDescription();
+            MediaDescriptionCompat newDescription = mNewList.get(newPosition).getDescription();
+            return TextUtils.equals(oldDescription.getTitle(), newDescription.getTitle())
+                    && TextUtils.equals(oldDescription.getSubtitle(), newDescription.getSubtitle());
+        }
+    }
+
     // Create new views (invoked by the layout manager)
     @Override
     public PlayQueueRecyclerAdapter.MyViewHolder onCreateViewHolder(ViewGroup parent,
@@ -124,7 +246,17 @@ public class PlayQueueRecyclerAdapter  extends RecyclerView.Adapter<PlayQueueRec
         View v = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.recycler_playlist_song, parent, false);
 
-        MyViewHolder vh = new MyViewHolder(v);
+        final MyViewHolder vh = new MyViewHolder(v);
+        vh.handleView.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                // see https://medium.com/@ipaulpro/drag-and-swipe-with-recyclerview-6a6f0c422efd
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                    mDragStartListener.onDragStarted(vh);
+                }
+                return false;
+            }
+        });
         return vh;
     }
 
@@ -133,35 +265,10 @@ public class PlayQueueRecyclerAdapter  extends RecyclerView.Adapter<PlayQueueRec
     public void onBindViewHolder(final MyViewHolder  holder, int position) {
         // - get element from your dataset at this position
         // - replace the contents of the view with that element
-        LogHelper.i(TAG, "onBindViewHolder ",position);
         MediaSessionCompat.QueueItem queueItem = mDataset.get(position);
         MediaDescriptionCompat description = queueItem.getDescription();
         holder.tvSongTitle.setText(description.getTitle());
         holder.tvSongArtist.setText(description.getSubtitle());
-
-        holder.handleView.setOnTouchListener(new View.OnTouchListener() {
-            @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                switch (event.getActionMasked() /*was deprecate MotionEventCompat.getActionMasked(event)*/) {
-                    case MotionEvent.ACTION_DOWN:
-                        mDragStartListener.onDragStarted(holder);
-                        break;
-                    default:
-                        LogHelper.i(TAG, "MotionEvent:", event.getActionMasked());
-                }
-
-                /* Originally this just had action down to detact start of drag
-                // see https://medium.com/@ipaulpro/drag-and-swipe-with-recyclerview-6a6f0c422efd
-                if (MotionEventCompat.getActionMasked(event) ==
-                        MotionEvent.ACTION_DOWN) {
-                    mDragStartListener.onDragStarted(holder);
-                }
-                */
-                return false;
-            }
-
-        });
-
     }
 
     // Return the size of your dataset (invoked by the layout manager)
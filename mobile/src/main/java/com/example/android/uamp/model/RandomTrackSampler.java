@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks random, distinct tracks from a {@link TrackCatalog}, each with a chance proportional to
+ * its weight in {@link TrackStatistics}, so tracks that are usually skipped come up less often.
+ *
+ * The weights of all tracks that are long enough to be played are kept in a Fenwick tree, in
+ * which both finding the track at a point of the total weight and changing one track's weight
+ * are O(log M) for M tracks. A picked track's weight is taken out of the tree so it can't be
+ * picked again: O(N log M) for a sample of N tracks. The tree is rebuilt only when the catalog
+ * snapshot or the minimum duration changes; when only stats changed, just the weights of those
+ * tracks are updated.
+ *
+ * Picked tracks, and tracks marked with {@link #markRecent}, join a window of {@link RecentTracks}
+ * and keep a weight of 0 until they leave it, so no track comes up again until recentWindow other
+ * tracks have been picked or marked. If every eligible track is in the window the oldest ones are
+ * let back in, so a small library still gives a full sample.
+ */
+public class RandomTrackSampler {
+
+    private final Random mRandom;
+    private final TrackStatistics mStatistics;
+    private final RecentTracks mRecent;
+
+    private TrackCatalog mCatalog;
+    private long mMinDurationMs;
+    // the catalog row of each track in the tree
+    private int[] mEligibleRows;
+    // the tree index of each catalog row, or -1 if the row is not eligible
+    private int[] mTreeIndices;
+    private int[] mWeights;
+    // mTree[i] (1 based) is the sum of the weights of tree indices (i - (i & -i), i]
+    private long[] mTree;
+
+    /**
+     * @param statistics the weights of the tracks, or null to pick every track with equal chance
+     * @param recentWindow how many picked or marked tracks are kept from being picked again
+     */
+    public RandomTrackSampler(TrackStatistics statistics, int recentWindow) {
+        this(new Random(), statistics, recentWindow);
+    }
+
+    public RandomTrackSampler(Random random, TrackStatistics statistics, int recentWindow) {
+        mRandom = random;
+        mStatistics = statistics;
+        mRecent = new RecentTracks(recentWindow);
+    }
+
+    /**
+     * @param catalog the catalog to pick from
+     * @param minDurationMs tracks must be longer than this to be picked
+     * @param count the number of tracks wanted
+     * @return the rows of up to count distinct tracks, in random order. Fewer rows are returned
+     * only if the catalog does not have enough eligible tracks.
+     */
+    public synchronized int[] sample(TrackCatalog catalog, long minDurationMs, int count) {
+        if (catalog != mCatalog || minDurationMs != mMinDurationMs || mEligibleRows == null) {
+            if (mStatistics != null) {
+                // all weights are read afresh below
+                mStatistics.takeChangedIds();
+            }
+            mCatalog = catalog;
+            mMinDurationMs = minDurationMs;
+            build(catalog, minDurationMs);
+        } else if (mStatistics != null) {
+            for (long id : mStatistics.takeChangedIds()) {
+                if (!mRecent.contains(id)) {
+                    restore(id);
+                }
+            }
+        }
+
+        int n = Math.max(0, Math.min(count, mEligibleRows.length));
+        int[] result = new int[n];
+        long total = prefixSum(mEligibleRows.length);
+        int i = 0;
+        for (; i < n; i++) {
+            while (total == 0 && mRecent.size() > 0) {
+                // everything left was picked recently: let the oldest back in
+                total += restore(mRecent.removeOldest());
+            }
+            if (total == 0) {
+                break;
+            }
+            int index = find(randomBelow(total));
+            result[i] = mEligibleRows[index];
+            total -= mWeights[index];
+            setWeight(index, 0);
+        }
+        for (int j = 0; j < i; j++) {
+            addRecent(catalog.getId(result[j]));
+        }
+        return i == n ? result : Arrays.copyOf(result, i);
+    }
+
+    /**
+     * Keeps a track from being picked until recentWindow other tracks have been picked or
+     * marked, e.g. because it has just been played or queued by hand. O(log M).
+     */
+    public synchronized void markRecent(long trackId) {
+        addRecent(trackId);
+    }
+
+    private void addRecent(long trackId) {
+        if (mRecent.contains(trackId)) {
+            return;
+        }
+        if (mRecent.getCapacity() == 0) {
+            // no window: a track picked by sample is free again at once
+            restore(trackId);
+            return;
+        }
+        if (mRecent.size() == mRecent.getCapacity()) {
+            restore(mRecent.removeOldest());
+        }
+        mRecent.add(trackId);
+        setTrackWeight(trackId, 0);
+    }
+
+    /**
+     * Gives a track its weight from the stats again
+     * @return the weight, or 0 if the track is not in the tree
+     */
+    private int restore(long trackId) {
+        return setTrackWeight(trackId, weightOf(trackId));
+    }
+
+    private int weightOf(long trackId) {
+        return mStatistics == null ? TrackStatistics.DEFAULT_WEIGHT
+                : mStatistics.getWeight(trackId);
+    }
+
+    /**
+     * @return weight, or 0 if the track is not in the tree
+     */
+    private int setTrackWeight(long trackId, int weight) {
+        if (mEligibleRows == null) {
+            return 0;
+        }
+        int row = mCatalog.indexOf(trackId);
+        if (row < 0 || mTreeIndices[row] < 0) {
+            return 0;
+        }
+        setWeight(mTreeIndices[row], weight);
+        return weight;
+    }
+
+    private void build(TrackCatalog catalog, long minDurationMs) {
+        int count = 0;
+        for (int row = 0; row < catalog.size(); row++) {
+            if (catalog.getDurationMs(row) > minDurationMs) {
+                count++;
+            }
+        }
+        mEligibleRows = new int[count];
+        mTreeIndices = new int[catalog.size()];
+        mWeights = new int[count];
+        mTree = new long[count + 1];
+        int index = 0;
+        for (int row = 0; row < catalog.size(); row++) {
+            if (catalog.getDurationMs(row) > minDurationMs) {
+                mEligibleRows[index] = row;
+                mTreeIndices[row] = index;
+                long id = catalog.getId(row);
+                mWeights[index] = mRecent.contains(id) ? 0 : weightOf(id);
+                index++;
+            } else {
+                mTreeIndices[row] = -1;
+            }
+        }
+        // O(M) construction: each node passes its sum on to its parent
+        for (int i = 1; i <= count; i++) {
+            mTree[i] += mWeights[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= count) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+
+    private void setWeight(int index, int weight) {
+        long delta = weight - mWeights[index];
+        mWeights[index] = weight;
+        for (int i = index + 1; i < mTree.length; i += i & -i) {
+            mTree[i] += delta;
+        }
+    }
+
+    /**
+     * @return the sum of the weights of the first count tree indices
+     */
+    private long prefixSum(int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the tree index whose weight covers point, 0 <= point < total weight
+     */
+    private int find(long point) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(mTree.length - 1); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < mTree.length && mTree[next] <= point) {
+                position = next;
+                point -= mTree[next];
+            }
+        }
+        return position;
+    }
+
+    private long randomBelow(long bound) {
+        if (bound <= Integer.MAX_VALUE) {
+            return mRandom.nextInt((int) bound);
+        }
+        return Math.min(bound - 1, (long) (mRandom.nextDouble() * bound));
+    }
+}
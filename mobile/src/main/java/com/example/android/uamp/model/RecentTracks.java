@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+/**
+ * The ids of the last N tracks added, oldest first: a ring of ids plus an open addressing hash set
+ * of the same ids, so adding, evicting the oldest and checking whether a track is in the window
+ * are all O(1), and memory depends only on N. An id that is already in the window is not added
+ * again.
+ *
+ * Not thread safe.
+ */
+public class RecentTracks {
+
+    private final long[] mRing;
+    // ring index of the oldest id
+    private int mOldest;
+    private int mSize;
+
+    // hash set of the ids in the ring, with linear probing
+    private final long[] mKeys;
+    private final boolean[] mUsed;
+
+    public RecentTracks(int capacity) {
+        mRing = new long[Math.max(0, capacity)];
+        // at most half full
+        int tableSize = Integer.highestOneBit(Math.max(1, mRing.length) * 2) * 2;
+        mKeys = new long[tableSize];
+        mUsed = new boolean[tableSize];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mRing.length;
+    }
+
+    public boolean contains(long trackId) {
+        return find(trackId) >= 0;
+    }
+
+    /**
+     * @param index 0 for the oldest id
+     */
+    public long get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        return mRing[(mOldest + index) % mRing.length];
+    }
+
+    /**
+     * Adds trackId as the newest id, evicting the oldest id if the window is full. Call
+     * {@link #removeOldest()} first to find out which id that is.
+     * @return false if trackId was already in the window, or the window holds no ids
+     */
+    public boolean add(long trackId) {
+        if (mRing.length == 0 || contains(trackId)) {
+            return false;
+        }
+        if (mSize == mRing.length) {
+            removeOldest();
+        }
+        mRing[(mOldest + mSize) % mRing.length] = trackId;
+        mSize++;
+        insert(trackId);
+        return true;
+    }
+
+    /**
+     * @return the oldest id, which is no longer in the window
+     */
+    public long removeOldest() {
+        if (mSize == 0) {
+            throw new IllegalStateException("empty");
+        }
+        long trackId = mRing[mOldest];
+        mOldest = (mOldest + 1) % mRing.length;
+        mSize--;
+        delete(find(trackId));
+        return trackId;
+    }
+
+    public void clear() {
+        while (mSize > 0) {
+            removeOldest();
+        }
+    }
+
+    private int hash(long trackId) {
+        long h = trackId * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (mKeys.length - 1);
+    }
+
+    private int find(long trackId) {
+        int mask = mKeys.length - 1;
+        for (int slot = hash(trackId); mUsed[slot]; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == trackId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long trackId) {
+        int mask = mKeys.length - 1;
+        int slot = hash(trackId);
+        while (mUsed[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        mUsed[slot] = true;
+        mKeys[slot] = trackId;
+    }
+
+    /**
+     * Empties slot, moving later ids of the same probe run back so that none of them is cut off
+     * from its home slot
+     */
+    private void delete(int slot) {
+        int mask = mKeys.length - 1;
+        int hole = slot;
+        mUsed[hole] = false;
+        for (int next = (hole + 1) & mask; mUsed[next]; next = (next + 1) & mask) {
+            int home = hash(mKeys[next]);
+            // the id at next can move to the hole if its home is not in (hole, next]
+            boolean homeAfterHole = hole <= next
+                    ? home > hole && home <= next
+                    : home > hole || home <= next;
+            if (!homeAfterHole) {
+                mKeys[hole] = mKeys[next];
+                mUsed[hole] = true;
+                mUsed[next] = false;
+                hole = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Substring search over the title, artist and album of the tracks of one {@link TrackCatalog}.
+ *
+ * Text is folded before it is indexed or searched: lower cased, accents removed ("Beyonc&eacute;"
+ * matches "beyonce") and punctuation turned into spaces ("AC/DC" matches "ac dc"). Each folded
+ * value is split into trigrams (three character sequences), and each trigram points to the rows
+ * that contain it. A query is answered by intersecting the row lists of its own trigrams, starting
+ * with the shortest, and then checking the few remaining rows for the whole query; queries of one
+ * or two characters check the folded values directly.
+ *
+ * Results are ranked: the whole value first, then values with a word starting with the query,
+ * then values containing it anywhere. Within a rank rows keep their title order.
+ *
+ * Like the catalog, an index never changes once built. When the catalog is replaced, build the
+ * new index from the previous one so that only strings that were not in it have to be folded.
+ */
+public final class SearchIndex {
+
+    public static final int FIELD_TITLE = 0;
+    public static final int FIELD_ARTIST = 1;
+    public static final int FIELD_ALBUM = 2;
+    private static final int FIELD_COUNT = 3;
+
+    private static final int RANK_NONE = 0;
+    private static final int RANK_SUBSTRING = 1;
+    private static final int RANK_WORD_PREFIX = 2;
+    private static final int RANK_EXACT = 3;
+
+    private static final int[] NO_ROWS = new int[0];
+
+    private final TrackCatalog mCatalog;
+    // folded text of each field of each row
+    private final String[][] mFolded = new String[FIELD_COUNT][];
+    private final Postings[] mPostings = new Postings[FIELD_COUNT];
+    private final HashMap<String, String> mFoldCache;
+
+    private SearchIndex(TrackCatalog catalog, Map<String, String> previousFolds) {
+        mCatalog = catalog;
+        mFoldCache = new HashMap<>();
+        int size = catalog.size();
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            String[] folded = new String[size];
+            for (int row = 0; row < size; row++) {
+                folded[row] = foldCached(text(catalog, field, row), previousFolds);
+            }
+            mFolded[field] = folded;
+            mPostings[field] = new Postings(folded);
+        }
+    }
+
+    public static SearchIndex build(TrackCatalog catalog) {
+        return new SearchIndex(catalog, null);
+    }
+
+    /**
+     * Builds the index of a new catalog, reusing the folded text of the strings it shares with
+     * previous.
+     */
+    public static SearchIndex build(TrackCatalog catalog, SearchIndex previous) {
+        return new SearchIndex(catalog, previous == null ? null : previous.mFoldCache);
+    }
+
+    public TrackCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /**
+     * @param field one of the FIELD_ constants
+     * @return the rows whose field contains query, best matches first
+     */
+    public int[] search(int field, String query) {
+        return search(new int[] {field}, query);
+    }
+
+    /**
+     * @return the rows whose title, artist or album contains query, best matches first. A match
+     * on the title ranks above an equally good match on the artist or album.
+     */
+    public int[] searchAnyField(String query) {
+        return search(new int[] {FIELD_TITLE, FIELD_ARTIST, FIELD_ALBUM}, query);
+    }
+
+    private int[] search(int[] fields, String query) {
+        String folded = fold(query);
+        int size = mCatalog.size();
+        if (folded.isEmpty() || size == 0) {
+            return NO_ROWS;
+        }
+        // score = rank * FIELD_COUNT + a bonus for earlier (more important) fields
+        int[] scores = new int[size];
+        int matches = 0;
+        for (int f = 0; f < fields.length; f++) {
+            int field = fields[f];
+            String[] values = mFolded[field];
+            int[] candidates = mPostings[field].candidates(folded);
+            int count = candidates == null ? size : candidates.length;
+            for (int i = 0; i < count; i++) {
+                int row = candidates == null ? i : candidates[i];
+                int rank = rank(values[row], folded);
+                if (rank == RANK_NONE) {
+                    continue;
+                }
+                int score = rank * FIELD_COUNT + (FIELD_COUNT - 1 - f);
+                if (scores[row] == 0) {
+                    matches++;
+                }
+                scores[row] = Math.max(scores[row], score);
+            }
+        }
+        return sortByScore(scores, matches);
+    }
+
+    /**
+     * Counting sort of the matching rows by descending score, keeping row order within a score
+     */
+    private static int[] sortByScore(int[] scores, int matches) {
+        int maxScore = (RANK_EXACT + 1) * FIELD_COUNT;
+        int[] starts = new int[maxScore + 1];
+        for (int score : scores) {
+            if (score > 0) {
+                starts[maxScore - score]++;
+            }
+        }
+        int total = 0;
+        for (int i = 0; i <= maxScore; i++) {
+            int count = starts[i];
+            starts[i] = total;
+            total += count;
+        }
+        int[] rows = new int[matches];
+        for (int row = 0; row < scores.length; row++) {
+            if (scores[row] > 0) {
+                rows[starts[maxScore - scores[row]]++] = row;
+            }
+        }
+        return rows;
+    }
+
+    private static int rank(String value, String query) {
+        int index = value.indexOf(query);
+        if (index < 0) {
+            return RANK_NONE;
+        }
+        if (value.length() == query.length()) {
+            return RANK_EXACT;
+        }
+        while (index >= 0) {
+            if (index == 0 || value.charAt(index - 1) == ' ') {
+                return RANK_WORD_PREFIX;
+            }
+            index = value.indexOf(query, index + 1);
+        }
+        return RANK_SUBSTRING;
+    }
+
+    private static String text(TrackCatalog catalog, int field, int row) {
+        switch (field) {
+            case FIELD_TITLE:
+                return catalog.getTitle(row);
+            case FIELD_ARTIST:
+                return catalog.getArtist(row);
+            default:
+                return catalog.getAlbum(row);
+        }
+    }
+
+    private String foldCached(String text, Map<String, String> previousFolds) {
+        if (text == null) {
+            return "";
+        }
+        String folded = mFoldCache.get(text);
+        if (folded == null) {
+            folded = previousFolds == null ? null : previousFolds.get(text);
+            if (folded == null) {
+                folded = fold(text);
+            }
+            mFoldCache.put(text, folded);
+        }
+        return folded;
+    }
+
+    /**
+     * @return text in lower case, without accents, with every run of characters that are not
+     * letters or digits replaced by a single space and no leading or trailing space
+     */
+    public static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT),
+                Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                space = false;
+                sb.append(c);
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32)
+                | ((long) text.charAt(start + 1) << 16)
+                | text.charAt(start + 2);
+    }
+
+    /**
+     * The rows containing each trigram of one field, stored as sorted trigram keys plus start
+     * offsets into a single array of rows.
+     */
+    private static final class Postings {
+        private final long[] mKeys;
+        private final int[] mStarts;
+        private final int[] mRows;
+
+        Postings(String[] values) {
+            // Pass 1: count the rows of each distinct trigram, a row counted once per trigram
+            HashMap<Long, int[]> counts = new HashMap<>();
+            for (int row = 0; row < values.length; row++) {
+                String value = values[row];
+                for (int i = 0; i + 3 <= value.length(); i++) {
+                    Long key = trigram(value, i);
+                    int[] count = counts.get(key);
+                    if (count == null) {
+                        count = new int[] {0, -1};
+                        counts.put(key, count);
+                    }
+                    // count[1] is the last row counted, so repeats within a row are skipped
+                    if (count[1] != row) {
+                        count[0]++;
+                        count[1] = row;
+                    }
+                }
+            }
+            mKeys = new long[counts.size()];
+            int k = 0;
+            for (Long key : counts.keySet()) {
+                mKeys[k++] = key;
+            }
+            Arrays.sort(mKeys);
+            mStarts = new int[mKeys.length + 1];
+            for (k = 0; k < mKeys.length; k++) {
+                mStarts[k + 1] = mStarts[k] + counts.get(mKeys[k])[0];
+            }
+
+            // Pass 2: fill in the rows, which come out in ascending order
+            mRows = new int[mStarts[mKeys.length]];
+            int[] next = Arrays.copyOf(mStarts, mKeys.length);
+            int[] lastRow = new int[mKeys.length];
+            Arrays.fill(lastRow, -1);
+            for (int row = 0; row < values.length; row++) {
+                String value = values[row];
+                for (int i = 0; i + 3 <= value.length(); i++) {
+                    k = Arrays.binarySearch(mKeys, trigram(value, i));
+                    if (lastRow[k] != row) {
+                        lastRow[k] = row;
+                        mRows[next[k]++] = row;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the rows that contain every trigram of query (a superset of the rows that
+         * contain query), or null if query is too short to have trigrams and every row must be
+         * checked
+         */
+        int[] candidates(String query) {
+            int count = query.length() - 2;
+            if (count <= 0) {
+                return null;
+            }
+            int[] keyIndices = new int[count];
+            for (int i = 0; i < count; i++) {
+                int k = Arrays.binarySearch(mKeys, trigram(query, i));
+                if (k < 0) {
+                    return NO_ROWS;
+                }
+                keyIndices[i] = k;
+            }
+            // Start from the rarest trigram so the candidate list is short from the beginning
+            int rarest = 0;
+            for (int i = 1; i < count; i++) {
+                if (length(keyIndices[i]) < length(keyIndices[rarest])) {
+                    rarest = i;
+                }
+            }
+            int k = keyIndices[rarest];
+            int[] rows = Arrays.copyOfRange(mRows, mStarts[k], mStarts[k + 1]);
+            int size = rows.length;
+            for (int i = 0; i < count && size > 0; i++) {
+                if (i != rarest) {
+                    size = retain(rows, size, keyIndices[i]);
+                }
+            }
+            return Arrays.copyOf(rows, size);
+        }
+
+        private int length(int k) {
+            return mStarts[k + 1] - mStarts[k];
+        }
+
+        /**
+         * Keeps the first size rows that are also in the list of trigram k, in place
+         * @return how many rows were kept
+         */
+        private int retain(int[] rows, int size, int k) {
+            int kept = 0;
+            int j = mStarts[k];
+            int end = mStarts[k + 1];
+            for (int i = 0; i < size && j < end; i++) {
+                int row = rows[i];
+                while (j < end && mRows[j] < row) {
+                    j++;
+                }
+                if (j < end && mRows[j] == row) {
+                    rows[kept++] = row;
+                }
+            }
+            return kept;
+        }
+    }
+}
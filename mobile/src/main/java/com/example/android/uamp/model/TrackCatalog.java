@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Immutable, column oriented snapshot of the audio tracks on the device.
+ *
+ * Every track is a "row". Rows are sorted by title (case insensitive), which is the order the
+ * browser shows them in. Numeric columns are kept in primitive arrays and the text columns
+ * are indices into a single table of de-duplicated strings, so a library of tens of thousands
+ * of tracks costs a few MB and no per-track objects.
+ *
+ * Tracks are also grouped by artist id and by album id so that "all songs by X" is a slice of
+ * an int array rather than a scan.
+ *
+ * Instances are built with a {@link Builder} and never change afterwards, so they can be read
+ * from any thread without locking. A new snapshot is simply swapped in when MediaStore changes.
+ */
+public final class TrackCatalog {
+
+    public static final TrackCatalog EMPTY = new Builder(0).build();
+
+    private static final int[] NO_ROWS = new int[0];
+
+    private final int mSize;
+    private final long[] mIds;
+    private final int[] mTitles;
+    private final int[] mArtists;
+    private final int[] mAlbums;
+    private final long[] mArtistIds;
+    private final long[] mAlbumIds;
+    private final long[] mDurations;
+    private final int[] mTrackNumbers;
+    private final String[] mStrings;
+
+    // Track ids in ascending order, and the row each of them lives in
+    private final long[] mSortedIds;
+    private final int[] mSortedIdRows;
+
+    private final Grouping mArtistGroups;
+    private final Grouping mAlbumGroups;
+
+    private TrackCatalog(Builder builder) {
+        int size = builder.mSize;
+        int[] order = sortedByTitle(builder);
+
+        mSize = size;
+        mIds = new long[size];
+        mTitles = new int[size];
+        mArtists = new int[size];
+        mAlbums = new int[size];
+        mArtistIds = new long[size];
+        mAlbumIds = new long[size];
+        mDurations = new long[size];
+        mTrackNumbers = new int[size];
+        for (int row = 0; row < size; row++) {
+            int src = order[row];
+            mIds[row] = builder.mIds[src];
+            mTitles[row] = builder.mTitles[src];
+            mArtists[row] = builder.mArtists[src];
+            mAlbums[row] = builder.mAlbums[src];
+            mArtistIds[row] = builder.mArtistIds[src];
+            mAlbumIds[row] = builder.mAlbumIds[src];
+            mDurations[row] = builder.mDurations[src];
+            mTrackNumbers[row] = builder.mTrackNumbers[src];
+        }
+        mStrings = builder.mStrings.toArray(new String[builder.mStrings.size()]);
+
+        mSortedIds = new long[size];
+        mSortedIdRows = new int[size];
+        int[] byId = sortRows(mIds, size);
+        for (int i = 0; i < size; i++) {
+            mSortedIds[i] = mIds[byId[i]];
+            mSortedIdRows[i] = byId[i];
+        }
+
+        mArtistGroups = new Grouping(mArtistIds, mArtists);
+        mAlbumGroups = new Grouping(mAlbumIds, mAlbums);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getId(int row) {
+        return mIds[row];
+    }
+
+    public String getTitle(int row) {
+        return string(mTitles[row]);
+    }
+
+    public String getArtist(int row) {
+        return string(mArtists[row]);
+    }
+
+    public String getAlbum(int row) {
+        return string(mAlbums[row]);
+    }
+
+    public long getArtistId(int row) {
+        return mArtistIds[row];
+    }
+
+    public long getAlbumId(int row) {
+        return mAlbumIds[row];
+    }
+
+    public long getDurationMs(int row) {
+        return mDurations[row];
+    }
+
+    public int getTrackNumber(int row) {
+        return mTrackNumbers[row];
+    }
+
+    /**
+     * @return the row of the track with the given MediaStore _ID, or -1 if it is not in this
+     * snapshot.
+     */
+    public int indexOf(long id) {
+        int i = Arrays.binarySearch(mSortedIds, 0, mSize, id);
+        return i >= 0 ? mSortedIdRows[i] : -1;
+    }
+
+    /**
+     * @return the rows (in title order) of all tracks by the given artist.
+     */
+    public int[] getRowsForArtist(long artistId) {
+        return mArtistGroups.rowsFor(artistId);
+    }
+
+    /**
+     * @return the rows (in title order) of all tracks on the given album.
+     */
+    public int[] getRowsForAlbum(long albumId) {
+        return mAlbumGroups.rowsFor(albumId);
+    }
+
+    public int getArtistCount() {
+        return mArtistGroups.size();
+    }
+
+    /**
+     * Artists are indexed in name order (case insensitive), like the MediaStore artist list.
+     */
+    public long getArtistIdAt(int index) {
+        return mArtistGroups.keyAt(index);
+    }
+
+    public String getArtistNameAt(int index) {
+        return string(mArtistGroups.nameAt(index));
+    }
+
+    public int getAlbumCount() {
+        return mAlbumGroups.size();
+    }
+
+    /**
+     * Albums are indexed in name order (case insensitive), like the MediaStore album list.
+     */
+    public long getAlbumIdAt(int index) {
+        return mAlbumGroups.keyAt(index);
+    }
+
+    public String getAlbumNameAt(int index) {
+        return string(mAlbumGroups.nameAt(index));
+    }
+
+    /**
+     * @return the artist of the first track of the album at the given index
+     */
+    public String getAlbumArtistAt(int index) {
+        return string(mArtists[mAlbumGroups.firstRowAt(index)]);
+    }
+
+    private String string(int index) {
+        return index < 0 ? null : mStrings[index];
+    }
+
+    private static int[] sortedByTitle(final Builder builder) {
+        final String[] titles = new String[builder.mSize];
+        for (int i = 0; i < titles.length; i++) {
+            int s = builder.mTitles[i];
+            titles[i] = s < 0 ? "" : builder.mStrings.get(s);
+        }
+        int[] rows = identity(builder.mSize);
+        mergeSort(rows, new int[rows.length], 0, rows.length, new RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return String.CASE_INSENSITIVE_ORDER.compare(titles[a], titles[b]);
+            }
+        });
+        return rows;
+    }
+
+    private static int[] sortRows(final long[] keys, int size) {
+        int[] rows = identity(size);
+        mergeSort(rows, new int[size], 0, size, new RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return keys[a] < keys[b] ? -1 : (keys[a] == keys[b] ? 0 : 1);
+            }
+        });
+        return rows;
+    }
+
+    private static int[] identity(int size) {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    private interface RowComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Stable sort of an int array with a primitive comparator, so sorting 40k rows does not box
+     * 40k Integers. Stability matters: equal keys keep their title order.
+     */
+    private static void mergeSort(int[] a, int[] tmp, int from, int to, RowComparator c) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid, c);
+        mergeSort(a, tmp, mid, to, c);
+        if (c.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            a[k++] = c.compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            a[k++] = tmp[i++];
+        }
+        while (j < to) {
+            a[k++] = tmp[j++];
+        }
+    }
+
+    /**
+     * Rows grouped by a long key (artist id or album id), stored as one int array of rows plus
+     * start offsets per key.
+     */
+    private final class Grouping {
+        private final long[] mKeys;      // sorted ascending
+        private final int[] mStarts;     // mStarts[k]..mStarts[k+1] are the rows of mKeys[k]
+        private final int[] mRows;
+        private final int[] mNames;      // string index of the name of each key
+        private final int[] mNameOrder;  // key indices in name order
+
+        Grouping(final long[] keyColumn, int[] nameColumn) {
+            int[] byKey = sortRows(keyColumn, mSize);
+            int count = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (i == 0 || keyColumn[byKey[i]] != keyColumn[byKey[i - 1]]) {
+                    count++;
+                }
+            }
+            mKeys = new long[count];
+            mStarts = new int[count + 1];
+            mNames = new int[count];
+            mRows = byKey;
+            int k = -1;
+            for (int i = 0; i < mSize; i++) {
+                int row = byKey[i];
+                if (i == 0 || keyColumn[row] != keyColumn[byKey[i - 1]]) {
+                    k++;
+                    mKeys[k] = keyColumn[row];
+                    mStarts[k] = i;
+                    mNames[k] = nameColumn[row];
+                }
+            }
+            mStarts[count] = mSize;
+
+            final String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = mNames[i] < 0 ? "" : mStrings[mNames[i]];
+            }
+            mNameOrder = identity(count);
+            mergeSort(mNameOrder, new int[count], 0, count, new RowComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    return String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]);
+                }
+            });
+        }
+
+        int size() {
+            return mKeys.length;
+        }
+
+        long keyAt(int index) {
+            return mKeys[mNameOrder[index]];
+        }
+
+        int nameAt(int index) {
+            return mNames[mNameOrder[index]];
+        }
+
+        int firstRowAt(int index) {
+            return mRows[mStarts[mNameOrder[index]]];
+        }
+
+        int[] rowsFor(long key) {
+            int k = Arrays.binarySearch(mKeys, key);
+            if (k < 0) {
+                return NO_ROWS;
+            }
+            return Arrays.copyOfRange(mRows, mStarts[k], mStarts[k + 1]);
+        }
+    }
+
+    /**
+     * Starts a builder holding this catalog's tracks except the ones in excludedIds, so a
+     * snapshot can be updated with the rows MediaStore added or changed without reading the
+     * others again.
+     * @param excludedIds ids of tracks to leave out, sorted ascending
+     */
+    public Builder toBuilder(long[] excludedIds) {
+        Builder builder = new Builder(mSize);
+        for (int row = 0; row < mSize; row++) {
+            if (Arrays.binarySearch(excludedIds, mIds[row]) < 0) {
+                builder.addTrack(mIds[row], string(mTitles[row]), string(mArtists[row]),
+                        mArtistIds[row], string(mAlbums[row]), mAlbumIds[row], mDurations[row],
+                        mTrackNumbers[row]);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Accumulates tracks in any order and produces an immutable {@link TrackCatalog}.
+     * Text values are interned into a shared string table as they are added.
+     */
+    public static final class Builder {
+        private final HashMap<String, Integer> mStringIndex = new HashMap<>();
+        private final ArrayList<String> mStrings = new ArrayList<>();
+
+        private int mSize;
+        private long[] mIds;
+        private int[] mTitles;
+        private int[] mArtists;
+        private int[] mAlbums;
+        private long[] mArtistIds;
+        private long[] mAlbumIds;
+        private long[] mDurations;
+        private int[] mTrackNumbers;
+
+        public Builder(int expectedSize) {
+            allocate(Math.max(expectedSize, 16));
+        }
+
+        public Builder addTrack(long id, String title, String artist, long artistId,
+                                String album, long albumId, long durationMs, int trackNumber) {
+            if (mSize == mIds.length) {
+                allocate(mSize * 2);
+            }
+            mIds[mSize] = id;
+            mTitles[mSize] = intern(title);
+            mArtists[mSize] = intern(artist);
+            mAlbums[mSize] = intern(album);
+            mArtistIds[mSize] = artistId;
+            mAlbumIds[mSize] = albumId;
+            mDurations[mSize] = durationMs;
+            mTrackNumbers[mSize] = trackNumber;
+            mSize++;
+            return this;
+        }
+
+        public TrackCatalog build() {
+            return new TrackCatalog(this);
+        }
+
+        private int intern(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer index = mStringIndex.get(value);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(value);
+                mStringIndex.put(value, index);
+            }
+            return index;
+        }
+
+        private void allocate(int capacity) {
+            mIds = mIds == null ? new long[capacity] : Arrays.copyOf(mIds, capacity);
+            mTitles = mTitles == null ? new int[capacity] : Arrays.copyOf(mTitles, capacity);
+            mArtists = mArtists == null ? new int[capacity] : Arrays.copyOf(mArtists, capacity);
+            mAlbums = mAlbums == null ? new int[capacity] : Arrays.copyOf(mAlbums, capacity);
+            mArtistIds = mArtistIds == null ? new long[capacity] : Arrays.copyOf(mArtistIds, capacity);
+            mAlbumIds = mAlbumIds == null ? new long[capacity] : Arrays.copyOf(mAlbumIds, capacity);
+            mDurations = mDurations == null ? new long[capacity] : Arrays.copyOf(mDurations, capacity);
+            mTrackNumbers = mTrackNumbers == null ? new int[capacity] : Arrays.copyOf(mTrackNumbers, capacity);
+        }
+    }
+}
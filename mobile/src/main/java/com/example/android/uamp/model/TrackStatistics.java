@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import java.util.Arrays;
+
+/**
+ * How often each track was played to the end or skipped, and the weight that gives it when
+ * picking random tracks: tracks that are usually played through are picked more often, tracks
+ * that are usually skipped less often, and tracks with no stats get {@link #DEFAULT_WEIGHT}.
+ *
+ * Counts are kept in primitive arrays of an open addressing hash table keyed by track id, so
+ * recording costs no allocation. The ids whose weight changed are remembered until they are
+ * taken with {@link #takeChangedIds()}, so a sampler can update just those tracks.
+ *
+ * Thread safe.
+ */
+public class TrackStatistics {
+
+    public static final int MIN_WEIGHT = 1;
+    public static final int DEFAULT_WEIGHT = 8;
+    public static final int MAX_WEIGHT = 32;
+
+    private static final long[] NO_IDS = new long[0];
+
+    private long[] mIds;
+    private boolean[] mUsed;
+    private int[] mCompletions;
+    private int[] mSkips;
+    private int mSize;
+
+    private boolean[] mChanged;
+    private long[] mChangedIds = new long[16];
+    private int mChangedCount;
+
+    public TrackStatistics() {
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        mIds = new long[capacity];
+        mUsed = new boolean[capacity];
+        mCompletions = new int[capacity];
+        mSkips = new int[capacity];
+        mChanged = new boolean[capacity];
+    }
+
+    /**
+     * @return the weight of a track played to the end completions times and skipped skips times,
+     * from MIN_WEIGHT to MAX_WEIGHT
+     */
+    public static int weight(int completions, int skips) {
+        long weight = (long) DEFAULT_WEIGHT * (completions + 2L) / (skips + 2L);
+        return (int) Math.max(MIN_WEIGHT, Math.min(MAX_WEIGHT, weight));
+    }
+
+    public synchronized void recordCompletion(long trackId) {
+        int slot = slotFor(trackId);
+        mCompletions[slot]++;
+        changed(slot);
+    }
+
+    public synchronized void recordSkip(long trackId) {
+        int slot = slotFor(trackId);
+        mSkips[slot]++;
+        changed(slot);
+    }
+
+    /**
+     * Sets the counts of a track read from storage. Anything recorded since the service started
+     * has already been stored, so the larger of the stored and the recorded counts is kept.
+     */
+    public synchronized void load(long trackId, int completions, int skips) {
+        int slot = slotFor(trackId);
+        if (completions > mCompletions[slot] || skips > mSkips[slot]) {
+            mCompletions[slot] = Math.max(mCompletions[slot], completions);
+            mSkips[slot] = Math.max(mSkips[slot], skips);
+            changed(slot);
+        }
+    }
+
+    public synchronized int getWeight(long trackId) {
+        int slot = find(trackId);
+        return slot < 0 ? DEFAULT_WEIGHT : weight(mCompletions[slot], mSkips[slot]);
+    }
+
+    public synchronized int getCompletions(long trackId) {
+        int slot = find(trackId);
+        return slot < 0 ? 0 : mCompletions[slot];
+    }
+
+    public synchronized int getSkips(long trackId) {
+        int slot = find(trackId);
+        return slot < 0 ? 0 : mSkips[slot];
+    }
+
+    /**
+     * @return the ids of the tracks whose counts changed since the last call, each once
+     */
+    public synchronized long[] takeChangedIds() {
+        if (mChangedCount == 0) {
+            return NO_IDS;
+        }
+        long[] ids = Arrays.copyOf(mChangedIds, mChangedCount);
+        for (long id : ids) {
+            mChanged[find(id)] = false;
+        }
+        mChangedCount = 0;
+        return ids;
+    }
+
+    private void changed(int slot) {
+        if (mChanged[slot]) {
+            return;
+        }
+        mChanged[slot] = true;
+        if (mChangedCount == mChangedIds.length) {
+            mChangedIds = Arrays.copyOf(mChangedIds, mChangedCount * 2);
+        }
+        mChangedIds[mChangedCount++] = mIds[slot];
+    }
+
+    private static int hash(long id, int capacity) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (capacity - 1);
+    }
+
+    /**
+     * @return the slot of trackId, or -1 if it has no counts
+     */
+    private int find(long trackId) {
+        int mask = mIds.length - 1;
+        for (int slot = hash(trackId, mIds.length); mUsed[slot]; slot = (slot + 1) & mask) {
+            if (mIds[slot] == trackId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the slot of trackId, adding it if it has no counts yet
+     */
+    private int slotFor(long trackId) {
+        int slot = find(trackId);
+        if (slot >= 0) {
+            return slot;
+        }
+        // keep the table at most half full
+        if ((mSize + 1) * 2 > mIds.length) {
+            grow();
+        }
+        int mask = mIds.length - 1;
+        slot = hash(trackId, mIds.length);
+        while (mUsed[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        mUsed[slot] = true;
+        mIds[slot] = trackId;
+        mSize++;
+        return slot;
+    }
+
+    private void grow() {
+        long[] ids = mIds;
+        boolean[] used = mUsed;
+        int[] completions = mCompletions;
+        int[] skips = mSkips;
+        boolean[] changed = mChanged;
+        allocate(ids.length * 2);
+        int mask = mIds.length - 1;
+        for (int i = 0; i < ids.length; i++) {
+            if (!used[i]) {
+                continue;
+            }
+            int slot = hash(ids[i], mIds.length);
+            while (mUsed[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            mUsed[slot] = true;
+            mIds[slot] = ids[i];
+            mCompletions[slot] = completions[i];
+            mSkips[slot] = skips[i];
+            mChanged[slot] = changed[i];
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.playback;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * How much ExoPlayer buffers ahead, depending on where the audio comes from.
+ *
+ * ExoPlayer's defaults (DefaultLoadControl()) are sized for streaming video over a network.
+ * A local file can be read far faster than it plays, so buffering 15-30s of it only costs memory,
+ * and the wake-ups to fill it cost battery; it is also ready to start after much less.
+ *
+ * This version of ExoPlayer (2.7) has no back buffer: what has been played is always discarded.
+ */
+public class BufferProfile {
+
+    /** Files on the device's own storage */
+    public static final BufferProfile LOCAL_FLASH = new BufferProfile("local flash",
+            5000, 10000, 500, 1000, 32 * 1024, 4 * 1024 * 1024, false);
+
+    /** Audio streamed over the network: ExoPlayer's defaults */
+    public static final BufferProfile REMOTE_STREAM = new BufferProfile("remote stream",
+            DefaultLoadControl.DEFAULT_MIN_BUFFER_MS,
+            DefaultLoadControl.DEFAULT_MAX_BUFFER_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+            C.DEFAULT_BUFFER_SEGMENT_SIZE, C.LENGTH_UNSET, true);
+
+    /** Local files on a device that reports it is short of memory */
+    public static final BufferProfile LOW_MEMORY = new BufferProfile("low memory",
+            3000, 6000, 500, 1000, 16 * 1024, 1024 * 1024, false);
+
+    private final String mName;
+    private final int mMinBufferMs;
+    private final int mMaxBufferMs;
+    private final int mBufferForPlaybackMs;
+    private final int mBufferForPlaybackAfterRebufferMs;
+    private final int mSegmentSize;
+    private final int mTargetBufferBytes;
+    private final boolean mPrioritizeTimeOverSize;
+
+    /**
+     * @param minBufferMs buffering starts again when less than this is buffered
+     * @param maxBufferMs buffering stops when this much is buffered
+     * @param bufferForPlaybackMs how much must be buffered to start playing
+     * @param bufferForPlaybackAfterRebufferMs how much must be buffered to start again after
+     *                                         running out
+     * @param segmentSize size of each allocation the buffer is made of
+     * @param targetBufferBytes most bytes to buffer, or C.LENGTH_UNSET to let ExoPlayer choose
+     *                          from the selected tracks
+     * @param prioritizeTimeOverSize if true, keep buffering up to minBufferMs even when
+     *                               targetBufferBytes is reached
+     */
+    private BufferProfile(String name, int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                          int bufferForPlaybackAfterRebufferMs, int segmentSize,
+                          int targetBufferBytes, boolean prioritizeTimeOverSize) {
+        mName = name;
+        mMinBufferMs = minBufferMs;
+        mMaxBufferMs = maxBufferMs;
+        mBufferForPlaybackMs = bufferForPlaybackMs;
+        mBufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        mSegmentSize = segmentSize;
+        mTargetBufferBytes = targetBufferBytes;
+        mPrioritizeTimeOverSize = prioritizeTimeOverSize;
+    }
+
+    /**
+     * @param local true for files on the device, false for streams
+     * @return the profile to play from that kind of source on this device
+     */
+    public static BufferProfile forSource(Context context, boolean local) {
+        if (!local) {
+            return REMOTE_STREAM;
+        }
+        return isLowRamDevice(context) ? LOW_MEMORY : LOCAL_FLASH;
+    }
+
+    private static boolean isLowRamDevice(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null && activityManager.isLowRamDevice();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return a new LoadControl for one player, with its own allocator
+     */
+    public DefaultLoadControl createLoadControl() {
+        return new DefaultLoadControl(new DefaultAllocator(true, mSegmentSize),
+                mMinBufferMs, mMaxBufferMs, mBufferForPlaybackMs,
+                mBufferForPlaybackAfterRebufferMs, mTargetBufferBytes, mPrioritizeTimeOverSize);
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
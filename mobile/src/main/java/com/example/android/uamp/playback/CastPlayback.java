@@ -167,6 +167,11 @@ public class CastPlayback implements Playback {
         return mCurrentMediaId;
     }
 
+    @Override
+    public void setNextQueueItem(QueueItem item) {
+        // Nothing to do. Each item is loaded when it is played.
+    }
+
     @Override
     public void setCallback(Callback callback) {
         this.mCallback = callback;
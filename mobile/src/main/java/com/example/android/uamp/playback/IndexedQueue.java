@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.playback;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A list of queue items that can also find an item's position from its key (the queueId).
+ *
+ * The items are kept in a treap ordered by position (an "implicit" treap: each node knows
+ * the size of its subtree, so position i is found by walking down from the root), plus a map
+ * from key to node. Nodes have parent links, so the position of a keyed node is found by
+ * walking up. get, add, remove, move and indexOfKey are all O(log n) expected, instead of the
+ * O(n) scans and array shifts of an ArrayList; iteration is O(n).
+ *
+ * Keys are expected to be unique. If an item is added with a key already in the list,
+ * indexOfKey finds the newest one.
+ *
+ * All methods are synchronized, as Collections.synchronizedList was; iteration needs external
+ * synchronization on the list like it did.
+ */
+public class IndexedQueue<T> extends AbstractList<T> {
+
+    public interface KeyFunction<T> {
+        long keyOf(T item);
+    }
+
+    private static final class Node<T> {
+        T item;
+        long key;
+        final int priority;
+        int size = 1;
+        Node<T> left;
+        Node<T> right;
+        Node<T> parent;
+
+        Node(T item, long key, int priority) {
+            this.item = item;
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+
+    private final KeyFunction<T> mKeyFunction;
+    private final Map<Long, Node<T>> mNodesByKey = new HashMap<>();
+    private final Random mRandom = new Random();
+    private Node<T> mRoot;
+
+    public IndexedQueue(KeyFunction<T> keyFunction) {
+        mKeyFunction = keyFunction;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size(mRoot);
+    }
+
+    @Override
+    public synchronized T get(int index) {
+        return nodeAt(index).item;
+    }
+
+    @Override
+    public synchronized T set(int index, T item) {
+        Node<T> node = nodeAt(index);
+        T previous = node.item;
+        forgetKey(node);
+        node.item = item;
+        node.key = mKeyFunction.keyOf(item);
+        mNodesByKey.put(node.key, node);
+        return previous;
+    }
+
+    @Override
+    public synchronized void add(int index, T item) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<T> node = new Node<>(item, mKeyFunction.keyOf(item), mRandom.nextInt());
+        mNodesByKey.put(node.key, node);
+        Node<T>[] parts = split(mRoot, index);
+        setRoot(merge(merge(parts[0], node), parts[1]));
+        modCount++;
+    }
+
+    @Override
+    public synchronized T remove(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<T>[] parts = split(mRoot, index);
+        Node<T>[] rest = split(parts[1], 1);
+        Node<T> removed = rest[0];
+        setRoot(merge(parts[0], rest[1]));
+        forgetKey(removed);
+        removed.parent = null;
+        modCount++;
+        return removed.item;
+    }
+
+    @Override
+    public synchronized void clear() {
+        mRoot = null;
+        mNodesByKey.clear();
+        modCount++;
+    }
+
+    /**
+     * @return the position of the item with this key, or -1 if there is none
+     */
+    public synchronized int indexOfKey(long key) {
+        Node<T> node = mNodesByKey.get(key);
+        return node == null ? -1 : indexOfNode(node);
+    }
+
+    /**
+     * @return the item with this key, or null if there is none
+     */
+    public synchronized T getByKey(long key) {
+        Node<T> node = mNodesByKey.get(key);
+        return node == null ? null : node.item;
+    }
+
+    /**
+     * Removes the item with this key
+     * @return the position it was at, or -1 if there was none
+     */
+    public synchronized int removeByKey(long key) {
+        int index = indexOfKey(key);
+        if (index >= 0) {
+            remove(index);
+        }
+        return index;
+    }
+
+    /**
+     * Moves the item at position from to position to (its position once moved)
+     */
+    public synchronized void move(int from, int to) {
+        add(to, remove(from));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new InOrderIterator();
+    }
+
+    private Node<T> nodeAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<T> node = mRoot;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private int indexOfNode(Node<T> node) {
+        int index = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                index += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return index;
+    }
+
+    private void forgetKey(Node<T> node) {
+        if (mNodesByKey.get(node.key) == node) {
+            mNodesByKey.remove(node.key);
+        }
+    }
+
+    private void setRoot(Node<T> root) {
+        mRoot = root;
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <T> void update(Node<T> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+    }
+
+    /**
+     * Splits the tree into its first count items and the rest
+     */
+    // generic arrays can't be created, so the pair is a raw array
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Node<T>[] split(Node<T> node, int count) {
+        if (node == null) {
+            return new Node[] {null, null};
+        }
+        if (count <= size(node.left)) {
+            Node<T>[] parts = split(node.left, count);
+            node.left = parts[1];
+            update(node);
+            parts[1] = node;
+            return parts;
+        } else {
+            Node<T>[] parts = split(node.right, count - size(node.left) - 1);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+    }
+
+    /**
+     * Joins two trees, all the items of first coming before those of second
+     */
+    private static <T> Node<T> merge(Node<T> first, Node<T> second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            update(first);
+            return first;
+        } else {
+            second.left = merge(first, second.left);
+            update(second);
+            return second;
+        }
+    }
+
+    private static <T> Node<T> leftmost(Node<T> node) {
+        while (node != null && node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static <T> Node<T> successor(Node<T> node) {
+        if (node.right != null) {
+            return leftmost(node.right);
+        }
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private final class InOrderIterator implements Iterator<T> {
+        private Node<T> mNext;
+        private Node<T> mLastReturned;
+        private int mExpectedModCount;
+
+        InOrderIterator() {
+            synchronized (IndexedQueue.this) {
+                mNext = leftmost(mRoot);
+                mExpectedModCount = modCount;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public T next() {
+            synchronized (IndexedQueue.this) {
+                if (modCount != mExpectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (mNext == null) {
+                    throw new NoSuchElementException();
+                }
+                mLastReturned = mNext;
+                mNext = successor(mNext);
+                return mLastReturned.item;
+            }
+        }
+
+        @Override
+        public void remove() {
+            synchronized (IndexedQueue.this) {
+                if (mLastReturned == null) {
+                    throw new IllegalStateException();
+                }
+                if (modCount != mExpectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                // mNext was found before the tree is restructured, and stays valid as a node
+                IndexedQueue.this.remove(indexOfNode(mLastReturned));
+                mLastReturned = null;
+                mExpectedModCount = modCount;
+            }
+        }
+    }
+}
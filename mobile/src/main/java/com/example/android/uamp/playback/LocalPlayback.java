@@ -20,9 +20,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
-import android.net.Uri;
 import android.net.wifi.WifiManager;
-import android.support.v4.media.MediaMetadataCompat;
+import android.os.SystemClock;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.TextUtils;
 
@@ -39,16 +38,10 @@ import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
-import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
-import com.google.android.exoplayer2.extractor.ExtractorsFactory;
-import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
-import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.google.android.exoplayer2.util.Util;
 
 import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
 
@@ -77,7 +70,7 @@ public final class LocalPlayback implements Playback {
     private final WifiManager.WifiLock mWifiLock;
     private boolean mPlayOnFocusGain;
     private Callback mCallback;
-    private final MusicProvider mMusicProvider;
+    private final TrackMediaSourceFactory mMediaSourceFactory;
     private boolean mAudioNoisyReceiverRegistered;
     private String mCurrentMediaId;
 
@@ -85,6 +78,10 @@ public final class LocalPlayback implements Playback {
     private final AudioManager mAudioManager;
     private SimpleExoPlayer mExoPlayer;
     private final ExoPlayerEventListener mEventListener = new ExoPlayerEventListener();
+    private final BufferProfile mBufferProfile;
+    private DefaultLoadControl mLoadControl;
+    // When mExoPlayer was last prepared, until it is ready to play
+    private long mPrepareTimeMs;
 
     // Whether to return STATE_NONE or STATE_STOPPED when mExoPlayer is null;
     private boolean mExoPlayerNullIsStopped =  false;
@@ -111,10 +108,12 @@ public final class LocalPlayback implements Playback {
     public LocalPlayback(Context context, MusicProvider musicProvider) {
         Context applicationContext = context.getApplicationContext();
         this.mContext = applicationContext;
-        this.mMusicProvider = musicProvider;
+        this.mMediaSourceFactory = new TrackMediaSourceFactory(
+                applicationContext, musicProvider, MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE);
 
         this.mAudioManager =
                 (AudioManager) applicationContext.getSystemService(Context.AUDIO_SERVICE);
+        this.mBufferProfile = BufferProfile.forSource(applicationContext, false);
         // Create the Wifi lock (this does not acquire the lock, this just creates it)
         this.mWifiLock =
                 ((WifiManager) applicationContext.getSystemService(Context.WIFI_SERVICE))
@@ -194,38 +193,38 @@ public final class LocalPlayback implements Playback {
 
         if (mediaHasChanged || mExoPlayer == null) {
             releaseResources(false); // release everything except the player
-            String mediaID = item.getDescription().getMediaId();
-            LogHelper.i(TAG, "play mediaId=", mediaID);
-            MediaMetadataCompat track = mMusicProvider.getMusic(mediaID);
-                    /*mMusicProvider.getMusic(MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId())); no hierarchy*/
-
-            String source = track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE);
-            if (source != null) {
-                source = source.replaceAll(" ", "%20"); // Escape spaces for URLs
-            }
+            LogHelper.i(TAG, "play mediaId=", mediaId);
 
             if (mExoPlayer == null) {
+                LogHelper.i(TAG, "Creating player with ", mBufferProfile, " buffers");
+                mLoadControl = mBufferProfile.createLoadControl();
                 mExoPlayer =
                         ExoPlayerFactory.newSimpleInstance(
-                                mContext, new DefaultTrackSelector(), new DefaultLoadControl());
+                                mContext, new DefaultTrackSelector(), mLoadControl);
                 mExoPlayer.addListener(mEventListener);
             }
 
             mExoPlayer.setAudioStreamType(C.STREAM_TYPE_MUSIC/*was AudioManager.STREAM_MUSIC*/);
 
-            // Produces DataSource instances through which media data is loaded.
-            DataSource.Factory dataSourceFactory =
-                    new DefaultDataSourceFactory(
-                            mContext, Util.getUserAgent(mContext, "uamp"), null);
-            // Produces Extractor instances for parsing the media data.
-            ExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
             // The MediaSource represents the media to be played.
-            MediaSource mediaSource =
-                    new ExtractorMediaSource(
-                            Uri.parse(source), dataSourceFactory, extractorsFactory, null, null);
+            MediaSource mediaSource = mMediaSourceFactory.createMediaSource(mediaId);
+            if (mediaSource == null) {
+                LogHelper.e(TAG, "play: no media for ", mediaId);
+                // Nothing is playing, so forget the track (letting a later play() of it try
+                // again) and let go of what play() took
+                mCurrentMediaId = null;
+                mPlayOnFocusGain = false;
+                giveUpAudioFocus();
+                unregisterAudioNoisyReceiver();
+                if (mCallback != null) {
+                    mCallback.onError("Track not found");
+                }
+                return;
+            }
 
             // Prepares media to play (happens on background thread) and triggers
             // {@code onPlayerStateChanged} callback when the stream is ready to play.
+            mPrepareTimeMs = SystemClock.elapsedRealtime();
             mExoPlayer.prepare(mediaSource);
 
             // If we are streaming from the internet, we want to hold a
@@ -272,6 +271,11 @@ public final class LocalPlayback implements Playback {
         return mCurrentMediaId;
     }
 
+    @Override
+    public void setNextQueueItem(QueueItem item) {
+        // Nothing to do. Each item is loaded when it is played.
+    }
+
     private void tryToGetAudioFocus() {
         LogHelper.d(TAG, "tryToGetAudioFocus");
         int result =
@@ -370,6 +374,7 @@ public final class LocalPlayback implements Playback {
             mExoPlayer.release();
             mExoPlayer.removeListener(mEventListener);
             mExoPlayer = null;
+            mLoadControl = null;
             mExoPlayerNullIsStopped = true;
             mPlayOnFocusGain = false;
         }
@@ -446,6 +451,13 @@ public final class LocalPlayback implements Playback {
 
         @Override
         public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            if (playbackState == ExoPlayer.STATE_READY && mPrepareTimeMs != 0) {
+                // How the buffer profile performs: time to start and memory held
+                LogHelper.i(TAG, mBufferProfile, " buffers: ready ",
+                        SystemClock.elapsedRealtime() - mPrepareTimeMs, "ms after prepare, ",
+                        mLoadControl.getAllocator().getTotalBytesAllocated() / 1024, "KB allocated");
+                mPrepareTimeMs = 0;
+            }
             LogHelper.i(TAG, "onPlayerStateChanged:playbackState=", playbackState);
             switch (playbackState) {
                 case ExoPlayer.STATE_IDLE:
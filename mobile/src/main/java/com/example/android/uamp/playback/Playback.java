@@ -80,6 +80,14 @@ public interface Playback {
 
     String getCurrentMediaId();
 
+    /**
+     * Tells the playback which item should follow the current one, so that implementations
+     * that can will have it loaded before the current one ends. The item is still started by
+     * calling play() once the current one has completed.
+     * @param item the next item, or null if nothing follows
+     */
+    void setNextQueueItem(QueueItem item);
+
     interface Callback {
         /**
          * On current music completed.
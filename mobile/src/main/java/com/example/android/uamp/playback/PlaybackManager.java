@@ -17,11 +17,14 @@
 package com.example.android.uamp.playback;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.ResultReceiver;
 import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.support.annotation.NonNull;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.session.MediaSessionCompat;
@@ -52,6 +55,12 @@ public class PlaybackManager implements Playback.Callback {
 
     public static final String COMMAND_REORDER_SONG_IN_QUEUE_BY_POSITION= "uk.me.asbridge.uamp.COMMAND_REORDER_SONG_IN_QUEUE_BY_POSITION";
 
+    // Replies with the percentiles of the PlaybackTrace metrics, see getPlaybackTrace
+    public static final String COMMAND_GET_PLAYBACK_TRACE= "uk.me.asbridge.uamp.COMMAND_GET_PLAYBACK_TRACE";
+
+    // Replies with the whole play queue and its sequence, see QueueDeltaBundle
+    public static final String COMMAND_GET_QUEUE_SNAPSHOT= "uk.me.asbridge.uamp.COMMAND_GET_QUEUE_SNAPSHOT";
+
     public static final String COMMAND_EXTRA_PARAMETER = "uk.me.asbridge.uamp.COMMAND_EXTRA_PARAMETER";
     public static final String COMMAND_PARAMETER_POSITION_FROM = "uk.me.asbridge.uamp.COMMAND_PARAMETER_POSITION_FROM";
     public static final String COMMAND_PARAMETER_POSITION_TO = "uk.me.asbridge.uamp.COMMAND_PARAMETER_POSITION_TO";
@@ -64,6 +73,22 @@ public class PlaybackManager implements Playback.Callback {
     private MediaSessionCallback mMediaSessionCallback;
     private Context mContext;
 
+    // Where the track that was playing when the service last stopped got to
+    private String mResumeMediaId;
+    private long mResumePosition;
+
+    // Setting or clearing the sleep timer changes whether the next track may be preloaded.
+    // Held here because SharedPreferences only keeps a weak reference to its listeners.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mSleepTimerListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPref, String key) {
+                    if (Settings.PREF_TIME_TO_GO_TO_SLEEP.equals(key)) {
+                        updateNextQueueItem();
+                    }
+                }
+            };
+
     public PlaybackManager(PlaybackServiceCallback serviceCallback, Resources resources,
                            MusicProvider musicProvider, QueueManager queueManager,
                            Playback playback, Context context) {
@@ -75,6 +100,18 @@ public class PlaybackManager implements Playback.Callback {
         mPlayback = playback;
         mPlayback.setCallback(this);
         mContext = context;
+        mResumeMediaId = Settings.getNowPlayingMediaId(context);
+        mResumePosition = Settings.getNowPlayingPosition(context);
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(mSleepTimerListener);
+    }
+
+    /**
+     * Stops following the sleep timer. Call when the manager is no longer used.
+     */
+    public void release() {
+        PreferenceManager.getDefaultSharedPreferences(mContext)
+                .unregisterOnSharedPreferenceChangeListener(mSleepTimerListener);
     }
 
     public Playback getPlayback() {
@@ -93,7 +130,24 @@ public class PlaybackManager implements Playback.Callback {
         MediaSessionCompat.QueueItem currentMusic = mQueueManager.getCurrentMusic();
         if (currentMusic != null) {
             mServiceCallback.onPlaybackStart();
+            String mediaId = currentMusic.getDescription().getMediaId();
+            boolean mediaHasChanged = !TextUtils.equals(mediaId, mPlayback.getCurrentMediaId());
+            if (mediaHasChanged) {
+                PlaybackTrace.getInstance().start(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+            }
             mPlayback.play(currentMusic);
+            if (mediaHasChanged) {
+                long position = 0;
+                if (mResumeMediaId != null) {
+                    // Only the first track played can pick up where the last session left off
+                    if (mediaId.equals(mResumeMediaId) && mResumePosition > 0) {
+                        position = mResumePosition;
+                        mPlayback.seekTo(position);
+                    }
+                    mResumeMediaId = null;
+                }
+                Settings.setNowPlaying(mContext, mediaId, position);
+            }
         }
     }
 
@@ -103,6 +157,8 @@ public class PlaybackManager implements Playback.Callback {
     public void handlePauseRequest() {
         LogHelper.d(TAG, "handlePauseRequest: mState=" + mPlayback.getState());
         if (mPlayback.isPlaying()) {
+            cancelTraces();
+            saveNowPlayingPosition();
             mPlayback.pause();
             mServiceCallback.onPlaybackStop();
         }
@@ -117,12 +173,41 @@ public class PlaybackManager implements Playback.Callback {
      */
     public void handleStopRequest(String withError) {
         LogHelper.d(TAG, "handleStopRequest: mState=" + mPlayback.getState() + " error=", withError);
+        cancelTraces();
+        saveNowPlayingPosition();
         mPlayback.stop(true);
         mServiceCallback.onPlaybackStop();
         updatePlaybackState(withError);
     }
 
 
+    private void cancelTraces() {
+        // the track isn't going to start
+        PlaybackTrace.getInstance().cancel(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        PlaybackTrace.getInstance().cancel(PlaybackTrace.SKIP_LATENCY);
+    }
+
+    /**
+     * Tells the playback which track is at the head of the queue, so it can have it loaded
+     * before the current one ends. Called whenever the queue or the sleep timer changes.
+     */
+    public void updateNextQueueItem() {
+        MediaSessionCompat.QueueItem next = null;
+        // With a sleep timer set the current track may be the last one, so don't start the next
+        if (Settings.getTimeToGoToSleep(mContext) == 0) {
+            next = mQueueManager.getNextMusic();
+        }
+        mPlayback.setNextQueueItem(next);
+    }
+
+    private void saveNowPlayingPosition() {
+        MediaSessionCompat.QueueItem currentMusic = mQueueManager.getCurrentMusic();
+        if (currentMusic != null && mPlayback.isConnected()) {
+            Settings.setNowPlaying(mContext, currentMusic.getDescription().getMediaId(),
+                    mPlayback.getCurrentStreamPosition());
+        }
+    }
+
     /**
      * Update the current media player state, optionally showing an error message.
      *
@@ -211,6 +296,10 @@ public class PlaybackManager implements Playback.Callback {
     @Override
     public void onCompletion() {
         LogHelper.i(TAG, "onCompletion");
+        MediaSessionCompat.QueueItem completed = mQueueManager.getCurrentMusic();
+        if (completed != null) {
+            mServiceCallback.onTrackCompleted(completed.getDescription().getMediaId());
+        }
         // The media player finished playing the current song, so we go ahead
         // and start the next. Use our new call 'go to next song' instead of skip(1)
         if (mQueueManager.goToNextSong()) {
@@ -285,6 +374,7 @@ public class PlaybackManager implements Playback.Callback {
             default:
                 LogHelper.d(TAG, "Default called. Old state is ", oldState);
         }
+        updateNextQueueItem();
     }
 
 
@@ -349,6 +439,11 @@ public class PlaybackManager implements Playback.Callback {
         @Override
         public void onSkipToNext() {
             LogHelper.i(TAG, "onSkipToNext");
+            PlaybackTrace.getInstance().start(PlaybackTrace.SKIP_LATENCY);
+            MediaSessionCompat.QueueItem skipped = mQueueManager.getCurrentMusic();
+            if (skipped != null) {
+                mServiceCallback.onTrackSkipped(skipped.getDescription().getMediaId());
+            }
             // Use our new call go to next song, not 'skip position (1)
             if (mQueueManager.goToNextSong() /* .skipQueuePosition(1)*/ ) {
                 handlePlayRequest();
@@ -461,10 +556,37 @@ public class PlaybackManager implements Playback.Callback {
                     int finalToPosition = extras.getInt(COMMAND_PARAMETER_POSITION_TO);
                     mQueueManager.reorderQueuebyPositions(originalFromPosition, finalToPosition);
                     break;
+                case COMMAND_GET_PLAYBACK_TRACE:
+                    if (cb != null) {
+                        cb.send(0, getPlaybackTrace());
+                    }
+                    break;
+                case COMMAND_GET_QUEUE_SNAPSHOT:
+                    if (cb != null) {
+                        cb.send(0, mQueueManager.getQueueSnapshot());
+                    }
+                    break;
             }
         }
     }
 
+    /**
+     * @return for each PlaybackTrace metric, keyed by its name, a long array of the number of
+     * durations kept followed by their p50, p90, p99 and max in nanoseconds
+     */
+    private static Bundle getPlaybackTrace() {
+        PlaybackTrace trace = PlaybackTrace.getInstance();
+        Bundle bundle = new Bundle();
+        for (int metric = 0; metric < PlaybackTrace.METRIC_COUNT; metric++) {
+            long[] percentiles = trace.getPercentiles(metric, 50, 90, 99, 100);
+            long[] values = new long[1 + percentiles.length];
+            values[0] = trace.getSampleCount(metric);
+            System.arraycopy(percentiles, 0, values, 1, percentiles.length);
+            bundle.putLongArray(PlaybackTrace.getMetricName(metric), values);
+        }
+        return bundle;
+    }
+
     private boolean timeToGoToSleep() {
 
         long timeToGoToSleep = Settings.getTimeToGoToSleep(mContext);
@@ -493,5 +615,15 @@ public class PlaybackManager implements Playback.Callback {
         void onPlaybackStop();
 
         void onPlaybackStateUpdated(PlaybackStateCompat newState);
+
+        /**
+         * The track was played to the end
+         */
+        void onTrackCompleted(String mediaId);
+
+        /**
+         * The user skipped to the next track before the track ended
+         */
+        void onTrackSkipped(String mediaId);
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.playback;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings of the steps between asking for a track and hearing it, so that slow starts can be
+ * measured on real libraries.
+ *
+ * Each metric keeps its last SAMPLE_COUNT durations in a ring buffer that is written without
+ * locking, so recording is cheap enough to leave on. Timestamps come from System.nanoTime(),
+ * which is monotonic. A metric is either timed across calls with start() and end() (only one
+ * measurement of it can be in progress: start() again restarts it) or recorded directly.
+ *
+ * The percentiles are available through PlaybackManager.COMMAND_GET_PLAYBACK_TRACE and in the
+ * service's dumpsys output.
+ */
+public class PlaybackTrace {
+
+    /** From a play request to the player being ready with audio */
+    public static final int TIME_TO_FIRST_AUDIO = 0;
+    /** From a skip to the next track to the player being ready with it */
+    public static final int SKIP_LATENCY = 1;
+    /** Topping the queue up with random tracks */
+    public static final int QUEUE_FILL = 2;
+    /** Looking the track up and building its MediaSource */
+    public static final int RESOLVE_TRACK = 3;
+    /** From ExoPlayer.prepare to STATE_READY */
+    public static final int PREPARE_TO_READY = 4;
+    /** Requesting audio focus */
+    public static final int AUDIO_FOCUS = 5;
+
+    private static final String[] METRIC_NAMES = {
+            "time_to_first_audio",
+            "skip_latency",
+            "queue_fill",
+            "resolve_track",
+            "prepare_to_ready",
+            "audio_focus",
+    };
+
+    public static final int METRIC_COUNT = METRIC_NAMES.length;
+
+    // a power of two, so the write position wraps with a mask
+    static final int SAMPLE_COUNT = 128;
+
+    private static final PlaybackTrace sInstance = new PlaybackTrace();
+
+    private final AtomicLongArray[] mSamples = new AtomicLongArray[METRIC_COUNT];
+    private final AtomicInteger[] mWriteCounts = new AtomicInteger[METRIC_COUNT];
+    // start time of the measurement in progress for each metric, 0 for none
+    private final AtomicLongArray mStartTimes = new AtomicLongArray(METRIC_COUNT);
+
+    public static PlaybackTrace getInstance() {
+        return sInstance;
+    }
+
+    PlaybackTrace() {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mSamples[i] = new AtomicLongArray(SAMPLE_COUNT);
+            mWriteCounts[i] = new AtomicInteger();
+        }
+    }
+
+    public static String getMetricName(int metric) {
+        return METRIC_NAMES[metric];
+    }
+
+    /**
+     * @return a timestamp to pass to recordSince
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    public void start(int metric) {
+        mStartTimes.set(metric, now());
+    }
+
+    /**
+     * Records the time since start(metric), if a measurement is in progress
+     */
+    public void end(int metric) {
+        long startTime = mStartTimes.getAndSet(metric, 0);
+        if (startTime != 0) {
+            record(metric, now() - startTime);
+        }
+    }
+
+    /**
+     * Drops the measurement in progress, for when what was being timed won't happen
+     */
+    public void cancel(int metric) {
+        mStartTimes.set(metric, 0);
+    }
+
+    public void recordSince(int metric, long startTime) {
+        record(metric, now() - startTime);
+    }
+
+    public void record(int metric, long durationNs) {
+        int position = mWriteCounts[metric].getAndIncrement() & (SAMPLE_COUNT - 1);
+        mSamples[metric].set(position, durationNs);
+    }
+
+    /**
+     * @return how many durations of this metric are kept (at most SAMPLE_COUNT)
+     */
+    public int getSampleCount(int metric) {
+        return Math.min(mWriteCounts[metric].get(), SAMPLE_COUNT);
+    }
+
+    /**
+     * @param percentiles between 0 and 100
+     * @return the duration in nanoseconds at each percentile (nearest rank) of the kept
+     * durations, or an empty array if there are none
+     */
+    public long[] getPercentiles(int metric, double... percentiles) {
+        int count = getSampleCount(metric);
+        if (count == 0) {
+            return new long[0];
+        }
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = mSamples[metric].get(i);
+        }
+        Arrays.sort(sorted);
+        long[] values = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(percentiles[i] / 100 * count);
+            values[i] = sorted[Math.max(0, Math.min(count, rank) - 1)];
+        }
+        return values;
+    }
+
+    /**
+     * @return a line per metric with its sample count and p50, p90, p99 and max in milliseconds
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            sb.append(METRIC_NAMES[metric]).append(": n=").append(getSampleCount(metric));
+            long[] values = getPercentiles(metric, 50, 90, 99, 100);
+            if (values.length > 0) {
+                sb.append(" p50=").append(toMillis(values[0]))
+                        .append(" p90=").append(toMillis(values[1]))
+                        .append(" p99=").append(toMillis(values[2]))
+                        .append(" max=").append(toMillis(values[3]));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String toMillis(long durationNs) {
+        return String.format(Locale.US, "%.1fms", durationNs / 1e6);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.playback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The edits that took the play queue from one version to the next: items inserted at a
+ * position, removed from a position or moved, in the order they were made. Each version of the
+ * queue has a sequence number, and a delta goes from version getBaseSequence() to
+ * getSequence(), so a client that applies every delta in turn keeps an exact copy of the queue,
+ * and one that sees a delta whose base isn't the version it holds knows it missed one.
+ *
+ * Deltas are made by a {@link Recorder}, which the queue's owner tells about every edit.
+ */
+public class QueueDelta<T> {
+
+    public static final int INSERT = 0;
+    public static final int REMOVE = 1;
+    public static final int MOVE = 2;
+
+    /**
+     * Told about each edit as a delta is applied, e.g. to animate it in a list
+     */
+    public interface Listener {
+        void onInserted(int index, int count);
+        void onRemoved(int index, int count);
+        void onMoved(int from, int to);
+    }
+
+    /**
+     * One edit. For INSERT, items are inserted at index; for REMOVE, count items are removed from
+     * index; for MOVE, the item at index is moved to toIndex (its position once moved).
+     */
+    public static final class Op<T> {
+        public final int type;
+        public final int index;
+        public final int toIndex;
+        public final int count;
+        public final List<T> items;
+
+        public Op(int type, int index, int toIndex, int count, List<T> items) {
+            this.type = type;
+            this.index = index;
+            this.toIndex = toIndex;
+            this.count = count;
+            this.items = items;
+        }
+    }
+
+    private final long mBaseSequence;
+    private final long mSequence;
+    private final List<Op<T>> mOps;
+
+    public QueueDelta(long baseSequence, long sequence, List<Op<T>> ops) {
+        mBaseSequence = baseSequence;
+        mSequence = sequence;
+        mOps = ops;
+    }
+
+    /**
+     * @return the version of the queue the delta applies to
+     */
+    public long getBaseSequence() {
+        return mBaseSequence;
+    }
+
+    /**
+     * @return the version of the queue once the delta has been applied
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public List<Op<T>> getOps() {
+        return mOps;
+    }
+
+    public boolean isEmpty() {
+        return mOps.isEmpty();
+    }
+
+    /**
+     * Makes the edits to list, which must hold the version getBaseSequence() of the queue
+     * @param listener told about each edit once it has been made, or null
+     */
+    public void applyTo(List<T> list, Listener listener) {
+        for (Op<T> op : mOps) {
+            switch (op.type) {
+                case INSERT:
+                    list.addAll(op.index, op.items);
+                    if (listener != null) {
+                        listener.onInserted(op.index, op.items.size());
+                    }
+                    break;
+                case REMOVE:
+                    list.subList(op.index, op.index + op.count).clear();
+                    if (listener != null) {
+                        listener.onRemoved(op.index, op.count);
+                    }
+                    break;
+                case MOVE:
+                    list.add(op.toIndex, list.remove(op.index));
+                    if (listener != null) {
+                        listener.onMoved(op.index, op.toIndex);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown op " + op.type);
+            }
+        }
+    }
+
+    /**
+     * Collects the edits made to a queue until they are taken as a delta. Not thread safe.
+     */
+    public static class Recorder<T> {
+        private long mSequence;
+        private List<Op<T>> mOps = new ArrayList<>();
+
+        /**
+         * @return the version of the queue as of the last {@link #take()}
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        public void inserted(int index, List<T> items) {
+            if (!items.isEmpty()) {
+                mOps.add(new Op<>(INSERT, index, index, items.size(),
+                        Collections.unmodifiableList(new ArrayList<>(items))));
+            }
+        }
+
+        public void removed(int index, int count) {
+            if (count > 0) {
+                mOps.add(new Op<T>(REMOVE, index, index, count, null));
+            }
+        }
+
+        public void moved(int from, int to) {
+            if (from != to) {
+                mOps.add(new Op<T>(MOVE, from, to, 1, null));
+            }
+        }
+
+        /**
+         * @return the edits recorded since the last call, as a delta to the next version of the
+         * queue, or null if nothing has changed
+         */
+        public QueueDelta<T> take() {
+            if (mOps.isEmpty()) {
+                return null;
+            }
+            QueueDelta<T> delta = new QueueDelta<>(mSequence, mSequence + 1, mOps);
+            mSequence++;
+            mOps = new ArrayList<>();
+            return delta;
+        }
+    }
+}
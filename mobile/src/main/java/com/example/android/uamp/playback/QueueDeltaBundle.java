@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.playback;
+
+import android.os.Bundle;
+import android.support.v4.media.session.MediaSessionCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts play queue deltas and snapshots in Bundles, to go between the service and its clients.
+ *
+ * The service sends each delta as an EVENT_QUEUE_DELTA session event. A client that has missed
+ * one (or has only just connected) asks for the whole queue with
+ * PlaybackManager.COMMAND_GET_QUEUE_SNAPSHOT, and carries on from the snapshot's sequence.
+ */
+public class QueueDeltaBundle {
+
+    public static final String EVENT_QUEUE_DELTA = "uk.me.asbridge.uamp.EVENT_QUEUE_DELTA";
+
+    private static final String KEY_BASE_SEQUENCE = "uk.me.asbridge.uamp.QUEUE_BASE_SEQUENCE";
+    private static final String KEY_SEQUENCE = "uk.me.asbridge.uamp.QUEUE_SEQUENCE";
+    private static final String KEY_OP_TYPES = "uk.me.asbridge.uamp.QUEUE_OP_TYPES";
+    private static final String KEY_OP_INDEXES = "uk.me.asbridge.uamp.QUEUE_OP_INDEXES";
+    private static final String KEY_OP_TO_INDEXES = "uk.me.asbridge.uamp.QUEUE_OP_TO_INDEXES";
+    private static final String KEY_OP_COUNTS = "uk.me.asbridge.uamp.QUEUE_OP_COUNTS";
+    // The inserted items of all the ops, one after the other
+    private static final String KEY_ITEMS = "uk.me.asbridge.uamp.QUEUE_ITEMS";
+
+    public static Bundle toBundle(QueueDelta<MediaSessionCompat.QueueItem> delta) {
+        List<QueueDelta.Op<MediaSessionCompat.QueueItem>> ops = delta.getOps();
+        int[] types = new int[ops.size()];
+        int[] indexes = new int[ops.size()];
+        int[] toIndexes = new int[ops.size()];
+        int[] counts = new int[ops.size()];
+        ArrayList<MediaSessionCompat.QueueItem> items = new ArrayList<>();
+        for (int i = 0; i < ops.size(); i++) {
+            QueueDelta.Op<MediaSessionCompat.QueueItem> op = ops.get(i);
+            types[i] = op.type;
+            indexes[i] = op.index;
+            toIndexes[i] = op.toIndex;
+            counts[i] = op.count;
+            if (op.items != null) {
+                items.addAll(op.items);
+            }
+        }
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_BASE_SEQUENCE, delta.getBaseSequence());
+        bundle.putLong(KEY_SEQUENCE, delta.getSequence());
+        bundle.putIntArray(KEY_OP_TYPES, types);
+        bundle.putIntArray(KEY_OP_INDEXES, indexes);
+        bundle.putIntArray(KEY_OP_TO_INDEXES, toIndexes);
+        bundle.putIntArray(KEY_OP_COUNTS, counts);
+        bundle.putParcelableArrayList(KEY_ITEMS, items);
+        return bundle;
+    }
+
+    /**
+     * @return the delta in bundle, or null if it isn't one
+     */
+    public static QueueDelta<MediaSessionCompat.QueueItem> fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+        bundle.setClassLoader(MediaSessionCompat.QueueItem.class.getClassLoader());
+        int[] types = bundle.getIntArray(KEY_OP_TYPES);
+        int[] indexes = bundle.getIntArray(KEY_OP_INDEXES);
+        int[] toIndexes = bundle.getIntArray(KEY_OP_TO_INDEXES);
+        int[] counts = bundle.getIntArray(KEY_OP_COUNTS);
+        ArrayList<MediaSessionCompat.QueueItem> items = bundle.getParcelableArrayList(KEY_ITEMS);
+        if (types == null || indexes == null || toIndexes == null || counts == null
+                || items == null) {
+            return null;
+        }
+        List<QueueDelta.Op<MediaSessionCompat.QueueItem>> ops = new ArrayList<>(types.length);
+        int nextItem = 0;
+        for (int i = 0; i < types.length; i++) {
+            List<MediaSessionCompat.QueueItem> opItems = null;
+            if (types[i] == QueueDelta.INSERT) {
+                opItems = items.subList(nextItem, nextItem + counts[i]);
+                nextItem += counts[i];
+            }
+            ops.add(new QueueDelta.Op<>(types[i], indexes[i], toIndexes[i], counts[i], opItems));
+        }
+        return new QueueDelta<>(bundle.getLong(KEY_BASE_SEQUENCE),
+                bundle.getLong(KEY_SEQUENCE), ops);
+    }
+
+    /**
+     * @param sequence the version of the queue
+     */
+    public static Bundle snapshotToBundle(long sequence, List<MediaSessionCompat.QueueItem> queue) {
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_SEQUENCE, sequence);
+        bundle.putParcelableArrayList(KEY_ITEMS, new ArrayList<>(queue));
+        return bundle;
+    }
+
+    /**
+     * @return the version of the queue in a snapshot
+     */
+    public static long getSnapshotSequence(Bundle snapshot) {
+        return snapshot.getLong(KEY_SEQUENCE, -1);
+    }
+
+    /**
+     * @return the queue in a snapshot, or null if it isn't one
+     */
+    public static ArrayList<MediaSessionCompat.QueueItem> getSnapshotQueue(Bundle snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+        snapshot.setClassLoader(MediaSessionCompat.QueueItem.class.getClassLoader());
+        return snapshot.getParcelableArrayList(KEY_ITEMS);
+    }
+}
@@ -19,6 +19,7 @@ package com.example.android.uamp.playback;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.media.MediaDescriptionCompat;
@@ -44,15 +45,26 @@ import java.util.*;
 public class QueueManager {
     private static final String TAG = LogHelper.makeLogTag(QueueManager.class);
 
+    private static final IndexedQueue.KeyFunction<MediaSessionCompat.QueueItem> QUEUE_ID =
+            new IndexedQueue.KeyFunction<MediaSessionCompat.QueueItem>() {
+                @Override
+                public long keyOf(MediaSessionCompat.QueueItem item) {
+                    return item.getQueueId();
+                }
+            };
+
     private MusicProvider mMusicProvider;
     private MetadataUpdateListener mListener;
     private Resources mResources;
     private Context mContext;
 
     private QueuedSongRepository mQueuedSongRepository;
+    // The restore in progress, if any
+    private RestoreQueueTask mRestoreTask;
 
     // "Now playing" queue:
-    private List<MediaSessionCompat.QueueItem> mPlayingQueue;
+    // Indexed by queueId, so items can be found, moved and removed without scanning the queue
+    private final IndexedQueue<MediaSessionCompat.QueueItem> mPlayingQueue;
 
     // get rid of the current index and add a now playing track
     // In our implementation the track being played isn't part of the queue
@@ -61,6 +73,14 @@ public class QueueManager {
     // private int mCurrentIndex;
     private MediaSessionCompat.QueueItem mNowPlaying;
 
+    // The queueorder stored in the database for mPlayingQueue.get(i) is mQueueOrderBase + i
+    // so taking the head of the queue or adding to the front doesn't renumber every row
+    private int mQueueOrderBase;
+
+    // The edits to mPlayingQueue that haven't been published yet
+    private final QueueDelta.Recorder<MediaSessionCompat.QueueItem> mQueueChanges =
+            new QueueDelta.Recorder<>();
+    private String mQueueTitle = "AlbumTitle";
 
 
     public QueueManager(@NonNull MusicProvider musicProvider,
@@ -72,7 +92,7 @@ public class QueueManager {
         this.mResources = resources;
         this.mContext = context;
 
-        mPlayingQueue = Collections.synchronizedList(new ArrayList<MediaSessionCompat.QueueItem>());
+        mPlayingQueue = new IndexedQueue<>(QUEUE_ID);
         mQueuedSongRepository = new QueuedSongRepository(context);
         // the current index is replaced by now playing in this implementation
         // mCurrentIndex = 0;
@@ -101,7 +121,7 @@ public class QueueManager {
     // example implementation just set the current index
     private void setCurrentQueueIndex(int index) {
         if (index >= 0 && index < mPlayingQueue.size()) {
-            mNowPlaying = mPlayingQueue.remove(index);
+            mNowPlaying = removeQueueItemAt(index);
             // mCurrentIndex = index;
 
             // I've replaced onCurrentQueueIndexChanged with the following:
@@ -116,7 +136,7 @@ public class QueueManager {
     // No change to the code as we are using the refactored setCurrentQueueIndex()
     public boolean setCurrentQueueItem(long queueId) {
         // set the current index on queue from the queue Id:
-        int index = QueueHelper.getMusicIndexOnQueue(mPlayingQueue, queueId);
+        int index = mPlayingQueue.indexOfKey(queueId);
         setCurrentQueueIndex(index);
         return index >= 0;
     }
@@ -140,7 +160,7 @@ public class QueueManager {
         LogHelper.i(TAG, "goToNextSong queue size=", mPlayingQueue.size());
         if (mPlayingQueue.size() > 0) {
             // get the next track as the first in the queue and set it to now playing
-            mNowPlaying = mPlayingQueue.remove(0);
+            mNowPlaying = removeQueueItemAt(0);
 
             // TEMP
             // Add another item into the queue
@@ -180,7 +200,7 @@ public class QueueManager {
         // strange that in the example we just update the index.
         // there is no call(back) to any listener
         // so we just do the same (remove from queue and update now playing)
-        mNowPlaying = mPlayingQueue.remove(index);
+        mNowPlaying = removeQueueItemAt(index);
         // mCurrentIndex = index;
         return true;
     }
@@ -191,7 +211,7 @@ public class QueueManager {
                 QueueHelper.getPlayingQueueFromSearch(query, extras, mMusicProvider);
         String title =  mResources.getString(R.string.search_queue_title);
         setCurrentQueue(title, queue);
-        mListener.onQueueUpdated(title, mPlayingQueue);
+        publishQueue(title);
         updateMetadata();
         return queue != null && !queue.isEmpty();
     }
@@ -203,23 +223,111 @@ public class QueueManager {
         LogHelper.i(TAG, "fillRandomQueue, current size = ", mPlayingQueue.size());
         if (currentQueueSize < Settings.getPlayQueueSize(mContext))
         {
+            long fillStart = PlaybackTrace.now();
             List<MediaSessionCompat.QueueItem> newTracks =  QueueHelper.getRandomQueue(mMusicProvider, Settings.getPlayQueueSize(mContext) - currentQueueSize);
 
             // Add the new songs (we do this in loop below)
             // mPlayingQueue.addAll(newTracks);
 
             LogHelper.i(TAG, "ADDING ", newTracks.size(), " NEW SONGS TO DB");
-            for (MediaSessionCompat.QueueItem item: newTracks) {
-                mPlayingQueue.add(item);
-                int order = mPlayingQueue.size();
-                QueuedSong qs= new QueuedSong(0, order, 0, item.getDescription().getMediaId());
-                LogHelper.i(TAG, "ADDING SONG TO DB, order = ", order, " desc= ", item.getDescription().getMediaId());
-                mQueuedSongRepository.insertQueuedSong(qs);
+            mPlayingQueue.addAll(newTracks);
+            mQueueChanges.inserted(currentQueueSize, newTracks);
+            saveQueueItems(currentQueueSize, currentQueueSize + newTracks.size());
+            PlaybackTrace.getInstance().recordSince(PlaybackTrace.QUEUE_FILL, fillStart);
+
+        }
+
+        publishQueue("AlbumTitle");
+    }
+
+    /**
+     * Loads the queue (and the track that was playing) saved by the previous run of the service.
+     * The stored rows are read in one query and their metadata comes from the in-memory catalog,
+     * both on a background thread; the restored queue is then published from the main thread.
+     * If the queue was changed in the meantime that change wins and the stored queue is dropped.
+     * Falls back to a random queue when nothing was stored.
+     */
+    public void restoreQueue() {
+        mRestoreTask = new RestoreQueueTask();
+        mRestoreTask.execute();
+    }
+
+    private class RestoreQueueTask extends AsyncTask<Void, Void, List<MediaSessionCompat.QueueItem>> {
+
+        private int mFirstQueueOrder;
+        private long mMaxQueueId = -1;
+        private MediaSessionCompat.QueueItem mRestoredNowPlaying;
+
+        @Override
+        protected List<MediaSessionCompat.QueueItem> doInBackground(Void... params) {
+            List<QueuedSong> songs = mQueuedSongRepository.loadQueuedSongs();
+            List<String> musicIds = new ArrayList<>(songs.size());
+            for (QueuedSong song : songs) {
+                musicIds.add(song.getDescription());
+            }
+            List<MediaMetadataCompat> tracks = mMusicProvider.getMusicBatch(musicIds);
+            List<MediaSessionCompat.QueueItem> queue = new ArrayList<>(songs.size());
+            for (int i = 0; i < songs.size(); i++) {
+                QueuedSong song = songs.get(i);
+                mMaxQueueId = Math.max(mMaxQueueId, song.getQueueId());
+                // tracks may have been deleted from the device since the queue was saved
+                MediaMetadataCompat track = tracks.get(i);
+                if (track != null) {
+                    if (queue.isEmpty()) {
+                        mFirstQueueOrder = song.getQueueorder();
+                    }
+                    queue.add(new MediaSessionCompat.QueueItem(track.getDescription(), song.getQueueId()));
+                }
+            }
+            if (queue.size() != songs.size()) {
+                // The missing rows will be dropped by a full rewrite
+                mFirstQueueOrder = Integer.MIN_VALUE;
             }
 
+            String nowPlayingMediaId = Settings.getNowPlayingMediaId(mContext);
+            if (nowPlayingMediaId != null) {
+                MediaMetadataCompat track = mMusicProvider.getMusic(nowPlayingMediaId);
+                if (track != null) {
+                    // the queueId is assigned once we're back on the main thread
+                    mRestoredNowPlaying = new MediaSessionCompat.QueueItem(track.getDescription(), 0);
+                }
+            }
+            return queue;
         }
 
-        mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+        @Override
+        protected void onPostExecute(List<MediaSessionCompat.QueueItem> queue) {
+            mRestoreTask = null;
+            LogHelper.i(TAG, "restoreQueue: restored ", queue.size(), " songs");
+            // queueIds must stay unique, so carry on numbering after the restored ones
+            QueueHelper.count = (int) Math.max(QueueHelper.count, mMaxQueueId + 1);
+
+            if (mNowPlaying != null || !mPlayingQueue.isEmpty()) {
+                // The queue has already been changed: keep that, and make it the stored queue
+                saveQueue();
+                return;
+            }
+
+            mPlayingQueue.addAll(queue);
+            mQueueChanges.inserted(0, queue);
+            markRecent(queue);
+            if (mFirstQueueOrder == Integer.MIN_VALUE) {
+                saveQueue();
+            } else {
+                mQueueOrderBase = mFirstQueueOrder;
+            }
+            if (mRestoredNowPlaying != null) {
+                mNowPlaying = new MediaSessionCompat.QueueItem(
+                        mRestoredNowPlaying.getDescription(), QueueHelper.count++);
+                mMusicProvider.markRecent(mNowPlaying.getDescription().getMediaId());
+            }
+
+            // top the queue up if it was short (or there was nothing stored)
+            fillRandomQueue();
+            if (mNowPlaying != null) {
+                updateMetadata();
+            }
+        }
     }
 
     public void setQueueFromMusic(String mediaId) {
@@ -263,6 +371,9 @@ public class QueueManager {
         Iterator<MediaSessionCompat.QueueItem> it = mPlayingQueue.iterator();
         // safe removal from list (don't use for)
         boolean hasChanged = false;
+        int index = 0;
+        int firstRemovedIndex = -1;
+        List<Long> removedQueueIds = new ArrayList<>();
         while (it.hasNext()) {
             MediaSessionCompat.QueueItem item = it.next();
             MediaDescriptionCompat itemDescription = item.getDescription();
@@ -272,12 +383,21 @@ public class QueueManager {
                 LogHelper.i(TAG, "found item");
                 hasChanged = true;
                 it.remove();
+                mQueueChanges.removed(index, 1);
+                removedQueueIds.add(item.getQueueId());
+                if (firstRemovedIndex < 0) {
+                    firstRemovedIndex = index;
+                }
+            } else {
+                index++;
             }
         }
         if (hasChanged) {
+            mQueuedSongRepository.removeQueuedSongs(removedQueueIds);
+            saveQueueOrder(firstRemovedIndex, mPlayingQueue.size());
             // if the new queue has less than N items then fill it randomly
             fillRandomQueue();
-            mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+            publishQueue("AlbumTitle");
         }
     }
 
@@ -288,57 +408,36 @@ public class QueueManager {
      */
     public void reorderQueuebyPositions(int originalFromPosition, int finalToPosition) {
         LogHelper.i(TAG, "reorderQueuebyPositions o=",originalFromPosition, " f=", finalToPosition);
-        mPlayingQueue.add(finalToPosition, mPlayingQueue.remove(originalFromPosition));
-        mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+        mPlayingQueue.move(originalFromPosition, finalToPosition);
+        mQueueChanges.moved(originalFromPosition, finalToPosition);
+        saveQueueOrder(Math.min(originalFromPosition, finalToPosition),
+                Math.max(originalFromPosition, finalToPosition) + 1);
+        publishQueue("AlbumTitle");
     }
 
     public void moveQueueItemToTopByQueueId(long queueId) {
         LogHelper.i(TAG, "moveQueueItemToTopByQueueId ", queueId);
-        Iterator<MediaSessionCompat.QueueItem> it = mPlayingQueue.iterator();
-        MediaSessionCompat.QueueItem item = null;
-        // safe removal from list (don't use for)
-        boolean hasChanged = false;
-        long itemQueueId;
-        while (hasChanged == false && it.hasNext()) {
-            item = it.next();
-            MediaDescriptionCompat itemDescription = item.getDescription();
-            itemQueueId = item.getQueueId();
-            LogHelper.i(TAG, "itemQueueId", itemQueueId);
-            if (itemQueueId == queueId) {
-                LogHelper.i(TAG, "found item");
-                hasChanged = true;
-                it.remove();
-            }
-        }
-        if (hasChanged) {
-            mPlayingQueue.add(0, item);
+        int index = mPlayingQueue.indexOfKey(queueId);
+        if (index >= 0) {
+            LogHelper.i(TAG, "found item");
+            mPlayingQueue.move(index, 0);
+            mQueueChanges.moved(index, 0);
+            saveQueueOrder(0, index + 1);
 
             // if the new queue has less than N items then fill it randomly
             fillRandomQueue();
-            mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+            publishQueue("AlbumTitle");
         }
     }
 
     public void removeQueueItemByQueueId(long queueId) {
-        Iterator<MediaSessionCompat.QueueItem> it = mPlayingQueue.iterator();
-        // safe removal from list (don't use for)
-        boolean hasChanged = false;
-        long itemQueueId;
-        while (hasChanged == false && it.hasNext()) {
-            MediaSessionCompat.QueueItem item = it.next();
-            MediaDescriptionCompat itemDescription = item.getDescription();
-            itemQueueId = item.getQueueId();
-            LogHelper.i(TAG, "itemQueueId", itemQueueId);
-            if (itemQueueId == queueId) {
-                LogHelper.i(TAG, "found item");
-                hasChanged = true;
-                it.remove();
-            }
-        }
-        if (hasChanged) {
+        int index = mPlayingQueue.indexOfKey(queueId);
+        if (index >= 0) {
+            LogHelper.i(TAG, "found item");
+            removeQueueItemAt(index);
             // if the new queue has less than N items then fill it randomly
             fillRandomQueue();
-            mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+            publishQueue("AlbumTitle");
         }
     }
     /**
@@ -352,7 +451,6 @@ public class QueueManager {
         tracks = mMusicProvider.getMusicsByAlbum(Long.toString(albumId));
 
         List<MediaSessionCompat.QueueItem> newQueueItems = new ArrayList<>();
-        int count = 0;
         for (MediaMetadataCompat track : tracks) {
             // TODO: Here (and for artists, and tracks) we start with a track ID from the queue item,
             // then create and store a hierarchical media ID which is then parsed
@@ -365,16 +463,19 @@ public class QueueManager {
                     .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, /*"ALBUM/ALBUM|"+*/""+trackId/*Long.toString(albumId)*/)
                     .build();
 
-            // We don't expect queues to change after created, so we use the item index as the
-            // queueId. Any other number unique in the queue would work.
+            // The queueId must be unique across the whole queue (it is also the database key)
             MediaSessionCompat.QueueItem item = new MediaSessionCompat.QueueItem(
-                    trackCopy.getDescription(), count++);
+                    trackCopy.getDescription(), QueueHelper.count++);
             newQueueItems.add(item);
         }
 
         LogHelper.i(TAG, newQueueItems.size(), " new tracks");
+        markRecent(newQueueItems);
         mPlayingQueue.addAll(0,newQueueItems); // add at front of queue
-        mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+        mQueueChanges.inserted(0, newQueueItems);
+        mQueueOrderBase -= newQueueItems.size();
+        saveQueueItems(0, newQueueItems.size());
+        publishQueue("AlbumTitle");
     }
 
     public void addArtistToQueue(long artistId) {
@@ -383,7 +484,6 @@ public class QueueManager {
         Iterable<MediaMetadataCompat> tracks;
         tracks = mMusicProvider.getMusicsByArtist(Long.toString(artistId));
         List<MediaSessionCompat.QueueItem> newQueueItems = new ArrayList<>();
-        int count = 0;
         for (MediaMetadataCompat track : tracks) {
             CharSequence trackId = track.getText(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
 
@@ -391,16 +491,19 @@ public class QueueManager {
                     .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, /*"ARTIST/ARTIST|"+*/""+trackId /*Long.toString(artistId)*/)
                     .build();
 
-            // We don't expect queues to change after created, so we use the item index as the
-            // queueId. Any other number unique in the queue would work.
+            // The queueId must be unique across the whole queue (it is also the database key)
             MediaSessionCompat.QueueItem item = new MediaSessionCompat.QueueItem(
-                    trackCopy.getDescription(), count++);
+                    trackCopy.getDescription(), QueueHelper.count++);
             newQueueItems.add(item);
         }
 
         LogHelper.i(TAG, newQueueItems.size(), " new tracks");
+        markRecent(newQueueItems);
         mPlayingQueue.addAll(0, newQueueItems);
-        mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+        mQueueChanges.inserted(0, newQueueItems);
+        mQueueOrderBase -= newQueueItems.size();
+        saveQueueItems(0, newQueueItems.size());
+        publishQueue("AlbumTitle");
     }
 
     public void addTrackToQueue(long trackId) {
@@ -415,8 +518,12 @@ public class QueueManager {
         MediaSessionCompat.QueueItem item = new MediaSessionCompat.QueueItem(
                 trackCopy.getDescription(), QueueHelper.count++);
 
+        mMusicProvider.markRecent(stringTrackId);
         mPlayingQueue.add(0,item); // Add at top of queue
-        mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+        mQueueChanges.inserted(0, Collections.singletonList(item));
+        mQueueOrderBase--;
+        saveQueueItems(0, 1);
+        publishQueue("AlbumTitle");
     }
     /**
      * My own implementation of the example based on setQueueFromMusic.
@@ -441,7 +548,7 @@ public class QueueManager {
 
         mListener.onMetadataChanged(metadata);
         // call onqueue updated, as well as on metadata changed
-        mListener.onQueueUpdated("AlbumTitle", mPlayingQueue);
+        publishQueue("AlbumTitle");
 
         // The rest of this is all about artwork, so we aren't so bothered here
         // Set the proper album artwork on the media session, so it can be shown in the
@@ -465,7 +572,13 @@ public class QueueManager {
                     String currentPlayingMediaId = currentMusic.getDescription().getMediaId();
 
                     if (mediaId.equals(currentPlayingMediaId)) {
-                        mListener.onMetadataChanged(mMusicProvider.getMusic(currentPlayingMediaId));
+                        // updateMusicArt doesn't keep the art, so attach it here
+                        MediaMetadataCompat metadata = new MediaMetadataCompat.Builder(
+                                mMusicProvider.getMusic(currentPlayingMediaId))
+                                .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, bitmap)
+                                .putBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON, icon)
+                                .build();
+                        mListener.onMetadataChanged(metadata);
                     }
                 }
             });
@@ -483,6 +596,14 @@ public class QueueManager {
         */
     }
 
+    /**
+     * @return the item that will be played when the current one completes, or null if the
+     * queue is empty
+     */
+    public MediaSessionCompat.QueueItem getNextMusic() {
+        return mPlayingQueue.isEmpty() ? null : mPlayingQueue.get(0);
+    }
+
     public int getCurrentQueueSize() {
         if (mPlayingQueue == null) {
             return 0;
@@ -492,7 +613,8 @@ public class QueueManager {
 
     protected void setCurrentQueue(String title, List<MediaSessionCompat.QueueItem> newQueue) {
         LogHelper.i(TAG, "setCurrentQueue: AlbumTitle=", title);
-        mPlayingQueue = newQueue;
+        replacePlayingQueue(newQueue);
+        saveQueue();
         // setCurrentQueue(AlbumTitle, newQueue, null);
     }
 
@@ -500,7 +622,7 @@ public class QueueManager {
     protected void setCurrentQueue(String title, List<MediaSessionCompat.QueueItem> newQueue,
                                    String initialMediaId) {
         LogHelper.i(TAG, "setCurrentQueue: setting new queue with initial media id = ", initialMediaId);
-        mPlayingQueue = newQueue;
+        replacePlayingQueue(newQueue);
         if (initialMediaId != null) {
             int index = 0;
             if (initialMediaId != null) {
@@ -509,15 +631,126 @@ public class QueueManager {
             // don't set the mCurrent index, just set the nowPlaying instead
             int currentIndex = Math.max(index, 0);
             mNowPlaying = mPlayingQueue.remove(currentIndex);
+            mQueueChanges.removed(currentIndex, 1);
         }
-        mListener.onQueueUpdated(title, newQueue);
+        saveQueue();
+        publishQueue(title);
+    }
+
+    private void replacePlayingQueue(List<MediaSessionCompat.QueueItem> newQueue) {
+        mQueueChanges.removed(0, mPlayingQueue.size());
+        mPlayingQueue.clear();
+        if (newQueue != null) {
+            markRecent(newQueue);
+            mPlayingQueue.addAll(newQueue);
+            mQueueChanges.inserted(0, newQueue);
+        }
+    }
+
+    /**
+     * Tells the listener about the queue, and about the edits made to it since it was last told
+     */
+    private void publishQueue(String title) {
+        mQueueTitle = title;
+        mListener.onQueueUpdated(title, mPlayingQueue, mQueueChanges.take());
+    }
+
+    /**
+     * Publishes any edits not yet published, so the snapshot is the latest version of the queue
+     * @return the queue and its sequence, as a QueueDeltaBundle snapshot
+     */
+    public Bundle getQueueSnapshot() {
+        publishQueue(mQueueTitle);
+        return QueueDeltaBundle.snapshotToBundle(mQueueChanges.getSequence(), mPlayingQueue);
+    }
+
+    /**
+     * Keeps tracks that were queued by hand out of the random fill, so they don't come up twice
+     */
+    private void markRecent(List<MediaSessionCompat.QueueItem> items) {
+        for (MediaSessionCompat.QueueItem item : items) {
+            mMusicProvider.markRecent(item.getDescription().getMediaId());
+        }
+    }
+
+    /**
+     * Stops the queue being saved, after writing out any changes that are still pending
+     */
+    public void release() {
+        if (mRestoreTask != null) {
+            // the session it would publish to is going away
+            mRestoreTask.cancel(false);
+            mRestoreTask = null;
+        }
+        mQueuedSongRepository.release();
+    }
+
+    /**
+     * Removes the item at index from the queue and from the database
+     */
+    private MediaSessionCompat.QueueItem removeQueueItemAt(int index) {
+        MediaSessionCompat.QueueItem item = mPlayingQueue.remove(index);
+        mQueueChanges.removed(index, 1);
+        mQueuedSongRepository.removeQueuedSongs(Collections.singletonList(item.getQueueId()));
+        if (index == 0) {
+            // the rest of the queue keeps its stored order
+            mQueueOrderBase++;
+        } else {
+            saveQueueOrder(index, mPlayingQueue.size());
+        }
+        return item;
+    }
+
+    /**
+     * Stores the queue items in [from, to) as new rows
+     */
+    private void saveQueueItems(int from, int to) {
+        mQueuedSongRepository.appendQueuedSongs(toQueuedSongs(from, to));
+    }
+
+    /**
+     * Stores the queueorder of the queue items in [from, to), which have moved
+     */
+    private void saveQueueOrder(int from, int to) {
+        if (from < to) {
+            mQueuedSongRepository.reorderQueuedSongs(toQueuedSongs(from, to));
+        }
+    }
+
+    /**
+     * Replaces everything stored with the current queue
+     */
+    private void saveQueue() {
+        mQueueOrderBase = 0;
+        mQueuedSongRepository.replaceQueuedSongs(toQueuedSongs(0, getCurrentQueueSize()));
+    }
+
+    private List<QueuedSong> toQueuedSongs(int from, int to) {
+        List<QueuedSong> songs = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            MediaSessionCompat.QueueItem item = mPlayingQueue.get(i);
+            String mediaId = item.getDescription().getMediaId();
+            int trackId;
+            try {
+                trackId = Integer.parseInt(mediaId);
+            } catch (NumberFormatException e) {
+                trackId = 0;
+            }
+            songs.add(new QueuedSong(item.getQueueId(), mQueueOrderBase + i, trackId, mediaId));
+        }
+        return songs;
     }
 
     // this is my interface
     public interface MetadataUpdateListener {
         void onMetadataChanged(MediaMetadataCompat metadata);
         void onMetadataRetrieveError();
-        void onQueueUpdated(String title, List<MediaSessionCompat.QueueItem> newQueue);
+        /**
+         * @param delta the edits that were made to the queue since the last call, or null if
+         * there were none
+         */
+        void onQueueUpdated(String title, List<MediaSessionCompat.QueueItem> newQueue,
+                            QueueDelta<MediaSessionCompat.QueueItem> delta);
 
         // void onCurrentQueueIndexUpdated(int queueIndex);
         void onNowPlayingChanged(MediaSessionCompat.QueueItem nowPlaying);
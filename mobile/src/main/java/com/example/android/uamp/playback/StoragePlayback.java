@@ -2,15 +2,12 @@ package com.example.android.uamp.playback;
 
 import android.content.*;
 import android.media.AudioManager;
-import android.net.Uri;
 import android.net.wifi.WifiManager;
-import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.TextUtils;
 
 import com.example.android.uamp.MusicService;
 import com.example.android.uamp.model.MusicProvider;
-import com.example.android.uamp.model.MusicProviderSource;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
 import com.google.android.exoplayer2.C;
@@ -21,16 +18,14 @@ import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
-import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
-import com.google.android.exoplayer2.extractor.ExtractorsFactory;
-import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.DynamicConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
-import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.google.android.exoplayer2.util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static android.support.v4.media.MediaMetadataCompat.METADATA_KEY_MEDIA_URI;
 import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
@@ -40,6 +35,12 @@ import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
  * com.google.android.exoplayer2.ExoPlayer}
  * This is adapted from the example LocalPlayback, which expects to play from a stream, not a file
  * Created by asbridged on 23/06/2017.
+ *
+ * The player is prepared with a playlist holding the track being played followed by the next
+ * one in the queue (see setNextQueueItem), so the next track is already opened and buffered
+ * when the current one ends and ExoPlayer moves on to it without a gap.
+ * When that happens onCompletion is called as usual, and the play() call that follows finds
+ * the track already playing.
  */
 public class StoragePlayback implements Playback {
 
@@ -62,7 +63,7 @@ public class StoragePlayback implements Playback {
     private final WifiManager.WifiLock mWifiLock;
     private boolean mPlayOnFocusGain;
     private Callback mCallback;
-    private final MusicProvider mMusicProvider;
+    private final TrackMediaSourceFactory mMediaSourceFactory;
     private boolean mAudioNoisyReceiverRegistered;
     private String mCurrentMediaId;
 
@@ -70,6 +71,18 @@ public class StoragePlayback implements Playback {
     private final AudioManager mAudioManager;
     private SimpleExoPlayer mExoPlayer;
     private final ExoPlayerEventListener mEventListener = new ExoPlayerEventListener();
+    private final BufferProfile mBufferProfile;
+    private DefaultLoadControl mLoadControl;
+    // When mExoPlayer was last prepared (a PlaybackTrace timestamp), until it is ready to play
+    private long mPrepareTime;
+
+    // What mExoPlayer was prepared with: the track being played, the next one if it is known,
+    // and the media ids of those tracks in the same order
+    private DynamicConcatenatingMediaSource mPlaylist;
+    private final List<String> mPlaylistMediaIds = new ArrayList<>();
+    // Index in mPlaylist of the track being played
+    private int mPlaylistIndex;
+    private QueueItem mNextItem;
 
     // Whether to return STATE_NONE or STATE_STOPPED when mExoPlayer is null;
     private boolean mExoPlayerNullIsStopped =  false;
@@ -96,10 +109,12 @@ public class StoragePlayback implements Playback {
     public StoragePlayback(Context context, MusicProvider musicProvider) {
         Context applicationContext = context.getApplicationContext();
         this.mContext = applicationContext;
-        this.mMusicProvider = musicProvider;
+        this.mMediaSourceFactory = new TrackMediaSourceFactory(
+                applicationContext, musicProvider, METADATA_KEY_MEDIA_URI);
 
         this.mAudioManager =
                 (AudioManager) applicationContext.getSystemService(Context.AUDIO_SERVICE);
+        this.mBufferProfile = BufferProfile.forSource(applicationContext, true);
         // Create the Wifi lock (this does not acquire the lock, this just creates it)
         this.mWifiLock =
                 ((WifiManager) applicationContext.getSystemService(Context.WIFI_SERVICE))
@@ -180,44 +195,64 @@ public class StoragePlayback implements Playback {
             mCurrentMediaId = mediaId;
         }
 
+        if (mediaHasChanged && mExoPlayer != null) {
+            if (mediaId.equals(getPlaylistMediaId(mPlaylistIndex))) {
+                // ExoPlayer has already moved on to this track by itself
+                LogHelper.i(TAG, "play: already playing ", mediaId);
+                mediaHasChanged = false;
+                onAudioReady();
+            } else if (mediaId.equals(getPlaylistMediaId(mPlaylistIndex + 1))) {
+                // Skipping to the preloaded track, which is already buffered
+                LogHelper.i(TAG, "play: skipping to preloaded ", mediaId);
+                mExoPlayer.seekToDefaultPosition(mPlaylistIndex + 1);
+                onPlaylistAdvanced();
+                mediaHasChanged = false;
+            }
+        }
+
         if (mediaHasChanged || mExoPlayer == null) {
             releaseResources(false); // release everything except the player
 
-            MediaMetadataCompat track; // = mMusicProvider.getMusic(MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId()));
-            track = mMusicProvider.getMusic(item.getDescription().getMediaId());
-
-            String MediaURI = track.getString(METADATA_KEY_MEDIA_URI);
-            LogHelper.i(TAG, "MediaURI = "+MediaURI);
-
-            String source = track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE);
-            if (source != null) {
-                source = source.replaceAll(" ", "%20"); // Escape spaces for URLs
-            }
-
             if (mExoPlayer == null) {
+                LogHelper.i(TAG, "Creating player with ", mBufferProfile, " buffers");
+                mLoadControl = mBufferProfile.createLoadControl();
                 mExoPlayer =
                         ExoPlayerFactory.newSimpleInstance(
-                                mContext, new DefaultTrackSelector(), new DefaultLoadControl());
+                                mContext, new DefaultTrackSelector(), mLoadControl);
                 mExoPlayer.addListener(mEventListener);
             }
 
             mExoPlayer.setAudioStreamType(C.STREAM_TYPE_MUSIC/*was AudioManager.STREAM_MUSIC*/);
 
-            // Produces DataSource instances through which media data is loaded.
-            DataSource.Factory dataSourceFactory =
-                    new DefaultDataSourceFactory(
-                            mContext, Util.getUserAgent(mContext, "uamp"), null);
-            // Produces Extractor instances for parsing the media data.
-            ExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
-            // The MediaSource represents the media to be played.
-            LogHelper.i(TAG, "Source = "+ source);
-            MediaSource mediaSource =
-                    new ExtractorMediaSource(
-                            /*Uri.parse(source)*/Uri.parse(MediaURI), dataSourceFactory, extractorsFactory, null, null);
+            // The playlist starts with the track to play, and the next one is added to it
+            // (in the same way as when the queue changes) so it can be buffered in advance
+            long resolveStart = PlaybackTrace.now();
+            MediaSource mediaSource = mMediaSourceFactory.createMediaSource(mediaId);
+            PlaybackTrace.getInstance().recordSince(PlaybackTrace.RESOLVE_TRACK, resolveStart);
+            if (mediaSource == null) {
+                LogHelper.e(TAG, "play: no media for ", mediaId);
+                // Nothing is playing, so forget the track (letting a later play() of it try
+                // again) and let go of what play() took
+                mCurrentMediaId = null;
+                mPlayOnFocusGain = false;
+                giveUpAudioFocus();
+                unregisterAudioNoisyReceiver();
+                if (mCallback != null) {
+                    mCallback.onError("Track not found");
+                }
+                return;
+            }
+            mPlaylist = new DynamicConcatenatingMediaSource();
+            mPlaylistMediaIds.clear();
+            mPlaylistIndex = 0;
+            mPlaylist.addMediaSource(mediaSource);
+            mPlaylistMediaIds.add(mediaId);
+            updateNextSource();
 
             // Prepares media to play (happens on background thread) and triggers
             // {@code onPlayerStateChanged} callback when the stream is ready to play.
-            mExoPlayer.prepare(mediaSource);
+            mPrepareTime = PlaybackTrace.now();
+            mExoPlayer.prepare(mPlaylist);
 
             // If we are streaming from the internet, we want to hold a
             // Wifi lock, which prevents the Wifi radio from going to
@@ -228,6 +263,63 @@ public class StoragePlayback implements Playback {
         configurePlayerState();
     }
 
+    @Override
+    public void setNextQueueItem(QueueItem item) {
+        mNextItem = item;
+        if (mExoPlayer != null && mPlaylist != null) {
+            updateNextSource();
+        }
+    }
+
+    /**
+     * Ends the play and skip measurements in progress: the requested track is playing
+     */
+    private void onAudioReady() {
+        PlaybackTrace.getInstance().end(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        PlaybackTrace.getInstance().end(PlaybackTrace.SKIP_LATENCY);
+    }
+
+    private String getPlaylistMediaId(int index) {
+        return index < mPlaylistMediaIds.size() ? mPlaylistMediaIds.get(index) : null;
+    }
+
+    /**
+     * Makes the track after the one being played in mPlaylist be mNextItem, replacing whatever
+     * was there if the queue has changed since it was added
+     */
+    private void updateNextSource() {
+        String nextMediaId = mNextItem == null ? null : mNextItem.getDescription().getMediaId();
+        int nextIndex = mPlaylistIndex + 1;
+        if (TextUtils.equals(nextMediaId, getPlaylistMediaId(nextIndex))) {
+            return;
+        }
+        while (mPlaylistMediaIds.size() > nextIndex) {
+            int last = mPlaylistMediaIds.size() - 1;
+            mPlaylist.removeMediaSource(last);
+            mPlaylistMediaIds.remove(last);
+        }
+        MediaSource nextSource =
+                nextMediaId == null ? null : mMediaSourceFactory.createMediaSource(nextMediaId);
+        if (nextSource != null) {
+            LogHelper.i(TAG, "Preloading next track ", nextMediaId);
+            mPlaylist.addMediaSource(nextSource);
+            mPlaylistMediaIds.add(nextMediaId);
+        }
+    }
+
+    /**
+     * Called once the player has moved to the next track of mPlaylist. Drops the track that was
+     * playing so the playlist doesn't grow.
+     */
+    private void onPlaylistAdvanced() {
+        mPlaylistIndex++;
+        while (mPlaylistIndex > 0) {
+            mPlaylist.removeMediaSource(0);
+            mPlaylistMediaIds.remove(0);
+            mPlaylistIndex--;
+        }
+    }
+
     @Override
     public void pause() {
         // Pause player and cancel the 'foreground service' state.
@@ -265,11 +357,13 @@ public class StoragePlayback implements Playback {
 
     private void tryToGetAudioFocus() {
         LogHelper.d(TAG, "tryToGetAudioFocus");
+        long requestStart = PlaybackTrace.now();
         int result =
                 mAudioManager.requestAudioFocus(
                         mOnAudioFocusChangeListener,
                         AudioManager.STREAM_MUSIC,
                         AudioManager.AUDIOFOCUS_GAIN);
+        PlaybackTrace.getInstance().recordSince(PlaybackTrace.AUDIO_FOCUS, requestStart);
         if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
             mCurrentAudioFocusState = AUDIO_FOCUSED;
         } else {
@@ -361,8 +455,12 @@ public class StoragePlayback implements Playback {
             mExoPlayer.release();
             mExoPlayer.removeListener(mEventListener);
             mExoPlayer = null;
+            mLoadControl = null;
             mExoPlayerNullIsStopped = true;
             mPlayOnFocusGain = false;
+            mPlaylist = null;
+            mPlaylistMediaIds.clear();
+            mPlaylistIndex = 0;
         }
 
         if (mWifiLock.isHeld()) {
@@ -418,9 +516,18 @@ public class StoragePlayback implements Playback {
         }
 
         @Override
-        public void onPositionDiscontinuity(int i) {
+        public void onPositionDiscontinuity(int reason) {
             // I added this because of compiler error
             // after upgrading to exoplayer 2.7.0
+            if (reason == ExoPlayer.DISCONTINUITY_REASON_PERIOD_TRANSITION) {
+                // The current track ended and the preloaded one has started. There is no
+                // STATE_ENDED in this case, so this is where the track completes.
+                LogHelper.i(TAG, "Moved on to preloaded track ", getPlaylistMediaId(mPlaylistIndex + 1));
+                onPlaylistAdvanced();
+                if (mCallback != null) {
+                    mCallback.onCompletion();
+                }
+            }
         }
 
 
@@ -437,6 +544,18 @@ public class StoragePlayback implements Playback {
 
         @Override
         public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            if (playbackState == ExoPlayer.STATE_READY && mPrepareTime != 0) {
+                // How the buffer profile performs: time to start and memory held
+                long readyTime = PlaybackTrace.now() - mPrepareTime;
+                PlaybackTrace.getInstance().record(PlaybackTrace.PREPARE_TO_READY, readyTime);
+                LogHelper.i(TAG, mBufferProfile, " buffers: ready ",
+                        readyTime / 1000000, "ms after prepare, ",
+                        mLoadControl.getAllocator().getTotalBytesAllocated() / 1024, "KB allocated");
+                mPrepareTime = 0;
+            }
+            if (playbackState == ExoPlayer.STATE_READY && playWhenReady) {
+                onAudioReady();
+            }
             switch (playbackState) {
                 case ExoPlayer.STATE_IDLE:
                 case ExoPlayer.STATE_BUFFERING:
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.playback;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.utils.LogHelper;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the MediaSources a playback prepares ExoPlayer with, one per track.
+ *
+ * The data source and extractor factories are created once and shared by every source.
+ * For the most recently played tracks the URI and the extractor that recognised the file are
+ * remembered: playing one of them again doesn't look it up in the MusicProvider, and its
+ * extractor is tried first, instead of the file being sniffed by each format ExoPlayer supports
+ * in turn.
+ */
+public class TrackMediaSourceFactory {
+    private static final String TAG = LogHelper.makeLogTag(TrackMediaSourceFactory.class);
+
+    private static final int MAX_RESOLVED_TRACKS = 64;
+
+    private final MusicProvider mMusicProvider;
+    // the metadata key holding the URI the track is played from
+    private final String mUriMetadataKey;
+    private final DataSource.Factory mDataSourceFactory;
+    private final ExtractorsFactory mExtractorsFactory = new DefaultExtractorsFactory();
+
+    // media id -> resolved track, least recently played first
+    private final Map<String, ResolvedTrack> mResolvedTracks =
+            new LinkedHashMap<String, ResolvedTrack>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ResolvedTrack> eldest) {
+                    return size() > MAX_RESOLVED_TRACKS;
+                }
+            };
+
+    private static final class ResolvedTrack {
+        final Uri uri;
+        // set from the loading thread once the file has been sniffed
+        volatile Class<? extends Extractor> extractorClass;
+
+        ResolvedTrack(Uri uri) {
+            this.uri = uri;
+        }
+    }
+
+    public TrackMediaSourceFactory(Context context, MusicProvider musicProvider,
+                                   String uriMetadataKey) {
+        mMusicProvider = musicProvider;
+        mUriMetadataKey = uriMetadataKey;
+        // Produces DataSource instances through which media data is loaded.
+        mDataSourceFactory = new DefaultDataSourceFactory(
+                context, Util.getUserAgent(context, "uamp"), null);
+    }
+
+    /**
+     * @return the source to play the track from, or null if the track is unknown or has no URI
+     */
+    public MediaSource createMediaSource(String mediaId) {
+        ResolvedTrack track = resolve(mediaId);
+        if (track == null) {
+            return null;
+        }
+        return new ExtractorMediaSource(track.uri, mDataSourceFactory,
+                new TrackExtractorsFactory(track), null, null);
+    }
+
+    private synchronized ResolvedTrack resolve(String mediaId) {
+        ResolvedTrack track = mResolvedTracks.get(mediaId);
+        if (track == null) {
+            MediaMetadataCompat metadata = mMusicProvider.getMusic(mediaId);
+            String uri = metadata == null ? null : metadata.getString(mUriMetadataKey);
+            if (uri == null) {
+                LogHelper.w(TAG, "No URI for ", mediaId);
+                return null;
+            }
+            LogHelper.i(TAG, "Resolved ", mediaId, " to ", uri);
+            // Escape spaces for URLs
+            track = new ResolvedTrack(Uri.parse(uri.replaceAll(" ", "%20")));
+            mResolvedTracks.put(mediaId, track);
+        }
+        return track;
+    }
+
+    /**
+     * Gives ExtractorMediaSource the default extractors, with the one that recognised the track
+     * last time first. Until that is known, the extractors note which of them recognises it.
+     */
+    private final class TrackExtractorsFactory implements ExtractorsFactory {
+        private final ResolvedTrack mTrack;
+
+        TrackExtractorsFactory(ResolvedTrack track) {
+            mTrack = track;
+        }
+
+        @Override
+        public Extractor[] createExtractors() {
+            Extractor[] extractors = mExtractorsFactory.createExtractors();
+            Class<? extends Extractor> known = mTrack.extractorClass;
+            for (int i = 0; i < extractors.length; i++) {
+                if (known == null) {
+                    extractors[i] = new SniffRecordingExtractor(extractors[i], mTrack);
+                } else if (extractors[i].getClass() == known) {
+                    // Sniffing stops at the first extractor that recognises the file
+                    Extractor first = extractors[i];
+                    System.arraycopy(extractors, 0, extractors, 1, i);
+                    extractors[0] = first;
+                    break;
+                }
+            }
+            return extractors;
+        }
+    }
+
+    private static final class SniffRecordingExtractor implements Extractor {
+        private final Extractor mExtractor;
+        private final ResolvedTrack mTrack;
+
+        SniffRecordingExtractor(Extractor extractor, ResolvedTrack track) {
+            mExtractor = extractor;
+            mTrack = track;
+        }
+
+        @Override
+        public boolean sniff(ExtractorInput input) throws IOException, InterruptedException {
+            boolean recognised = mExtractor.sniff(input);
+            if (recognised) {
+                mTrack.extractorClass = mExtractor.getClass();
+            }
+            return recognised;
+        }
+
+        @Override
+        public void init(ExtractorOutput output) {
+            mExtractor.init(output);
+        }
+
+        @Override
+        public int read(ExtractorInput input, PositionHolder seekPosition)
+                throws IOException, InterruptedException {
+            return mExtractor.read(input, seekPosition);
+        }
+
+        @Override
+        public void seek(long position, long timeUs) {
+            mExtractor.seek(position, timeUs);
+        }
+
+        @Override
+        public void release() {
+            mExtractor.release();
+        }
+    }
+}
@@ -7,6 +7,10 @@ import android.preference.PreferenceManager;
 
 /**
  * Created by David on 19/12/2015.
+ *
+ * The play queue size, history size, minimum song length and sleep time are read on hot paths
+ * (each queue fill and browse), so they are parsed once into a snapshot that a preference change
+ * listener replaces when one of them changes. Reading them is then a field load.
  */
 public class Settings {
 
@@ -16,42 +20,104 @@ public class Settings {
     public static final String PREF_HISTORY_SIZE = "historysize";
     public static final String PREF_MINDURATIONINSECONDS = "minsonglength";
     public static final String PREF_TIME_TO_GO_TO_SLEEP = "timetogotosleep";
+    public static final String PREF_NOW_PLAYING_MEDIA_ID = "nowplayingmediaid";
+    public static final String PREF_NOW_PLAYING_POSITION = "nowplayingposition";
+
+    private static final class Snapshot {
+        final int playQueueSize;
+        final int historySize;
+        final int minDurationInSeconds;
+        final long timeToGoToSleep;
+
+        Snapshot(SharedPreferences sharedPref) {
+            playQueueSize = Integer.parseInt(sharedPref.getString(PREF_PLAYQUEUE_SIZE, "10"));
+            historySize = Integer.parseInt(sharedPref.getString(PREF_HISTORY_SIZE, "8"));
+            minDurationInSeconds =
+                    Integer.parseInt(sharedPref.getString(PREF_MINDURATIONINSECONDS, "30"));
+            timeToGoToSleep = sharedPref.getLong(PREF_TIME_TO_GO_TO_SLEEP, (long)0);
+        }
+    }
 
-    public static int getPlayQueueSize(Context context) {
-
-        SharedPreferences defaultSharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-        String playQueueSize = defaultSharedPref.getString(PREF_PLAYQUEUE_SIZE, "10");
+    private static volatile Snapshot sSnapshot;
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPref, String key) {
+                    if (PREF_PLAYQUEUE_SIZE.equals(key) || PREF_HISTORY_SIZE.equals(key)
+                            || PREF_MINDURATIONINSECONDS.equals(key)
+                            || PREF_TIME_TO_GO_TO_SLEEP.equals(key)) {
+                        sSnapshot = new Snapshot(sharedPref);
+                    }
+                }
+            };
+
+    private static Snapshot getSnapshot(Context context) {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot == null) {
+            synchronized (Settings.class) {
+                snapshot = sSnapshot;
+                if (snapshot == null) {
+                    SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(
+                            context.getApplicationContext());
+                    sharedPref.registerOnSharedPreferenceChangeListener(sListener);
+                    snapshot = new Snapshot(sharedPref);
+                    sSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
 
-        return Integer.parseInt(playQueueSize);
+    public static int getPlayQueueSize(Context context) {
+        return getSnapshot(context).playQueueSize;
     }
 
     public static int getHistorySize(Context context) {
+        return getSnapshot(context).historySize;
+    }
 
-        SharedPreferences defaultSharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-        String historySize = defaultSharedPref.getString(PREF_HISTORY_SIZE, "8");
+    public static int getMinDurationInSeconds(Context context) {
+        return getSnapshot(context).minDurationInSeconds;
+    }
 
-        return Integer.parseInt(historySize);
+    public static long getTimeToGoToSleep(Context context) {
+        return getSnapshot(context).timeToGoToSleep;
     }
 
-    public static int getMinDurationInSeconds(Context context) {
+    public static void setTimeToGoToSleep(Context context, long t) {
+        // registers the listener, if no setting has been read yet, before sSnapshot is set below
+        getSnapshot(context);
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sharedPref.edit();
+        editor.putLong(PREF_TIME_TO_GO_TO_SLEEP, t);
+        editor.apply();
+        // The listener is called later, from the main thread, so the caller would read the old
+        // value until then
+        sSnapshot = new Snapshot(sharedPref);
+    }
 
+    public static String getNowPlayingMediaId(Context context) {
         SharedPreferences defaultSharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-        String mindurSize = defaultSharedPref.getString(PREF_MINDURATIONINSECONDS, "30");
-
-        return Integer.parseInt(mindurSize);
+        return defaultSharedPref.getString(PREF_NOW_PLAYING_MEDIA_ID, null);
     }
 
-    public static long getTimeToGoToSleep(Context context) {
+    public static long getNowPlayingPosition(Context context) {
         SharedPreferences defaultSharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-        long timeToSleep = defaultSharedPref.getLong(PREF_TIME_TO_GO_TO_SLEEP, (long)0);
-        return timeToSleep;
+        return defaultSharedPref.getLong(PREF_NOW_PLAYING_POSITION, 0);
     }
 
-    public static void setTimeToGoToSleep(Context context, long t) {
+    /**
+     * Remembers the track being played and how far into it we are, so playback can resume there
+     * when the service is next started. Written asynchronously as it is called on every pause.
+     */
+    public static void setNowPlaying(Context context, String mediaId, long position) {
         SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
         SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putLong(PREF_TIME_TO_GO_TO_SLEEP, t);
-        editor.commit();
+        editor.putString(PREF_NOW_PLAYING_MEDIA_ID, mediaId);
+        editor.putLong(PREF_NOW_PLAYING_POSITION, position);
+        editor.apply();
     }
 
 
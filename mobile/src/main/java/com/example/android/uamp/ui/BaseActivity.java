@@ -33,6 +33,7 @@ import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
 import android.widget.Toast;
+import com.example.android.uamp.AlbumArtCache;
 import com.example.android.uamp.MusicService;
 import com.example.android.uamp.R;
 import com.example.android.uamp.utils.LogHelper;
@@ -54,6 +55,7 @@ public abstract class BaseActivity extends ActionBarCastActivity implements Medi
         super.onCreate(savedInstanceState);
 
         LogHelper.d(TAG, "BaseActivity Activity onCreate");
+        AlbumArtCache.getInstance().attach(this);
 
         if (Build.VERSION.SDK_INT >= 21) {
             // Since our app icon has the same color as colorPrimary, our entry in the Recent Apps
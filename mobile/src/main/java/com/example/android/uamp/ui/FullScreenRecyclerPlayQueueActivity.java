@@ -26,6 +26,7 @@ import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.RemoteException;
+import android.os.ResultReceiver;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.design.widget.NavigationView;
@@ -57,6 +58,8 @@ import com.example.android.uamp.model.PlayQueueAdapter;
 import com.example.android.uamp.model.PlayQueueRecyclerAdapter;
 import com.example.android.uamp.model.recyclerhelpers.SimpleItemTouchHelperCallback;
 import com.example.android.uamp.playback.PlaybackManager;
+import com.example.android.uamp.playback.QueueDelta;
+import com.example.android.uamp.playback.QueueDeltaBundle;
 import com.example.android.uamp.settings.Settings;
 import com.example.android.uamp.ui.MediaBrowserClient.MediaBrowserUampActivity;
 import com.example.android.uamp.ui.dialogs.SetTimerDialog;
@@ -134,6 +137,12 @@ public class FullScreenRecyclerPlayQueueActivity extends ActionBarCastActivity
 
     private  MediaControllerCompat mediaController;
 
+    // The service's play queue as of version mQueueSequence, kept up to date from its deltas.
+    // mQueueSequence is -1 until the first snapshot arrives.
+    private final ArrayList<MediaSessionCompat.QueueItem> mSessionQueue = new ArrayList<>();
+    private long mQueueSequence = -1;
+    private boolean mSnapshotRequested;
+
     private final MediaControllerCompat.Callback mCallback = new MediaControllerCompat.Callback() {
         @Override
         public void onPlaybackStateChanged(@NonNull PlaybackStateCompat state) {
@@ -150,18 +159,32 @@ public class FullScreenRecyclerPlayQueueActivity extends ActionBarCastActivity
         }
 
         /**
-         * I addded this.
-         * Callback from the media session when the queue changes
+         * The list follows the queue through the deltas sent with onSessionEvent, so the whole
+         * queue set on the session (which comes later, and only every so often) isn't needed
          * @param queue
          */
         @Override
         public void onQueueChanged(List<MediaSessionCompat.QueueItem> queue) {
             LogHelper.i(TAG, "onQueueChanger (mediaControllerCompat Callback");
-            mDisplayedPlayQueue.clear(); // playQueueRecyclerAdapter.clear();
-            for (MediaSessionCompat.QueueItem item : queue) {
-                mDisplayedPlayQueue.add(item); // playQueueRecyclerAdapter.add(item);
+        }
+
+        @Override
+        public void onSessionEvent(String event, Bundle extras) {
+            if (!QueueDeltaBundle.EVENT_QUEUE_DELTA.equals(event)) {
+                return;
             }
-            playQueueRecyclerAdapter.notifyDataSetChanged();
+            QueueDelta<MediaSessionCompat.QueueItem> delta = QueueDeltaBundle.fromBundle(extras);
+            if (delta == null || delta.getSequence() <= mQueueSequence) {
+                // already in the snapshot
+                return;
+            }
+            if (mQueueSequence < 0 || delta.getBaseSequence() != mQueueSequence) {
+                LogHelper.i(TAG, "queue delta ", delta.getSequence(), " does not follow ",
+                        mQueueSequence);
+                requestQueueSnapshot();
+                return;
+            }
+            applyQueueDelta(delta);
         }
     };
 
@@ -248,8 +271,6 @@ public class FullScreenRecyclerPlayQueueActivity extends ActionBarCastActivity
         return super.onOptionsItemSelected(item);
     }
 
-    ArrayList<MediaSessionCompat.QueueItem> mDisplayedPlayQueue = new ArrayList<>();
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         LogHelper.i(TAG, "onCreate");
@@ -297,7 +318,7 @@ public class FullScreenRecyclerPlayQueueActivity extends ActionBarCastActivity
         mPlayQueueLayoutManager = new LinearLayoutManager(this);
         mRecyclerPlayqueueList.setLayoutManager(mPlayQueueLayoutManager);
 
-        playQueueRecyclerAdapter = new PlayQueueRecyclerAdapter(mDisplayedPlayQueue, this);
+        playQueueRecyclerAdapter = new PlayQueueRecyclerAdapter(this);
         mRecyclerPlayqueueList.setAdapter(playQueueRecyclerAdapter);
 
         // Create a callback that knows about our adapter
@@ -383,22 +404,14 @@ public class FullScreenRecyclerPlayQueueActivity extends ActionBarCastActivity
         /* moved to class MediaControllerCompat */ mediaController = new MediaControllerCompat(
                 FullScreenRecyclerPlayQueueActivity.this, token);
 
-        // get the queue and show in the list
-        List< MediaSessionCompat.QueueItem> queue = mediaController.getQueue();
-        LogHelper.i(TAG, "connectToSession: queue == null?", queue==null);
-        if (queue != null) {
-            LogHelper.i(TAG, "connectToSession: queue size = ", queue.size());
-            mDisplayedPlayQueue.clear();
-            for (MediaSessionCompat.QueueItem item : queue) {
-                mDisplayedPlayQueue.add(item);
-            }
-            playQueueRecyclerAdapter.notifyDataSetChanged();
-        } else {
-            LogHelper.i(TAG, "Queue is null");
-        }
-
         MediaControllerCompat.setMediaController(this, mediaController);
         mediaController.registerCallback(mCallback);
+
+        // get the queue and show in the list. Deltas come in from here on, and those the
+        // snapshot doesn't include carry on from it
+        mQueueSequence = -1;
+        mSnapshotRequested = false;
+        requestQueueSnapshot();
         PlaybackStateCompat state = mediaController.getPlaybackState();
         updatePlaybackState(state);
 
@@ -460,6 +473,55 @@ public class FullScreenRecyclerPlayQueueActivity extends ActionBarCastActivity
         }
     }
 
+    /**
+     * Asks the service for the whole queue, when the deltas can't be followed from what we have
+     */
+    private void requestQueueSnapshot() {
+        if (mSnapshotRequested || mediaController == null) {
+            return;
+        }
+        mSnapshotRequested = true;
+        final MediaControllerCompat controller = mediaController;
+        controller.sendCommand(PlaybackManager.COMMAND_GET_QUEUE_SNAPSHOT, null,
+                new ResultReceiver(mHandler) {
+                    @Override
+                    protected void onReceiveResult(int resultCode, Bundle resultData) {
+                        if (controller != mediaController) {
+                            // from a session we have since reconnected to
+                            return;
+                        }
+                        mSnapshotRequested = false;
+                        List<MediaSessionCompat.QueueItem> queue =
+                                QueueDeltaBundle.getSnapshotQueue(resultData);
+                        long sequence = QueueDeltaBundle.getSnapshotSequence(resultData);
+                        if (queue == null || sequence < mQueueSequence) {
+                            return;
+                        }
+                        LogHelper.i(TAG, "queue snapshot ", sequence, " size = ", queue.size());
+                        mQueueSequence = sequence;
+                        mSessionQueue.clear();
+                        mSessionQueue.addAll(queue);
+                        playQueueRecyclerAdapter.submitList(mSessionQueue);
+                    }
+                });
+    }
+
+    /**
+     * Brings mSessionQueue, and the list, up to the next version of the queue
+     */
+    private void applyQueueDelta(QueueDelta<MediaSessionCompat.QueueItem> delta) {
+        // The list shows something else while a drag or swipe has yet to come back from the
+        // service as a delta, or while a snapshot is still being compared with it
+        boolean listInStep = playQueueRecyclerAdapter.isShowing(mSessionQueue);
+        delta.applyTo(mSessionQueue, null);
+        mQueueSequence = delta.getSequence();
+        if (listInStep) {
+            playQueueRecyclerAdapter.applyDelta(delta);
+        } else {
+            playQueueRecyclerAdapter.submitList(mSessionQueue);
+        }
+    }
+
     @Override
     public void onStart() {
         LogHelper.i(TAG, "onStart");
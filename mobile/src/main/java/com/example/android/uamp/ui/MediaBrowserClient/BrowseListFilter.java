@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.ui.MediaBrowserClient;
+
+import com.example.android.uamp.model.SearchIndex;
+
+import java.util.Arrays;
+
+/**
+ * Filters the items of a browse list by the text typed in its search box.
+ *
+ * Each item's title and subtitle are folded once (see {@link SearchIndex#fold}) into a search key,
+ * so a keystroke costs one indexOf per item and no allocation per item. Results are the positions
+ * of the matching items in the full list, in order.
+ *
+ * Typing usually makes the query longer. A longer query that contains the previous one can only
+ * match items the previous one matched, so only those are checked again.
+ *
+ * Not thread safe: use an instance from one thread at a time.
+ */
+final class BrowseListFilter {
+
+    // Checked every this many items, so a cancelled filter stops soon
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    interface Cancellation {
+        boolean isCancelled();
+    }
+
+    interface UpdateCallback {
+        void onInserted(int position, int count);
+        void onRemoved(int position, int count);
+    }
+
+    private final String[] mKeys;
+    private final int[] mAllRows;
+    private String mLastQuery;
+    private int[] mLastRows;
+
+    BrowseListFilter(String[] keys) {
+        mKeys = keys;
+        mAllRows = new int[keys.length];
+        for (int i = 0; i < mAllRows.length; i++) {
+            mAllRows[i] = i;
+        }
+    }
+
+    /**
+     * @return the search key of an item. The separator can't appear in a folded query, so a query
+     * matches the key if and only if it matches the title or the subtitle.
+     */
+    static String searchKey(CharSequence title, CharSequence subtitle) {
+        return SearchIndex.fold(title == null ? null : title.toString()) + '\n'
+                + SearchIndex.fold(subtitle == null ? null : subtitle.toString());
+    }
+
+    int size() {
+        return mKeys.length;
+    }
+
+    /**
+     * @return the positions of the items matching query, or null if cancellation said to stop
+     */
+    int[] filter(CharSequence query, Cancellation cancellation) {
+        String folded = SearchIndex.fold(query == null ? null : query.toString());
+        if (folded.isEmpty()) {
+            return mAllRows;
+        }
+        int[] candidates = mAllRows;
+        if (mLastQuery != null && folded.contains(mLastQuery)) {
+            candidates = mLastRows;
+        }
+        int[] rows = new int[candidates.length];
+        int count = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && cancellation.isCancelled()) {
+                return null;
+            }
+            int row = candidates[i];
+            if (mKeys[row].contains(folded)) {
+                rows[count++] = row;
+            }
+        }
+        rows = Arrays.copyOf(rows, count);
+        mLastQuery = folded;
+        mLastRows = rows;
+        return rows;
+    }
+
+    /**
+     * Reports the insertions and removals that turn the list of oldRows into the list of newRows,
+     * as ranges, in the order a RecyclerView adapter should be notified of them. Both are
+     * ascending positions in the same full list, so a single merge finds the smallest change.
+     */
+    static void dispatchUpdates(int[] oldRows, int[] newRows, UpdateCallback callback) {
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < oldRows.length || j < newRows.length) {
+            if (i < oldRows.length && j < newRows.length && oldRows[i] == newRows[j]) {
+                i++;
+                j++;
+                position++;
+            } else if (j == newRows.length || (i < oldRows.length && oldRows[i] < newRows[j])) {
+                int start = i;
+                while (i < oldRows.length && (j == newRows.length || oldRows[i] < newRows[j])) {
+                    i++;
+                }
+                callback.onRemoved(position, i - start);
+            } else {
+                int start = j;
+                while (j < newRows.length && (i == oldRows.length || newRows[j] < oldRows[i])) {
+                    j++;
+                }
+                callback.onInserted(position, j - start);
+                position += j - start;
+            }
+        }
+    }
+}
@@ -5,6 +5,8 @@
         import android.graphics.drawable.AnimationDrawable;
         import android.graphics.drawable.Drawable;
         import android.media.browse.MediaBrowser;
+        import android.os.Handler;
+        import android.os.Looper;
         import android.support.v4.app.FragmentActivity;
         import android.support.v4.content.ContextCompat;
         import android.support.v4.graphics.drawable.DrawableCompat;
@@ -12,12 +14,12 @@
         import android.support.v4.media.MediaDescriptionCompat;
         import android.support.v4.media.session.MediaControllerCompat;
         import android.support.v4.media.session.PlaybackStateCompat;
+        import android.support.v7.util.DiffUtil;
         import android.support.v7.widget.RecyclerView;
+        import android.text.TextUtils;
         import android.view.LayoutInflater;
         import android.view.View;
         import android.view.ViewGroup;
-        import android.widget.Filter;
-        import android.widget.Filterable;
         import android.widget.ImageButton;
         import android.widget.ImageView;
         import android.widget.TextView;
@@ -28,15 +30,45 @@
 
         import java.util.ArrayList;
         import java.util.List;
-
-public class MediaBrowserClientUampRecyclerViewAdapter extends RecyclerView.Adapter<MediaBrowserClientUampRecyclerViewAdapter.MyViewHolder>
-        implements Filterable {
-
-    private ArrayList<MediaBrowserCompat.MediaItem> mDataset;
-    private ArrayList<MediaBrowserCompat.MediaItem> mFilteredDataset;
+        import java.util.concurrent.ExecutorService;
+        import java.util.concurrent.Executors;
+        import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shows the children of a browse node, filtered by the text of the search box.
+ *
+ * Filtering runs on a background thread (see {@link BrowseListFilter}). Keystrokes are debounced,
+ * and a new keystroke or a new list cancels the filter in progress, so the UI thread only applies
+ * the result: the rows inserted and removed are notified individually rather than rebinding every
+ * visible row.
+ *
+ * All fields other than the ones marked as owned by the filter thread are used on the UI thread
+ * only.
+ */
+public class MediaBrowserClientUampRecyclerViewAdapter extends RecyclerView.Adapter<MediaBrowserClientUampRecyclerViewAdapter.MyViewHolder> {
 
     private static final String TAG = LogHelper.makeLogTag(MediaBrowserClientUampRecyclerViewAdapter.class);
 
+    private static final long FILTER_DELAY_MS = 150;
+    private static final int[] NO_ROWS = new int[0];
+
+    // One list is on screen at a time, so one thread filters for all of them
+    private static final ExecutorService sFilterExecutor = Executors.newSingleThreadExecutor();
+
+    // The full list, and the positions in it of the items shown
+    private List<MediaBrowserCompat.MediaItem> mItems = new ArrayList<>();
+    private int[] mRows = NO_ROWS;
+    private String mQuery = "";
+    // Incremented by each new list or query, so that older filters stop and are not published
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Runnable mPendingFilter;
+    // A list passed to setItems whose filter result has not been shown yet
+    private List<MediaBrowserCompat.MediaItem> mUnpublishedItems;
+    // Owned by the filter thread: the latest list and its filter
+    private List<MediaBrowserCompat.MediaItem> mFilterItems;
+    private BrowseListFilter mFilter;
+
     public static final int STATE_INVALID = -1;
     public static final int STATE_NONE = 0;
     public static final int STATE_PLAYABLE = 1;
@@ -72,11 +104,8 @@ public class MediaBrowserClientUampRecyclerViewAdapter extends RecyclerView.Adap
         }
     }
 
-    // Provide a suitable constructor (depends on the kind of dataset)
-    public MediaBrowserClientUampRecyclerViewAdapter(ArrayList<MediaBrowserCompat.MediaItem> myDataset,
-                                                     BrowserRecyclerViewAdapterListener listener, Context context) {
-        mDataset = myDataset;
-        mFilteredDataset = myDataset;
+    public MediaBrowserClientUampRecyclerViewAdapter(BrowserRecyclerViewAdapterListener listener,
+                                                     Context context) {
         mListener = listener;
         mContext = context;
     }
@@ -93,44 +122,163 @@ public class MediaBrowserClientUampRecyclerViewAdapter extends RecyclerView.Adap
         return vh;
     }
 
-    @Override
-    public Filter getFilter() {
-        LogHelper.i(TAG, "Filter, getfilter" );
-        return new Filter() {
+    /**
+     * Replaces the full list, filtering it with query straight away
+     */
+    public void setItems(List<MediaBrowserCompat.MediaItem> items, CharSequence query) {
+        cancelPendingFilter();
+        mQuery = query == null ? "" : query.toString();
+        mUnpublishedItems = new ArrayList<>(items);
+        submitFilter(mUnpublishedItems, mQuery);
+    }
+
+    /**
+     * Filters the list with query once typing pauses for FILTER_DELAY_MS
+     */
+    public void setQuery(CharSequence query) {
+        final String newQuery = query == null ? "" : query.toString();
+        if (TextUtils.equals(newQuery, mQuery)) {
+            return;
+        }
+        // also stops a filter that is running for an older query
+        cancelPendingFilter();
+        mQuery = newQuery;
+        mPendingFilter = new Runnable() {
             @Override
-            protected FilterResults performFiltering(CharSequence charSequence) {
-                String charString = charSequence.toString();
-                LogHelper.i(TAG, "Filter, performFiltering:", charString );
-                if (charString.isEmpty()) {
-                    mFilteredDataset = mDataset;
-                } else {
-                    ArrayList<MediaBrowserCompat.MediaItem> filteredList = new ArrayList<>();
-                    for (MediaBrowserCompat.MediaItem item : mDataset) {
-
-                        // name match condition. this might differ depending on your requirement
-                        // here we are looking for name or phone number match
-                        if (item.getDescription().getTitle().toString().toLowerCase().contains(charString.toLowerCase())
-                                || item.getDescription().getSubtitle().toString().toLowerCase().contains(charString.toLowerCase())) {
-                            filteredList.add(item);
+            public void run() {
+                mPendingFilter = null;
+                submitFilter(mUnpublishedItems, newQuery);
+            }
+        };
+        mMainHandler.postDelayed(mPendingFilter, FILTER_DELAY_MS);
+    }
+
+    /**
+     * Drops any filter that has not been applied yet. Call when the list is no longer shown.
+     */
+    public void cancelPendingFilter() {
+        if (mPendingFilter != null) {
+            mMainHandler.removeCallbacks(mPendingFilter);
+            mPendingFilter = null;
+        }
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * @param newItems the new full list, or null to filter the current one again
+     */
+    private void submitFilter(final List<MediaBrowserCompat.MediaItem> newItems,
+                              final String query) {
+        final int generation = mGeneration.incrementAndGet();
+        final List<MediaBrowserCompat.MediaItem> oldItems = mItems;
+        final int[] oldRows = mRows;
+        final BrowseListFilter.Cancellation cancellation = new BrowseListFilter.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return mGeneration.get() != generation;
+            }
+        };
+        sFilterExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (newItems != null && newItems != mFilterItems) {
+                    String[] keys = new String[newItems.size()];
+                    for (int i = 0; i < keys.length; i++) {
+                        MediaDescriptionCompat description = newItems.get(i).getDescription();
+                        keys[i] = BrowseListFilter.searchKey(description.getTitle(),
+                                description.getSubtitle());
+                    }
+                    mFilter = new BrowseListFilter(keys);
+                    mFilterItems = newItems;
+                }
+                if (mFilter == null || cancellation.isCancelled()) {
+                    return;
+                }
+                final int[] rows = mFilter.filter(query, cancellation);
+                if (rows == null) {
+                    return;
+                }
+                final DiffUtil.DiffResult diff = newItems == null ? null
+                        : computeDiff(oldItems, oldRows, newItems, rows);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancellation.isCancelled()) {
+                            publishRows(newItems, rows, diff);
                         }
                     }
+                });
+            }
+        });
+    }
 
-                    mFilteredDataset = filteredList;
+    private void publishRows(List<MediaBrowserCompat.MediaItem> newItems, int[] rows,
+                             DiffUtil.DiffResult diff) {
+        int[] oldRows = mRows;
+        mRows = rows;
+        if (newItems != null) {
+            mItems = newItems;
+            mUnpublishedItems = null;
+            if (diff != null) {
+                diff.dispatchUpdatesTo(this);
+            } else {
+                notifyDataSetChanged();
+            }
+        } else {
+            BrowseListFilter.dispatchUpdates(oldRows, rows, new BrowseListFilter.UpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    notifyItemRangeInserted(position, count);
                 }
 
-                FilterResults filterResults = new FilterResults();
-                filterResults.values = mFilteredDataset ;
-                return filterResults;
+                @Override
+                public void onRemoved(int position, int count) {
+                    notifyItemRangeRemoved(position, count);
+                }
+            });
+        }
+        LogHelper.d(TAG, "Filter, publishResults. Size =", rows.length);
+        mListener.onPublishFilterResults();
+    }
+
+    /**
+     * @return the changes from the old list to the new one, or null if one of them is empty and
+     * there is nothing to compare
+     */
+    private static DiffUtil.DiffResult computeDiff(
+            final List<MediaBrowserCompat.MediaItem> oldItems, final int[] oldRows,
+            final List<MediaBrowserCompat.MediaItem> newItems, final int[] newRows) {
+        if (oldRows.length == 0 || newRows.length == 0) {
+            return null;
+        }
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldRows.length;
             }
 
             @Override
-            protected void publishResults(CharSequence charSequence, FilterResults filterResults) {
-                mFilteredDataset = (ArrayList<MediaBrowserCompat.MediaItem>) filterResults.values;
-                LogHelper.i(TAG, "Filter, publishResults. Size =", mFilteredDataset.size());
-                notifyDataSetChanged();
-                mListener.onPublishFilterResults();
+            public int getNewListSize() {
+                return newRows.length;
             }
-        };
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return TextUtils.equals(oldItems.get(oldRows[oldPosition]).getMediaId(),
+                        newItems.get(newRows[newPosition]).getMediaId());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                MediaBrowserCompat.MediaItem oldItem = oldItems.get(oldRows[oldPosition]);
+                MediaBrowserCompat.MediaItem newItem = newItems.get(newRows[newPosition]);
+                return oldItem.getFlags() == newItem.getFlags()
+                        && TextUtils.equals(oldItem.getDescription().getTitle(),
+                                newItem.getDescription().getTitle())
+                        && TextUtils.equals(oldItem.getDescription().getSubtitle(),
+                                newItem.getDescription().getSubtitle());
+            }
+        }, false);
     }
 
     // Replace the contents of a view (invoked by the layout manager)
@@ -138,7 +286,7 @@ public class MediaBrowserClientUampRecyclerViewAdapter extends RecyclerView.Adap
     public void onBindViewHolder(MyViewHolder holder, int position) {
         // - get element from your dataset at this position
         // - replace the contents of the view with that element
-        final MediaBrowserCompat.MediaItem  item = mFilteredDataset.get(position);
+        final MediaBrowserCompat.MediaItem  item = mItems.get(mRows[position]);
         MediaDescriptionCompat description = item.getDescription();
         holder.titleView.setText(description.getTitle());
         holder.descriptionView.setText(description.getSubtitle());
@@ -187,7 +335,7 @@ public class MediaBrowserClientUampRecyclerViewAdapter extends RecyclerView.Adap
     // Return the size of your dataset (invoked by the layout manager)
     @Override
     public int getItemCount() {
-        return mFilteredDataset.size();
+        return mRows.length;
     }
 
     ///////////////
@@ -47,7 +47,6 @@ import com.example.android.uamp.ui.dialogs.ClearableEditText;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.NetworkHelper;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -77,8 +76,6 @@ public class MediaBrowserUampRecyclerFragment extends Fragment implements MediaB
 
     private MediaBrowserClientUampRecyclerViewAdapter mAdapter;
 
-    ArrayList<MediaBrowserCompat.MediaItem> myDataset;
-
     private final BroadcastReceiver mConnectivityChangeReceiver = new BroadcastReceiver() {
         private boolean oldOnline = false;
         @Override
@@ -133,16 +130,10 @@ public class MediaBrowserUampRecyclerFragment extends Fragment implements MediaB
                         LogHelper.i(TAG, "fragment onChildrenLoaded, parentId=" + parentId +
                                 "  count=" + children.size());
                         checkForUserVisibleErrors(children.isEmpty());
-                        //mBrowserAdapter.clear();
-                        myDataset.clear();
-                        for (MediaBrowserCompat.MediaItem item : children) {
-                            myDataset.add(item);
-                        }
-
                         // We set the filter here, because otherwise if 'albums' are filtered, then we go to an album
                         // then we go back to 'albums' (which still has the filter text)... No albums are shown
                         // until the filter is changed ??? or maybe not...
-                        mAdapter.getFilter().filter(etSearchText.getText());
+                        mAdapter.setItems(children, etSearchText.getText());
 
                     } catch (Throwable t) {
                         LogHelper.e(TAG, "Error on childrenloaded", t);
@@ -200,9 +191,8 @@ public class MediaBrowserUampRecyclerFragment extends Fragment implements MediaB
         // use a linear layout manager
         mLayoutManager = new LinearLayoutManager(getActivity());
         mRecyclerView.setLayoutManager(mLayoutManager);
-        myDataset = new ArrayList<>();
         // specify an adapter
-        mAdapter = new MediaBrowserClientUampRecyclerViewAdapter(myDataset, this, getActivity());
+        mAdapter = new MediaBrowserClientUampRecyclerViewAdapter(this, getActivity());
         mRecyclerView.setAdapter(mAdapter);
 
         etSearchText = (ClearableEditText) rootView.findViewById(R.id.searchText);
@@ -220,7 +210,7 @@ public class MediaBrowserUampRecyclerFragment extends Fragment implements MediaB
 
             @Override
             public void afterTextChanged(Editable s) {
-                mAdapter.getFilter().filter(s.toString());
+                mAdapter.setQuery(s);
             }
         });
 
@@ -268,6 +258,7 @@ public class MediaBrowserUampRecyclerFragment extends Fragment implements MediaB
             controller.unregisterCallback(mMediaControllerCallback);
         }
         this.getActivity().unregisterReceiver(mConnectivityChangeReceiver);
+        mAdapter.cancelPendingFilter();
     }
 
     @Override
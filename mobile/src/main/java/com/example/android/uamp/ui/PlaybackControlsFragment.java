@@ -53,6 +53,7 @@ public class PlaybackControlsFragment extends Fragment {
     private TextView mExtraInfo;
     private ImageView mAlbumArt;
     private String mArtUrl;
+    private AlbumArtCache.FetchRequest mArtRequest;
     // Receive callbacks from the MediaController. Here we update our state such as which queue
     // is being shown, the current AlbumTitle and description and the PlaybackState.
     private final MediaControllerCompat.Callback mCallback = new MediaControllerCompat.Callback() {
@@ -123,6 +124,12 @@ public class PlaybackControlsFragment extends Fragment {
         if (controller != null) {
             controller.unregisterCallback(mCallback);
         }
+        if (mArtRequest != null) {
+            mArtRequest.cancel();
+            mArtRequest = null;
+            // so the art is asked for again when we are restarted
+            mArtUrl = null;
+        }
     }
 
     public void onConnected() {
@@ -158,6 +165,11 @@ public class PlaybackControlsFragment extends Fragment {
         }
         if (!TextUtils.equals(artUrl, mArtUrl)) {
             mArtUrl = artUrl;
+            if (mArtRequest != null) {
+                // we don't want the previous track's art anymore
+                mArtRequest.cancel();
+                mArtRequest = null;
+            }
             Bitmap art = metadata.getDescription().getIconBitmap();
             AlbumArtCache cache = AlbumArtCache.getInstance();
             if (art == null) {
@@ -166,9 +178,10 @@ public class PlaybackControlsFragment extends Fragment {
             if (art != null) {
                 mAlbumArt.setImageBitmap(art);
             } else {
-                cache.fetch(artUrl, new AlbumArtCache.FetchListener() {
+                mArtRequest = cache.fetch(artUrl, new AlbumArtCache.FetchListener() {
                             @Override
                             public void onFetched(String artUrl, Bitmap bitmap, Bitmap icon) {
+                                mArtRequest = null;
                                 if (icon != null) {
                                     LogHelper.d(TAG, "album art icon of w=", icon.getWidth(),
                                             " h=", icon.getHeight());
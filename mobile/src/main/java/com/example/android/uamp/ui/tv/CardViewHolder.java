@@ -43,6 +43,8 @@ public class CardViewHolder extends Presenter.ViewHolder {
 
     private final ImageCardView mCardView;
     private int mItemState;
+    // The art fetch started for the item currently bound to this card, if any
+    private AlbumArtCache.FetchRequest mArtRequest;
 
     public CardViewHolder(View view) {
         super(view);
@@ -93,6 +95,11 @@ public class CardViewHolder extends Presenter.ViewHolder {
         Drawable drawable = MediaItemViewHolder.getDrawableByState(context, mItemState);
         mCardView.setBadgeImage(drawable);
 
+        if (mArtRequest != null) {
+            // the card is being reused for another item
+            mArtRequest.cancel();
+            mArtRequest = null;
+        }
         Uri artUri = description.getIconUri();
         if (artUri == null) {
             setCardImage(context, description.getIconBitmap());
@@ -106,9 +113,10 @@ public class CardViewHolder extends Presenter.ViewHolder {
             } else {
                 // Otherwise, we use iconBitmap if available while we wait for iconURI
                 setCardImage(context, description.getIconBitmap());
-                cache.fetch(artUrl, new AlbumArtCache.FetchListener() {
+                mArtRequest = cache.fetch(artUrl, new AlbumArtCache.FetchListener() {
                     @Override
                     public void onFetched(String artUrl, Bitmap bitmap, Bitmap icon) {
+                        mArtRequest = null;
                         setCardImage(context, bitmap);
                     }
                 });
@@ -17,67 +17,122 @@ package com.example.android.uamp.utils;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
 public class BitmapHelper {
-    private static final String TAG = LogHelper.makeLogTag(BitmapHelper.class);
 
-    // Max read limit that we allow our input stream to mark/reset.
-    private static final int MAX_READ_LIMIT_PER_IMG = 1024 * 1024;
+    // Holds the intermediate, subsampled decodes of decodeSampledBitmap for reuse
+    private static final int MAX_POOL_SIZE = 4 * 1024 * 1024;  // 4 MB
+    private static final BitmapPool sBitmapPool = new BitmapPool(MAX_POOL_SIZE);
 
-    public static Bitmap scaleBitmap(Bitmap src, int maxWidth, int maxHeight) {
-       double scaleFactor = Math.min(
-           ((double) maxWidth)/src.getWidth(), ((double) maxHeight)/src.getHeight());
-        return Bitmap.createScaledBitmap(src,
-            (int) (src.getWidth() * scaleFactor), (int) (src.getHeight() * scaleFactor), false);
-    }
-
-    public static Bitmap scaleBitmap(int scaleFactor, InputStream is) {
-        // Get the dimensions of the bitmap
+    /**
+     * Decodes an encoded image so that it fits in width x height, keeping its aspect ratio.
+     *
+     * The image is first decoded with the largest power-of-two inSampleSize that keeps it at
+     * least as big as the result (which the decoder does cheaply, without ever allocating the
+     * full size image), then scaled exactly. On KitKat and later the subsampled decode writes
+     * into a bitmap from the pool when one of the right size is available, and is given back
+     * to the pool once scaled, so repeated decodes of album art mostly reuse memory.
+     * @param config Bitmap.Config.RGB_565 halves the memory of thumbnails with no alpha
+     * @return the bitmap, or null if data could not be decoded
+     */
+    public static Bitmap decodeSampledBitmap(byte[] data, int width, int height,
+                                             Bitmap.Config config) {
         BitmapFactory.Options bmOptions = new BitmapFactory.Options();
+        bmOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions);
+        if (bmOptions.outWidth <= 0 || bmOptions.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = computePowerOfTwoSampleSize(bmOptions.outWidth, bmOptions.outHeight,
+                width, height);
 
-        // Decode the image file into a Bitmap sized to fill the View
         bmOptions.inJustDecodeBounds = false;
-        bmOptions.inSampleSize = scaleFactor;
+        bmOptions.inSampleSize = sampleSize;
+        bmOptions.inPreferredConfig = config;
+        bmOptions.inMutable = true;
+        // Before KitKat inBitmap only works without subsampling
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bmOptions.inBitmap = sBitmapPool.get(
+                    divideRoundingUp(bmOptions.outWidth, sampleSize),
+                    divideRoundingUp(bmOptions.outHeight, sampleSize), config);
+        }
+        Bitmap sampled;
+        try {
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions);
+        } catch (IllegalArgumentException e) {
+            if (bmOptions.inBitmap == null) {
+                throw e;
+            }
+            // the pooled bitmap could not be reused for this image after all
+            bmOptions.inBitmap = null;
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions);
+        }
+        if (sampled == null) {
+            return null;
+        }
 
-        return BitmapFactory.decodeStream(is, null, bmOptions);
+        double scaleFactor = Math.min(
+                ((double) width)/sampled.getWidth(), ((double) height)/sampled.getHeight());
+        if (scaleFactor >= 1) {
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled,
+                Math.max(1, (int) Math.round(sampled.getWidth() * scaleFactor)),
+                Math.max(1, (int) Math.round(sampled.getHeight() * scaleFactor)), true);
+        if (scaled != sampled) {
+            sBitmapPool.put(sampled);
+        }
+        return scaled;
     }
 
-    public static int findScaleFactor(int targetW, int targetH, InputStream is) {
-        // Get the dimensions of the bitmap
-        BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-        bmOptions.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(is, null, bmOptions);
-        int actualW = bmOptions.outWidth;
-        int actualH = bmOptions.outHeight;
+    /**
+     * @return the largest power of two inSampleSize that still leaves a srcWidth x srcHeight
+     * image at least as large as the largest size that fits in width x height
+     */
+    static int computePowerOfTwoSampleSize(int srcWidth, int srcHeight, int width, int height) {
+        double scaleFactor = Math.min(((double) width)/srcWidth, ((double) height)/srcHeight);
+        int sampleSize = 1;
+        while (scaleFactor * sampleSize * 2 <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
 
-        // Determine how much to scale down the image
-        return Math.min(actualW/targetW, actualH/targetH);
+    private static int divideRoundingUp(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
     }
 
-    @SuppressWarnings("SameParameterValue")
-    public static Bitmap fetchAndRescaleBitmap(String uri, int width, int height)
-            throws IOException {
+    /**
+     * Downloads the (encoded) content at uri
+     */
+    public static byte[] fetchBytes(String uri) throws IOException {
         URL url = new URL(uri);
-        BufferedInputStream is = null;
+        InputStream is = null;
         try {
             HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            is = new BufferedInputStream(urlConnection.getInputStream());
-            is.mark(MAX_READ_LIMIT_PER_IMG);
-            int scaleFactor = findScaleFactor(width, height, is);
-            LogHelper.d(TAG, "Scaling bitmap ", uri, " by factor ", scaleFactor, " to support ",
-                    width, "x", height, "requested dimension");
-            is.reset();
-            return scaleBitmap(scaleFactor, is);
+            is = urlConnection.getInputStream();
+            return readFully(is);
         } finally {
             if (is != null) {
                 is.close();
             }
         }
     }
+
+    public static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.utils;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mutable bitmaps that are no longer used, kept so that decodes can write into them
+ * (through BitmapFactory.Options.inBitmap) instead of allocating new ones.
+ *
+ * Bitmaps are grouped by width, height and config. The pool holds at most maxBytes;
+ * past that the bitmaps that were put in first are recycled.
+ * Only put bitmaps in here that nothing else references anymore.
+ */
+public class BitmapPool {
+
+    private final long mMaxBytes;
+    private long mBytes;
+    private final Map<String, ArrayDeque<Bitmap>> mBitmapsByKey = new HashMap<>();
+    // every pooled bitmap, oldest first
+    private final ArrayDeque<Bitmap> mInsertionOrder = new ArrayDeque<>();
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return a pooled bitmap of exactly this size and config (removing it from the pool),
+     * or null if there is none
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = mBitmapsByKey.get(key(width, height, config));
+        if (bitmaps == null || bitmaps.isEmpty()) {
+            return null;
+        }
+        Bitmap bitmap = bitmaps.pollLast();
+        mInsertionOrder.removeFirstOccurrence(bitmap);
+        mBytes -= bitmap.getByteCount();
+        return bitmap;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getByteCount() > mMaxBytes) {
+            return;
+        }
+        String key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = mBitmapsByKey.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            mBitmapsByKey.put(key, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        mInsertionOrder.addLast(bitmap);
+        mBytes += bitmap.getByteCount();
+
+        while (mBytes > mMaxBytes) {
+            Bitmap eldest = mInsertionOrder.pollFirst();
+            mBitmapsByKey.get(key(eldest.getWidth(), eldest.getHeight(), eldest.getConfig()))
+                    .removeFirstOccurrence(eldest);
+            mBytes -= eldest.getByteCount();
+            eldest.recycle();
+        }
+    }
+
+    private static String key(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of files in one directory, evicting the least recently used entries.
+ *
+ * The set of entries and their sizes live in memory and are rebuilt at open time from a
+ * journal, an append-only log of the changes made to the directory. Lookups therefore never
+ * list or stat the directory. The journal is rewritten from the in-memory index once it has
+ * grown well past the number of entries. If the journal can't be read, the directory is
+ * cleared and the cache starts out empty.
+ *
+ * Keys must match [a-z0-9_-]{1,120} as they are used as file names.
+ * All methods are synchronized; file I/O happens on the calling thread. Failures are not
+ * reported: at worst they turn into cache misses.
+ */
+public class DiskLruCache {
+
+    static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "uamp.DiskLruCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    private static final int MIN_REDUNDANT_OPS_BEFORE_REBUILD = 2000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    // key -> file size, in access order (eldest first)
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private long mSize;
+    private int mRedundantOps;
+    private Writer mJournal;
+    private boolean mOpened;
+
+    /**
+     * Nothing is read from disk until the first call that needs it
+     */
+    public DiskLruCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the file holding the value for key, or null if it isn't cached
+     */
+    public synchronized File get(String key) {
+        if (!open()) {
+            return null;
+        }
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        File file = entryFile(key);
+        if (!file.exists()) {
+            // deleted behind our back
+            removeEntry(key);
+            return null;
+        }
+        appendJournal(READ, key, null);
+        return file;
+    }
+
+    /**
+     * Stores value under key, replacing any previous value, then evicts the least recently
+     * used entries until the cache fits in its maximum size again.
+     */
+    public synchronized void put(String key, byte[] value) throws IOException {
+        if (!open()) {
+            throw new IOException("Cache directory " + mDirectory + " is not usable");
+        }
+        File tmp = new File(mDirectory, key + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(value);
+        } finally {
+            out.close();
+        }
+        File file = entryFile(key);
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp);
+        }
+
+        Long previous = mEntries.put(key, (long) value.length);
+        if (previous != null) {
+            mSize -= previous;
+            mRedundantOps++;
+        }
+        mSize += value.length;
+        appendJournal(CLEAN, key, Long.toString(value.length));
+        trimToSize();
+    }
+
+    public synchronized void remove(String key) {
+        if (open() && mEntries.containsKey(key)) {
+            removeEntry(key);
+        }
+    }
+
+    public synchronized long size() {
+        open();
+        return mSize;
+    }
+
+    /**
+     * Flushes and closes the journal. The cache reopens itself if used again.
+     */
+    public synchronized void close() {
+        if (mJournal != null) {
+            closeQuietly(mJournal);
+            mJournal = null;
+        }
+        mOpened = false;
+        mEntries.clear();
+        mSize = 0;
+        mRedundantOps = 0;
+    }
+
+    private File entryFile(String key) {
+        return new File(mDirectory, key);
+    }
+
+    private void removeEntry(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        entryFile(key).delete();
+        appendJournal(REMOVE, key, null);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            mSize -= eldest.getValue();
+            entryFile(eldest.getKey()).delete();
+            appendJournal(REMOVE, eldest.getKey(), null);
+        }
+    }
+
+    private boolean open() {
+        if (mOpened) {
+            return mJournal != null;
+        }
+        mOpened = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return false;
+        }
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+                mJournal = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(journal, true), UTF_8));
+                return true;
+            } catch (IOException e) {
+                // unreadable journal: start again from scratch
+                mEntries.clear();
+                mSize = 0;
+                mRedundantOps = 0;
+            }
+        }
+        // Either a new cache or a broken one: in both cases we can't trust what's in there
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        return rebuildJournal();
+    }
+
+    private void readJournal(File journal) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journal), UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("unexpected journal header");
+            }
+            int lines = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // a torn last line from a crash mid-append
+                    continue;
+                }
+                String key = parts[1];
+                if (CLEAN.equals(parts[0]) && parts.length == 3) {
+                    long size;
+                    try {
+                        size = Long.parseLong(parts[2]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    Long previous = mEntries.put(key, size);
+                    if (previous != null) {
+                        mSize -= previous;
+                    }
+                    mSize += size;
+                } else if (REMOVE.equals(parts[0])) {
+                    Long previous = mEntries.remove(key);
+                    if (previous != null) {
+                        mSize -= previous;
+                    }
+                } else if (READ.equals(parts[0])) {
+                    // moves the key to the most recently used end
+                    mEntries.get(key);
+                }
+            }
+            mRedundantOps = lines - mEntries.size();
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Writes a fresh journal holding just the current entries, oldest first
+     */
+    private boolean rebuildJournal() {
+        if (mJournal != null) {
+            closeQuietly(mJournal);
+            mJournal = null;
+        }
+        File tmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF_8));
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+            File journal = new File(mDirectory, JOURNAL_FILE);
+            if (!tmp.renameTo(journal)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+            mJournal = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journal, true), UTF_8));
+            mRedundantOps = 0;
+            return true;
+        } catch (IOException e) {
+            // the cache stays disabled until close() lets it try again
+            if (writer != null) {
+                closeQuietly(writer);
+            }
+            return false;
+        }
+    }
+
+    private void appendJournal(String op, String key, String value) {
+        if (mJournal == null) {
+            return;
+        }
+        if (!CLEAN.equals(op)) {
+            mRedundantOps++;
+        }
+        try {
+            mJournal.write(value == null ? op + " " + key + "\n" : op + " " + key + " " + value + "\n");
+            mJournal.flush();
+        } catch (IOException e) {
+            // Losing a line only loses recency or lets an entry be forgotten (leaking its
+            // file until the next rebuild), neither of which breaks the cache
+        }
+        if (mRedundantOps >= MIN_REDUNDANT_OPS_BEFORE_REBUILD && mRedundantOps >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing we can do
+        }
+    }
+}
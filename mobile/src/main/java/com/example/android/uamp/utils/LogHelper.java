@@ -19,12 +19,30 @@ import android.util.Log;
 
 import com.example.android.uamp.BuildConfig;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The v, d and i methods have overloads for up to four message parts, for a string and a
+ * primitive, and for a MessageSupplier, so that calls in loops don't allocate a varargs array,
+ * box numbers or build a message when the level is not logged.
+ */
 public class LogHelper {
 
+    /**
+     * Builds a message only if it is going to be logged
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
     private static final String LOG_PREFIX = "uamp_";
     private static final int LOG_PREFIX_LENGTH = LOG_PREFIX.length();
     private static final int MAX_LOG_TAG_LENGTH = 23;
 
+    // tag -> lowest level Log.isLoggable allows for it. Log.isLoggable reads a system property,
+    // so it is asked once per tag: a level changed with setprop applies after a restart.
+    private static final ConcurrentHashMap<String, Integer> sMinLevels = new ConcurrentHashMap<>();
+
     public static String makeLogTag(String str) {
         if (str.length() > MAX_LOG_TAG_LENGTH - LOG_PREFIX_LENGTH) {
             return LOG_PREFIX + str.substring(0, MAX_LOG_TAG_LENGTH - LOG_PREFIX_LENGTH - 1);
@@ -59,6 +77,114 @@ public class LogHelper {
         log(tag, Log.INFO, null, messages);
     }
 
+    public static void v(String tag, Object message) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.VERBOSE)) {
+            Log.println(Log.VERBOSE, tag, String.valueOf(message));
+        }
+    }
+
+    public static void v(String tag, Object m1, Object m2) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.VERBOSE)) {
+            Log.println(Log.VERBOSE, tag, concat(m1, m2));
+        }
+    }
+
+    public static void v(String tag, Object m1, Object m2, Object m3) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.VERBOSE)) {
+            Log.println(Log.VERBOSE, tag, concat(m1, m2, m3));
+        }
+    }
+
+    public static void v(String tag, Object m1, Object m2, Object m3, Object m4) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.VERBOSE)) {
+            Log.println(Log.VERBOSE, tag, concat(m1, m2, m3, m4));
+        }
+    }
+
+    public static void v(String tag, String message, long value) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.VERBOSE)) {
+            Log.println(Log.VERBOSE, tag, message + value);
+        }
+    }
+
+    public static void v(String tag, MessageSupplier message) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.VERBOSE)) {
+            Log.println(Log.VERBOSE, tag, message.get());
+        }
+    }
+
+    public static void d(String tag, Object message) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.DEBUG)) {
+            Log.println(Log.DEBUG, tag, String.valueOf(message));
+        }
+    }
+
+    public static void d(String tag, Object m1, Object m2) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.DEBUG)) {
+            Log.println(Log.DEBUG, tag, concat(m1, m2));
+        }
+    }
+
+    public static void d(String tag, Object m1, Object m2, Object m3) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.DEBUG)) {
+            Log.println(Log.DEBUG, tag, concat(m1, m2, m3));
+        }
+    }
+
+    public static void d(String tag, Object m1, Object m2, Object m3, Object m4) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.DEBUG)) {
+            Log.println(Log.DEBUG, tag, concat(m1, m2, m3, m4));
+        }
+    }
+
+    public static void d(String tag, String message, long value) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.DEBUG)) {
+            Log.println(Log.DEBUG, tag, message + value);
+        }
+    }
+
+    public static void d(String tag, MessageSupplier message) {
+        if (BuildConfig.DEBUG && isLoggable(tag, Log.DEBUG)) {
+            Log.println(Log.DEBUG, tag, message.get());
+        }
+    }
+
+    public static void i(String tag, Object message) {
+        if (isLoggable(tag, Log.INFO)) {
+            Log.println(Log.INFO, tag, String.valueOf(message));
+        }
+    }
+
+    public static void i(String tag, Object m1, Object m2) {
+        if (isLoggable(tag, Log.INFO)) {
+            Log.println(Log.INFO, tag, concat(m1, m2));
+        }
+    }
+
+    public static void i(String tag, Object m1, Object m2, Object m3) {
+        if (isLoggable(tag, Log.INFO)) {
+            Log.println(Log.INFO, tag, concat(m1, m2, m3));
+        }
+    }
+
+    public static void i(String tag, Object m1, Object m2, Object m3, Object m4) {
+        if (isLoggable(tag, Log.INFO)) {
+            Log.println(Log.INFO, tag, concat(m1, m2, m3, m4));
+        }
+    }
+
+    public static void i(String tag, String message, long value) {
+        if (isLoggable(tag, Log.INFO)) {
+            Log.println(Log.INFO, tag, message + value);
+        }
+    }
+
+    public static void i(String tag, MessageSupplier message) {
+        if (isLoggable(tag, Log.INFO)) {
+            Log.println(Log.INFO, tag, message.get());
+        }
+    }
+
     public static void w(String tag, Object... messages) {
         log(tag, Log.WARN, null, messages);
     }
@@ -76,11 +202,11 @@ public class LogHelper {
     }
 
     public static void log(String tag, int level, Throwable t, Object... messages) {
-        if (Log.isLoggable(tag, level)) {
+        if (isLoggable(tag, level)) {
             String message;
             if (t == null && messages != null && messages.length == 1) {
                 // handle this common case without the extra cost of creating a stringbuffer:
-                message = messages[0].toString();
+                message = String.valueOf(messages[0]);
             } else {
                 StringBuilder sb = new StringBuilder();
                 if (messages != null) for (Object m : messages) {
@@ -94,4 +220,32 @@ public class LogHelper {
             Log.println(level, tag, message);
         }
     }
+
+    /**
+     * Log.isLoggable, remembered per tag
+     */
+    public static boolean isLoggable(String tag, int level) {
+        Integer minLevel = sMinLevels.get(tag);
+        if (minLevel == null) {
+            int lowest = Log.VERBOSE;
+            while (lowest < Log.ASSERT && !Log.isLoggable(tag, lowest)) {
+                lowest++;
+            }
+            minLevel = lowest;
+            sMinLevels.put(tag, minLevel);
+        }
+        return level >= minLevel;
+    }
+
+    private static String concat(Object m1, Object m2) {
+        return new StringBuilder().append(m1).append(m2).toString();
+    }
+
+    private static String concat(Object m1, Object m2, Object m3) {
+        return new StringBuilder().append(m1).append(m2).append(m3).toString();
+    }
+
+    private static String concat(Object m1, Object m2, Object m3, Object m4) {
+        return new StringBuilder().append(m1).append(m2).append(m3).append(m4).toString();
+    }
 }
@@ -26,6 +26,7 @@ import android.text.TextUtils;
 
 import com.example.android.uamp.VoiceSearchParams;
 import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.playback.IndexedQueue;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -171,9 +172,7 @@ public class QueueHelper {
         // a PodCast application wouldn't get results if we only looked at the
         // Artist (podcast author). Then, we can instead do an unstructured search.
         if (params.isUnstructured || result == null || !result.iterator().hasNext()) {
-            // To keep it simple for this example, we do unstructured searches on the
-            // song AlbumTitle only. A real world application could search on other fields as well.
-            result = musicProvider.searchMusicBySongTitle(query);
+            result = musicProvider.searchMusicUnstructured(query);
         }
 
         return convertToQueue(result, MEDIA_ID_MUSICS_BY_SEARCH, query);
@@ -194,6 +193,9 @@ public class QueueHelper {
 
     public static int getMusicIndexOnQueue(Iterable<MediaSessionCompat.QueueItem> queue,
              long queueId) {
+        if (queue instanceof IndexedQueue) {
+            return ((IndexedQueue<?>) queue).indexOfKey(queueId);
+        }
         int index = 0;
         for (MediaSessionCompat.QueueItem item : queue) {
             if (queueId == item.getQueueId()) {
@@ -246,13 +248,11 @@ public class QueueHelper {
             {
                 LogHelper.i(TAG, "TRACK IS NULL");
             } else {
-                LogHelper.i(TAG, "track not null ", track.getDescription());
-
-                String hierarchyAwareMediaID = MediaIDHelper.createMediaID(
-                        track.getDescription().getMediaId(), categories);
-                LogHelper.i(TAG, "track not null desc=", track.getDescription(), "mediaID=", track.getDescription().getMediaId(), "hierarchyAwareMediaID=", hierarchyAwareMediaID);
+                String mediaId = track.getDescription().getMediaId();
+                String hierarchyAwareMediaID = MediaIDHelper.createMediaID(mediaId, categories);
+                LogHelper.v(TAG, "track mediaID=", mediaId, " hierarchyAwareMediaID=", hierarchyAwareMediaID);
                 MediaMetadataCompat trackCopy = new MediaMetadataCompat.Builder(track)
-                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, track.getDescription().getMediaId()/*hierarchyAwareMediaID*/)
+                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, mediaId/*hierarchyAwareMediaID*/)
                         .build();
 
                 // We don't expect queues to change after created, so we use the item index as the
@@ -274,18 +274,7 @@ public class QueueHelper {
      * @return list containing {@link MediaSessionCompat.QueueItem}'s
      */
     public static List<MediaSessionCompat.QueueItem> getRandomQueue(MusicProvider musicProvider, int numSongs) {
-        List<MediaMetadataCompat> result = new ArrayList<>(numSongs);
-
-        MediaMetadataCompat randomlyChosenTrack;
-        for (int i = 0 ; i < numSongs ; i++) {
-            randomlyChosenTrack = musicProvider.getRandomSongFromAllSongsOnDevice();
-            result.add(randomlyChosenTrack);
-            if (randomlyChosenTrack == null) {
-                LogHelper.i(TAG, "randomlyChosenTrack is NULL");
-            } else {
-                LogHelper.i(TAG, "randomly chosen track: ", randomlyChosenTrack.getDescription().getTitle());
-            }
-        }
+        List<MediaMetadataCompat> result = musicProvider.getRandomSongs(numSongs);
 
         LogHelper.i(TAG, "getRandomQueue: result.size=", result.size());
 
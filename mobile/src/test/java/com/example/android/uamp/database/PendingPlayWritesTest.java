@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.database;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link PendingPlayWrites} class.
+ */
+@RunWith(JUnit4.class)
+public class PendingPlayWritesTest {
+
+    private PendingPlayWrites writes;
+    private RecordingDao dao;
+
+    @Before
+    public void setup() {
+        writes = new PendingPlayWrites();
+        dao = new RecordingDao();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertTrue(writes.isEmpty());
+        writes.applyTo(dao);
+        assertEquals(Collections.emptyList(), dao.statements);
+    }
+
+    @Test
+    public void testPlaysOfATrackAreSummed() throws Exception {
+        writes.add(1, 100);
+        writes.add(2, 200);
+        writes.add(1, 300);
+        assertFalse(writes.isEmpty());
+        writes.applyTo(dao);
+        assertEquals(Arrays.asList("insert [1@100, 2@200, 1@300]",
+                "stats 1 +2 @300 c0 s0", "stats 2 +1 @200 c0 s0"), dao.statements);
+        assertEquals(2, dao.stats.get(1L)[0]);
+    }
+
+    @Test
+    public void testExistingStatsAreUpdated() throws Exception {
+        dao.stats.put(1L, new long[] {5, 50, 0, 0});
+        writes.add(1, 100);
+        writes.applyTo(dao);
+        assertEquals(6, dao.stats.get(1L)[0]);
+        assertEquals(100, dao.stats.get(1L)[1]);
+    }
+
+    @Test
+    public void testCompletionsAndSkipsAreSummed() throws Exception {
+        dao.stats.put(2L, new long[] {3, 50, 1, 0});
+        writes.addCompletion(1);
+        writes.addSkip(2);
+        writes.addSkip(2);
+        writes.add(1, 100);
+        assertFalse(writes.isEmpty());
+        writes.applyTo(dao);
+        assertEquals(Arrays.asList("insert [1@100]",
+                "stats 1 +1 @100 c1 s0", "stats 2 +0 @0 c0 s2"), dao.statements);
+        assertArrayEquals(new long[] {1, 100, 1, 0}, dao.stats.get(1L));
+        assertArrayEquals(new long[] {3, 50, 1, 2}, dao.stats.get(2L));
+    }
+
+    private static class RecordingDao implements PlayHistoryDao {
+        final List<String> statements = new ArrayList<>();
+        // trackId -> {play count, last played, completions, skips}
+        final Map<Long, long[]> stats = new HashMap<>();
+
+        @Override
+        public void insertPlayEvents(List<PlayEvent> events) {
+            List<String> parts = new ArrayList<>();
+            for (PlayEvent event : events) {
+                parts.add(event.getTrackId() + "@" + event.getPlayedAt());
+            }
+            statements.add("insert " + parts);
+        }
+
+        @Override
+        public List<Long> getRecentTrackIds(int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int deletePlayEventsBefore(long cutoff, int keep) {
+            return 0;
+        }
+
+        @Override
+        public int addCounts(long trackId, int plays, long lastPlayed, int completions,
+                             int skips) {
+            statements.add("stats " + trackId + " +" + plays + " @" + lastPlayed
+                    + " c" + completions + " s" + skips);
+            long[] row = stats.get(trackId);
+            if (row == null) {
+                return 0;
+            }
+            row[0] += plays;
+            row[1] = Math.max(row[1], lastPlayed);
+            row[2] += completions;
+            row[3] += skips;
+            return 1;
+        }
+
+        @Override
+        public void insertTrackStats(TrackStats trackStats) {
+            stats.put(trackStats.getTrackId(), new long[] {trackStats.getPlayCount(),
+                    trackStats.getLastPlayed(), trackStats.getCompleteCount(),
+                    trackStats.getSkipCount()});
+        }
+
+        @Override
+        public TrackStats getTrackStats(long trackId) {
+            return null;
+        }
+
+        @Override
+        public List<TrackStats> getRatedTrackStats() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.database;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link PendingQueueWrites} class. Checks that bursts of queue mutations
+ * are folded into the smallest set of statements.
+ */
+@RunWith(JUnit4.class)
+public class PendingQueueWritesTest {
+
+    private PendingQueueWrites writes;
+    private RecordingDao dao;
+
+    @Before
+    public void setup() {
+        writes = new PendingQueueWrites();
+        dao = new RecordingDao();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertTrue(writes.isEmpty());
+        writes.applyTo(dao);
+        assertEquals(Collections.emptyList(), dao.statements);
+    }
+
+    @Test
+    public void testAppendThenRemoveWritesNothing() throws Exception {
+        writes.append(Arrays.asList(song(1, 0), song(2, 1)));
+        writes.remove(Collections.singletonList(2L));
+        writes.applyTo(dao);
+        assertEquals(Arrays.asList("delete [2]", "insert [1@0]"), dao.statements);
+    }
+
+    @Test
+    public void testReorderFoldsIntoInsertsAndUpdates() throws Exception {
+        writes.append(Collections.singletonList(song(1, 0)));
+        writes.reorder(Arrays.asList(song(1, 5), song(7, 6)));
+        writes.reorder(Collections.singletonList(song(7, 2)));
+        writes.applyTo(dao);
+        assertEquals(Arrays.asList("insert [1@5]", "update [7@2]"), dao.statements);
+    }
+
+    @Test
+    public void testReplaceDiscardsEarlierChanges() throws Exception {
+        writes.append(Collections.singletonList(song(1, 0)));
+        writes.remove(Collections.singletonList(3L));
+        writes.replace(Arrays.asList(song(4, 0), song(5, 1)));
+        writes.remove(Collections.singletonList(5L));
+        assertFalse(writes.isEmpty());
+        writes.applyTo(dao);
+        assertEquals(Arrays.asList("deleteAll", "insert [4@0]"), dao.statements);
+    }
+
+    @Test
+    public void testLargeDeletesAreChunked() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 0; i < PendingQueueWrites.MAX_DELETE_BATCH + 1; i++) {
+            ids.add(i);
+        }
+        writes.remove(ids);
+        writes.applyTo(dao);
+        assertEquals(2, dao.statements.size());
+        assertEquals("delete [" + PendingQueueWrites.MAX_DELETE_BATCH + "]", dao.statements.get(1));
+    }
+
+    private static QueuedSong song(long queueId, int order) {
+        return new QueuedSong(queueId, order, (int) queueId, Long.toString(queueId));
+    }
+
+    private static String describe(List<QueuedSong> songs) {
+        List<String> parts = new ArrayList<>();
+        for (QueuedSong song : songs) {
+            parts.add(song.getQueueId() + "@" + song.getQueueorder());
+        }
+        return parts.toString();
+    }
+
+    private static class RecordingDao implements QueuedSongDao {
+        final List<String> statements = new ArrayList<>();
+
+        @Override
+        public void insertQueuedSong(QueuedSong song) {
+            statements.add("insert " + describe(Collections.singletonList(song)));
+        }
+
+        @Override
+        public void insertQueuedSongs(List<QueuedSong> songs) {
+            statements.add("insert " + describe(songs));
+        }
+
+        @Override
+        public void updateQueuedSongs(List<QueuedSong> songs) {
+            statements.add("update " + describe(songs));
+        }
+
+        @Override
+        public List<QueuedSong> getAllQueuedSongs() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public QueuedSong getQueuedSongByOrder(int queueorder) {
+            return null;
+        }
+
+        @Override
+        public void deleteQueuedSong(int queueorder) {
+            statements.add("delete order " + queueorder);
+        }
+
+        @Override
+        public void deleteQueuedSongs(List<Long> queueIds) {
+            statements.add("delete " + queueIds);
+        }
+
+        @Override
+        public void deleteAllQueuedSongs() {
+            statements.add("deleteAll");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link CatalogDelta} class.
+ */
+@RunWith(JUnit4.class)
+public class CatalogDeltaTest {
+
+    private TrackCatalog catalog;
+
+    @Before
+    public void setupCatalog() {
+        catalog = base().build();
+    }
+
+    private static TrackCatalog.Builder base() {
+        return new TrackCatalog.Builder(4)
+                .addTrack(10, "Alpha", "Joe Singer", 2, "Album 2", 20, 4200, 1)
+                .addTrack(20, "bravo", "Smith Singer", 1, "Album 1", 10, 3300, 2)
+                .addTrack(30, "charlie", "Smith Singer", 1, "Album 1", 10, 3200, 3);
+    }
+
+    @Test
+    public void testNoChanges() throws Exception {
+        CatalogDelta delta = CatalogDelta.compute(catalog, base().build());
+        assertFalse(delta.hasChanges());
+        assertFalse(delta.isAlbumListChanged());
+        assertFalse(delta.isArtistListChanged());
+    }
+
+    @Test
+    public void testTrackAddedToExistingAlbum() throws Exception {
+        TrackCatalog updated = base()
+                .addTrack(40, "delta", "Smith Singer", 1, "Album 1", 10, 3000, 4)
+                .build();
+        CatalogDelta delta = CatalogDelta.compute(catalog, updated);
+        assertTrue(delta.hasChanges());
+        assertEquals(new HashSet<>(Arrays.asList(10L)), delta.getChangedAlbumIds());
+        assertEquals(new HashSet<>(Arrays.asList(1L)), delta.getChangedArtistIds());
+        assertFalse(delta.isAlbumListChanged());
+        assertFalse(delta.isArtistListChanged());
+    }
+
+    @Test
+    public void testTrackMovedToNewAlbum() throws Exception {
+        TrackCatalog updated = new TrackCatalog.Builder(4)
+                .addTrack(10, "Alpha", "Joe Singer", 2, "Album 3", 30, 4200, 1)
+                .addTrack(20, "bravo", "Smith Singer", 1, "Album 1", 10, 3300, 2)
+                .addTrack(30, "charlie", "Smith Singer", 1, "Album 1", 10, 3200, 3)
+                .build();
+        CatalogDelta delta = CatalogDelta.compute(catalog, updated);
+        assertEquals(new HashSet<>(Arrays.asList(20L, 30L)), delta.getChangedAlbumIds());
+        assertEquals(new HashSet<>(Arrays.asList(2L)), delta.getChangedArtistIds());
+        assertTrue(delta.isAlbumListChanged());
+        assertFalse(delta.isArtistListChanged());
+    }
+
+    @Test
+    public void testArtistRemoved() throws Exception {
+        TrackCatalog updated = new TrackCatalog.Builder(2)
+                .addTrack(20, "bravo", "Smith Singer", 1, "Album 1", 10, 3300, 2)
+                .addTrack(30, "charlie", "Smith Singer", 1, "Album 1", 10, 3200, 3)
+                .build();
+        CatalogDelta delta = CatalogDelta.compute(catalog, updated);
+        assertEquals(new HashSet<>(Arrays.asList(20L)), delta.getChangedAlbumIds());
+        assertEquals(new HashSet<>(Arrays.asList(2L)), delta.getChangedArtistIds());
+        assertTrue(delta.isAlbumListChanged());
+        assertTrue(delta.isArtistListChanged());
+    }
+}
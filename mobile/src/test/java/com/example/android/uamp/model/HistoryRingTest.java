@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the {@link HistoryRing} class.
+ */
+@RunWith(JUnit4.class)
+public class HistoryRingTest {
+
+    @Test
+    public void testAddDropsOldest() throws Exception {
+        HistoryRing<String> ring = new HistoryRing<>(3);
+        assertNull(ring.peekNewest());
+        for (String item : Arrays.asList("a", "b", "c", "d", "e")) {
+            ring.add(item);
+        }
+        assertEquals(3, ring.size());
+        assertEquals("e", ring.peekNewest());
+        assertEquals(Arrays.asList("e", "d", "c"), ring.toList(0, Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("d"), ring.toList(1, 1));
+        assertEquals(Collections.emptyList(), ring.toList(5, 10));
+    }
+
+    @Test
+    public void testSetCapacityKeepsNewest() throws Exception {
+        HistoryRing<String> ring = new HistoryRing<>(4);
+        for (String item : Arrays.asList("a", "b", "c", "d", "e")) {
+            ring.add(item);
+        }
+        ring.setCapacity(2);
+        assertEquals(Arrays.asList("e", "d"), ring.toList(0, 10));
+        ring.setCapacity(3);
+        ring.add("f");
+        ring.add("g");
+        assertEquals(Arrays.asList("g", "f", "e"), ring.toList(0, 10));
+    }
+
+    @Test
+    public void testZeroCapacity() throws Exception {
+        HistoryRing<String> ring = new HistoryRing<>(0);
+        ring.add("a");
+        assertEquals(0, ring.size());
+        ring.setCapacity(1);
+        ring.add("b");
+        assertEquals("b", ring.peekNewest());
+    }
+}
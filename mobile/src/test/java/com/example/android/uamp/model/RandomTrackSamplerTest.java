@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link RandomTrackSampler} class.
+ */
+@RunWith(JUnit4.class)
+public class RandomTrackSamplerTest {
+
+    private TrackCatalog catalog;
+    private RandomTrackSampler sampler;
+
+    @Before
+    public void setupCatalog() {
+        TrackCatalog.Builder builder = new TrackCatalog.Builder(100);
+        for (int i = 0; i < 100; i++) {
+            // every tenth track is a short jingle
+            long duration = i % 10 == 0 ? 5000 : 200000;
+            builder.addTrack(i, "Music " + i, "Artist", 1, "Album", 1, duration, i);
+        }
+        catalog = builder.build();
+        sampler = new RandomTrackSampler(new Random(42), null, 0);
+    }
+
+    @Test
+    public void testSampleIsDistinct() throws Exception {
+        for (int run = 0; run < 50; run++) {
+            int[] rows = sampler.sample(catalog, 0, 50);
+            assertEquals(50, rows.length);
+            Set<Integer> seen = new HashSet<>();
+            for (int row : rows) {
+                assertTrue(seen.add(row));
+            }
+        }
+    }
+
+    @Test
+    public void testSampleRespectsMinDuration() throws Exception {
+        int[] rows = sampler.sample(catalog, 30000, 1000);
+        assertEquals(90, rows.length);
+        for (int row : rows) {
+            assertTrue(catalog.getDurationMs(row) > 30000);
+        }
+    }
+
+    @Test
+    public void testSampleFollowsWeights() throws Exception {
+        TrackStatistics statistics = new TrackStatistics();
+        RandomTrackSampler weighted = new RandomTrackSampler(new Random(42), statistics, 0);
+        // track 1 is always played to the end, track 2 always skipped
+        for (int i = 0; i < 10; i++) {
+            statistics.recordCompletion(1);
+            statistics.recordSkip(2);
+        }
+        int[] picks = new int[100];
+        for (int run = 0; run < 2000; run++) {
+            picks[(int) catalog.getId(weighted.sample(catalog, 30000, 1)[0])]++;
+        }
+        // weights 32, 1 and 8 out of a total of about 90 * 8
+        assertTrue(picks[1] > 2 * picks[3]);
+        assertTrue(picks[2] * 4 < picks[3]);
+
+        // changed stats are picked up without a new catalog
+        for (int i = 0; i < 20; i++) {
+            statistics.recordSkip(1);
+        }
+        Arrays.fill(picks, 0);
+        for (int run = 0; run < 2000; run++) {
+            picks[(int) catalog.getId(weighted.sample(catalog, 30000, 1)[0])]++;
+        }
+        assertTrue(picks[1] < picks[3]);
+
+        // a sample is still distinct and complete when weights differ
+        int[] rows = weighted.sample(catalog, 30000, 1000);
+        assertEquals(90, rows.length);
+        assertEquals(90, new HashSet<>(toList(rows)).size());
+    }
+
+    @Test
+    public void testRecentTracksAreNotPickedAgain() throws Exception {
+        RandomTrackSampler windowed = new RandomTrackSampler(new Random(42), null, 60);
+        windowed.markRecent(1);
+        windowed.markRecent(2);
+        List<Integer> picked = new ArrayList<>();
+        for (int run = 0; run < 29; run++) {
+            picked.addAll(toList(windowed.sample(catalog, 30000, 2)));
+        }
+        // 58 picks plus the 2 marked tracks fill the window, so none of them repeat
+        assertEquals(58, new HashSet<>(picked).size());
+        assertTrue(!picked.contains(catalog.indexOf(1)) && !picked.contains(catalog.indexOf(2)));
+
+        // only 30 tracks are outside the window now: the rest come from its oldest end
+        int[] rows = windowed.sample(catalog, 30000, 40);
+        assertEquals(40, rows.length);
+        assertEquals(40, new HashSet<>(toList(rows)).size());
+    }
+
+    private static List<Integer> toList(int[] rows) {
+        List<Integer> list = new ArrayList<>();
+        for (int row : rows) {
+            list.add(row);
+        }
+        return list;
+    }
+
+    @Test
+    public void testSampleOfEmptyCatalog() throws Exception {
+        assertEquals(0, sampler.sample(TrackCatalog.EMPTY, 0, 10).length);
+        assertEquals(0, sampler.sample(catalog, 0, 0).length);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link RecentTracks} class.
+ */
+@RunWith(JUnit4.class)
+public class RecentTracksTest {
+
+    @Test
+    public void testWindow() throws Exception {
+        RecentTracks recent = new RecentTracks(3);
+        assertTrue(recent.add(10));
+        assertTrue(recent.add(20));
+        assertFalse(recent.add(10));
+        assertTrue(recent.add(30));
+        assertEquals(3, recent.size());
+        // full: the oldest makes room
+        assertTrue(recent.add(40));
+        assertFalse(recent.contains(10));
+        assertEquals(20, recent.get(0));
+        assertEquals(40, recent.get(2));
+        assertEquals(20, recent.removeOldest());
+        assertEquals(2, recent.size());
+        assertTrue(recent.contains(30));
+        assertTrue(recent.contains(40));
+        recent.clear();
+        assertEquals(0, recent.size());
+        assertFalse(recent.contains(30));
+    }
+
+    @Test
+    public void testNoCapacity() throws Exception {
+        RecentTracks recent = new RecentTracks(0);
+        assertFalse(recent.add(1));
+        assertFalse(recent.contains(1));
+    }
+
+    @Test
+    public void testMatchesSimpleWindow() throws Exception {
+        // ids from a small range collide and recur, exercising deletion from probe runs
+        RecentTracks recent = new RecentTracks(50);
+        ArrayDeque<Long> expected = new ArrayDeque<>();
+        HashSet<Long> expectedSet = new HashSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            long id = random.nextInt(120) * 64L;
+            boolean added = recent.add(id);
+            assertEquals(!expectedSet.contains(id), added);
+            if (added) {
+                if (expected.size() == 50) {
+                    expectedSet.remove(expected.removeFirst());
+                }
+                expected.addLast(id);
+                expectedSet.add(id);
+            }
+            assertEquals(expected.size(), recent.size());
+            assertEquals((long) expected.peekFirst(), recent.get(0));
+        }
+        for (long id = 0; id < 120 * 64; id += 64) {
+            assertEquals(expectedSet.contains(id), recent.contains(id));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the {@link SearchIndex} class.
+ */
+@RunWith(JUnit4.class)
+public class SearchIndexTest {
+
+    private TrackCatalog catalog;
+    private SearchIndex index;
+
+    @Before
+    public void setupIndex() {
+        // rows in title order: Caf\u00e9 del Mar, Home, Homecoming, Mariposa
+        catalog = new TrackCatalog.Builder(4)
+                .addTrack(1, "Home", "Beyonc\u00e9", 1, "Lemonade", 10, 1000, 1)
+                .addTrack(2, "Homecoming", "AC/DC", 2, "Back in Black", 20, 1000, 1)
+                .addTrack(3, "Caf\u00e9 del Mar", "Energy 52", 3, "Home Sessions", 30, 1000, 1)
+                .addTrack(4, "Mariposa", "Homeless", 4, "Flight", 40, 1000, 1)
+                .build();
+        index = SearchIndex.build(catalog);
+    }
+
+    private long[] ids(int[] rows) {
+        long[] ids = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            ids[i] = catalog.getId(rows[i]);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testFold() throws Exception {
+        assertEquals("beyonce", SearchIndex.fold("Beyonc\u00e9"));
+        assertEquals("ac dc", SearchIndex.fold("  AC/DC!"));
+        assertEquals("", SearchIndex.fold(null));
+    }
+
+    @Test
+    public void testSearchByField() throws Exception {
+        assertArrayEquals(new long[] {1}, ids(index.search(SearchIndex.FIELD_ARTIST, "beyonce")));
+        assertArrayEquals(new long[] {2}, ids(index.search(SearchIndex.FIELD_ARTIST, "ac-dc")));
+        assertArrayEquals(new long[] {3}, ids(index.search(SearchIndex.FIELD_TITLE, "CAFE")));
+        assertArrayEquals(new long[] {2}, ids(index.search(SearchIndex.FIELD_ALBUM, "black")));
+        assertEquals(0, index.search(SearchIndex.FIELD_ALBUM, "beyonce").length);
+        assertEquals(0, index.search(SearchIndex.FIELD_TITLE, "   ").length);
+    }
+
+    @Test
+    public void testShortQueries() throws Exception {
+        assertArrayEquals(new long[] {3, 4}, ids(index.search(SearchIndex.FIELD_TITLE, "ma")));
+        assertArrayEquals(new long[] {2}, ids(index.search(SearchIndex.FIELD_ALBUM, "k")));
+    }
+
+    @Test
+    public void testRanking() throws Exception {
+        // exact title, then title word prefix, then artist word prefix, then album word prefix
+        assertArrayEquals(new long[] {1, 2, 4, 3}, ids(index.searchAnyField("home")));
+        // a substring inside a word ranks after a word prefix, then rows keep title order
+        assertArrayEquals(new long[] {3, 1, 4}, ids(index.search(SearchIndex.FIELD_ARTIST, "e")));
+    }
+
+    @Test
+    public void testRebuildFromPrevious() throws Exception {
+        TrackCatalog updated = new TrackCatalog.Builder(2)
+                .addTrack(1, "Home", "Beyonc\u00e9", 1, "Lemonade", 10, 1000, 1)
+                .addTrack(5, "H\u00f4tel", "Beyonc\u00e9", 1, "Lemonade", 10, 1000, 2)
+                .build();
+        SearchIndex rebuilt = SearchIndex.build(updated, index);
+        assertEquals(updated, rebuilt.getCatalog());
+        assertEquals(2, rebuilt.search(SearchIndex.FIELD_ARTIST, "beyonce").length);
+        assertEquals(1, rebuilt.search(SearchIndex.FIELD_TITLE, "hotel").length);
+        assertEquals(0, rebuilt.search(SearchIndex.FIELD_TITLE, "cafe").length);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the {@link TrackCatalog} class. Exercises row ordering, id lookup and the
+ * artist/album groupings.
+ */
+@RunWith(JUnit4.class)
+public class TrackCatalogTest {
+
+    private TrackCatalog catalog;
+
+    @Before
+    public void setupCatalog() {
+        catalog = new TrackCatalog.Builder(2)
+                .addTrack(30, "charlie", "Smith Singer", 1, "Album 1", 10, 3200, 3)
+                .addTrack(10, "Alpha", "Joe Singer", 2, "Album 2", 20, 4200, 1)
+                .addTrack(20, "bravo", "Smith Singer", 1, "Album 1", 10, 3300, 2)
+                .addTrack(40, null, null, 3, null, 30, 0, 0)
+                .build();
+    }
+
+    @Test
+    public void testRowsAreInTitleOrder() throws Exception {
+        assertEquals(4, catalog.size());
+        assertNull(catalog.getTitle(0));
+        assertEquals("Alpha", catalog.getTitle(1));
+        assertEquals("bravo", catalog.getTitle(2));
+        assertEquals("charlie", catalog.getTitle(3));
+    }
+
+    @Test
+    public void testIndexOf() throws Exception {
+        for (int row = 0; row < catalog.size(); row++) {
+            assertEquals(row, catalog.indexOf(catalog.getId(row)));
+        }
+        assertEquals(-1, catalog.indexOf(99));
+        int row = catalog.indexOf(20);
+        assertEquals("bravo", catalog.getTitle(row));
+        assertEquals("Smith Singer", catalog.getArtist(row));
+        assertEquals(10, catalog.getAlbumId(row));
+        assertEquals(3300, catalog.getDurationMs(row));
+        assertEquals(2, catalog.getTrackNumber(row));
+    }
+
+    @Test
+    public void testStringsAreInterned() throws Exception {
+        assertSame(catalog.getArtist(catalog.indexOf(20)), catalog.getArtist(catalog.indexOf(30)));
+    }
+
+    @Test
+    public void testRowsForArtistAndAlbum() throws Exception {
+        int[] rows = catalog.getRowsForArtist(1);
+        assertArrayEquals(new int[] {catalog.indexOf(20), catalog.indexOf(30)}, rows);
+        assertArrayEquals(rows, catalog.getRowsForAlbum(10));
+        assertEquals(0, catalog.getRowsForArtist(99).length);
+    }
+
+    @Test
+    public void testArtistsAndAlbumsAreInNameOrder() throws Exception {
+        assertEquals(3, catalog.getArtistCount());
+        assertNull(catalog.getArtistNameAt(0));
+        assertEquals("Joe Singer", catalog.getArtistNameAt(1));
+        assertEquals(2, catalog.getArtistIdAt(1));
+        assertEquals("Smith Singer", catalog.getArtistNameAt(2));
+
+        assertEquals(3, catalog.getAlbumCount());
+        assertEquals("Album 1", catalog.getAlbumNameAt(1));
+        assertEquals(10, catalog.getAlbumIdAt(1));
+        assertEquals("Smith Singer", catalog.getAlbumArtistAt(1));
+    }
+
+    @Test
+    public void testToBuilderAppliesChanges() throws Exception {
+        // 20 deleted, 30 edited, 50 added
+        TrackCatalog updated = catalog.toBuilder(new long[] {20, 30})
+                .addTrack(30, "charlie (live)", "Smith Singer", 1, "Album 1", 10, 3250, 3)
+                .addTrack(50, "delta", "Joe Singer", 2, "Album 2", 20, 1000, 2)
+                .build();
+        assertEquals(4, updated.size());
+        assertEquals(-1, updated.indexOf(20));
+        assertEquals("charlie (live)", updated.getTitle(updated.indexOf(30)));
+        assertEquals(3250, updated.getDurationMs(updated.indexOf(30)));
+        assertEquals("Alpha", updated.getTitle(updated.indexOf(10)));
+        assertEquals("Album 2", updated.getAlbum(updated.indexOf(50)));
+        assertNull(updated.getTitle(updated.indexOf(40)));
+        assertEquals(2, updated.getRowsForAlbum(20).length);
+        // the old snapshot is untouched
+        assertEquals("charlie", catalog.getTitle(catalog.indexOf(30)));
+    }
+
+    @Test
+    public void testEmptyCatalog() throws Exception {
+        assertEquals(0, TrackCatalog.EMPTY.size());
+        assertEquals(-1, TrackCatalog.EMPTY.indexOf(1));
+        assertEquals(0, TrackCatalog.EMPTY.getArtistCount());
+    }
+}
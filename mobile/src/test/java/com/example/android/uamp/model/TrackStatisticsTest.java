@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link TrackStatistics} class.
+ */
+@RunWith(JUnit4.class)
+public class TrackStatisticsTest {
+
+    private TrackStatistics statistics;
+
+    @Before
+    public void setup() {
+        statistics = new TrackStatistics();
+    }
+
+    @Test
+    public void testWeight() throws Exception {
+        assertEquals(TrackStatistics.DEFAULT_WEIGHT, TrackStatistics.weight(0, 0));
+        assertEquals(TrackStatistics.DEFAULT_WEIGHT, TrackStatistics.weight(3, 3));
+        assertTrue(TrackStatistics.weight(2, 0) > TrackStatistics.DEFAULT_WEIGHT);
+        assertTrue(TrackStatistics.weight(0, 2) < TrackStatistics.DEFAULT_WEIGHT);
+        assertEquals(TrackStatistics.MAX_WEIGHT, TrackStatistics.weight(1000, 0));
+        assertEquals(TrackStatistics.MIN_WEIGHT, TrackStatistics.weight(0, 1000));
+        assertEquals(TrackStatistics.MAX_WEIGHT,
+                TrackStatistics.weight(Integer.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void testRecordAndWeight() throws Exception {
+        assertEquals(TrackStatistics.DEFAULT_WEIGHT, statistics.getWeight(7));
+        statistics.recordCompletion(7);
+        statistics.recordSkip(8);
+        statistics.recordSkip(8);
+        assertEquals(1, statistics.getCompletions(7));
+        assertEquals(2, statistics.getSkips(8));
+        assertEquals(TrackStatistics.weight(1, 0), statistics.getWeight(7));
+        assertEquals(TrackStatistics.weight(0, 2), statistics.getWeight(8));
+    }
+
+    @Test
+    public void testChangedIds() throws Exception {
+        statistics.recordSkip(3);
+        statistics.recordCompletion(1);
+        statistics.recordSkip(3);
+        assertArrayEquals(new long[] {3, 1}, statistics.takeChangedIds());
+        assertEquals(0, statistics.takeChangedIds().length);
+        statistics.recordSkip(1);
+        assertArrayEquals(new long[] {1}, statistics.takeChangedIds());
+    }
+
+    @Test
+    public void testLoadKeepsLargerCounts() throws Exception {
+        statistics.recordSkip(5);
+        statistics.takeChangedIds();
+        statistics.load(5, 4, 1);
+        assertEquals(4, statistics.getCompletions(5));
+        assertEquals(1, statistics.getSkips(5));
+        assertArrayEquals(new long[] {5}, statistics.takeChangedIds());
+        // nothing new
+        statistics.load(5, 2, 1);
+        assertEquals(0, statistics.takeChangedIds().length);
+    }
+
+    @Test
+    public void testManyTracks() throws Exception {
+        for (long id = 0; id < 5000; id++) {
+            for (int i = 0; i < id % 3; i++) {
+                statistics.recordSkip(id * 1000003);
+            }
+            statistics.recordCompletion(id * 1000003);
+        }
+        for (long id = 0; id < 5000; id++) {
+            assertEquals(1, statistics.getCompletions(id * 1000003));
+            assertEquals(id % 3, statistics.getSkips(id * 1000003));
+        }
+        long[] changed = statistics.takeChangedIds();
+        assertEquals(5000, changed.length);
+        Arrays.sort(changed);
+        assertEquals(4999L * 1000003, changed[4999]);
+        assertEquals(0, statistics.getSkips(1));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the {@link IndexedQueue} class. Checks it against an ArrayList doing the
+ * same operations.
+ */
+@RunWith(JUnit4.class)
+public class IndexedQueueTest {
+
+    private IndexedQueue<Long> queue;
+
+    @Before
+    public void setupQueue() {
+        queue = new IndexedQueue<>(new IndexedQueue.KeyFunction<Long>() {
+            @Override
+            public long keyOf(Long item) {
+                return item;
+            }
+        });
+    }
+
+    @Test
+    public void testPositionalOperations() throws Exception {
+        queue.addAll(Arrays.asList(10L, 20L, 30L, 40L));
+        queue.add(0, 5L);
+        assertEquals(Arrays.asList(5L, 10L, 20L, 30L, 40L), queue);
+        assertEquals(Long.valueOf(5L), queue.remove(0));
+        queue.move(3, 0);
+        assertEquals(Arrays.asList(40L, 10L, 20L, 30L), queue);
+        assertEquals(2, queue.indexOfKey(20));
+        assertEquals(-1, queue.indexOfKey(5));
+    }
+
+    @Test
+    public void testRemoveByKey() throws Exception {
+        queue.addAll(Arrays.asList(1L, 2L, 3L));
+        assertEquals(1, queue.removeByKey(2));
+        assertEquals(-1, queue.removeByKey(2));
+        assertNull(queue.getByKey(2));
+        assertEquals(Arrays.asList(1L, 3L), queue);
+        assertEquals(1, queue.indexOfKey(3));
+    }
+
+    @Test
+    public void testIteratorRemove() throws Exception {
+        queue.addAll(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L));
+        Iterator<Long> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(Arrays.asList(1L, 3L, 5L), queue);
+        assertEquals(2, queue.indexOfKey(5));
+    }
+
+    @Test
+    public void testMatchesArrayList() throws Exception {
+        Random random = new Random(42);
+        List<Long> expected = new ArrayList<>();
+        long nextKey = 0;
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(4);
+            if (op < 2 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                expected.add(index, nextKey);
+                queue.add(index, nextKey);
+                nextKey++;
+            } else if (op == 2) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), queue.remove(index));
+            } else {
+                int from = random.nextInt(expected.size());
+                int to = random.nextInt(expected.size());
+                expected.add(to, expected.remove(from));
+                queue.move(from, to);
+            }
+            Long probe = expected.isEmpty() ? -1L : expected.get(random.nextInt(expected.size()));
+            assertEquals(expected.indexOf(probe), queue.indexOfKey(probe));
+        }
+        assertEquals(expected, queue);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the {@link PlaybackTrace} class.
+ */
+@RunWith(JUnit4.class)
+public class PlaybackTraceTest {
+
+    private PlaybackTrace trace;
+
+    @Before
+    public void setupTrace() {
+        trace = new PlaybackTrace();
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        for (int i = 100; i >= 1; i--) {
+            trace.record(PlaybackTrace.QUEUE_FILL, i);
+        }
+        assertEquals(100, trace.getSampleCount(PlaybackTrace.QUEUE_FILL));
+        assertArrayEquals(new long[] {1, 50, 90, 99, 100},
+                trace.getPercentiles(PlaybackTrace.QUEUE_FILL, 0, 50, 90, 99, 100));
+        assertEquals(0, trace.getPercentiles(PlaybackTrace.SKIP_LATENCY, 50).length);
+    }
+
+    @Test
+    public void testRingKeepsLatestSamples() throws Exception {
+        for (int i = 0; i < PlaybackTrace.SAMPLE_COUNT; i++) {
+            trace.record(PlaybackTrace.AUDIO_FOCUS, 1000);
+        }
+        for (int i = 0; i < PlaybackTrace.SAMPLE_COUNT; i++) {
+            trace.record(PlaybackTrace.AUDIO_FOCUS, 5);
+        }
+        assertEquals(PlaybackTrace.SAMPLE_COUNT, trace.getSampleCount(PlaybackTrace.AUDIO_FOCUS));
+        assertArrayEquals(new long[] {5}, trace.getPercentiles(PlaybackTrace.AUDIO_FOCUS, 100));
+    }
+
+    @Test
+    public void testStartEndAndCancel() throws Exception {
+        trace.end(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        assertEquals(0, trace.getSampleCount(PlaybackTrace.TIME_TO_FIRST_AUDIO));
+
+        trace.start(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        trace.cancel(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        trace.end(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        assertEquals(0, trace.getSampleCount(PlaybackTrace.TIME_TO_FIRST_AUDIO));
+
+        trace.start(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        trace.end(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        trace.end(PlaybackTrace.TIME_TO_FIRST_AUDIO);
+        assertEquals(1, trace.getSampleCount(PlaybackTrace.TIME_TO_FIRST_AUDIO));
+    }
+}
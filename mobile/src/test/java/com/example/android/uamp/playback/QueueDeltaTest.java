@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the {@link QueueDelta} class. Edits a list while recording them, and checks
+ * that the deltas bring a copy of the list taken beforehand up to date.
+ */
+@RunWith(JUnit4.class)
+public class QueueDeltaTest {
+
+    private QueueDelta.Recorder<Long> recorder;
+    private List<Long> queue;
+
+    @Before
+    public void setUp() {
+        recorder = new QueueDelta.Recorder<>();
+        queue = new ArrayList<>(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+    }
+
+    @Test
+    public void testNothingToTake() {
+        assertNull(recorder.take());
+        recorder.inserted(0, Collections.<Long>emptyList());
+        recorder.removed(2, 0);
+        recorder.moved(3, 3);
+        assertNull(recorder.take());
+        assertEquals(0, recorder.getSequence());
+    }
+
+    @Test
+    public void testSequence() {
+        insert(0, 6L);
+        QueueDelta<Long> first = recorder.take();
+        assertEquals(0, first.getBaseSequence());
+        assertEquals(1, first.getSequence());
+        move(0, 2);
+        QueueDelta<Long> second = recorder.take();
+        assertEquals(1, second.getBaseSequence());
+        assertEquals(2, second.getSequence());
+        assertEquals(2, recorder.getSequence());
+    }
+
+    @Test
+    public void testApply() {
+        List<Long> copy = new ArrayList<>(queue);
+        remove(0, 1);
+        insert(4, 6L, 7L);
+        move(3, 0);
+        remove(2, 2);
+        insert(0, 8L);
+        move(1, 4);
+        recorder.take().applyTo(copy, null);
+        assertEquals(queue, copy);
+    }
+
+    @Test
+    public void testListenerSeesEachEdit() {
+        final List<String> seen = new ArrayList<>();
+        insert(1, 6L, 7L);
+        remove(0, 1);
+        move(2, 4);
+        recorder.take().applyTo(new ArrayList<>(Arrays.asList(1L, 2L, 3L, 4L, 5L)),
+                new QueueDelta.Listener() {
+                    @Override
+                    public void onInserted(int index, int count) {
+                        seen.add("insert " + index + " " + count);
+                    }
+
+                    @Override
+                    public void onRemoved(int index, int count) {
+                        seen.add("remove " + index + " " + count);
+                    }
+
+                    @Override
+                    public void onMoved(int from, int to) {
+                        seen.add("move " + from + " " + to);
+                    }
+                });
+        assertEquals(Arrays.asList("insert 1 2", "remove 0 1", "move 2 4"), seen);
+    }
+
+    @Test
+    public void testInsertedItemsAreCopied() {
+        List<Long> items = new ArrayList<>(Arrays.asList(6L, 7L));
+        recorder.inserted(0, items);
+        items.clear();
+        List<Long> copy = new ArrayList<>();
+        recorder.take().applyTo(copy, null);
+        assertEquals(Arrays.asList(6L, 7L), copy);
+    }
+
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(42);
+        List<Long> copy = new ArrayList<>(queue);
+        long next = 100;
+        for (int round = 0; round < 200; round++) {
+            int edits = random.nextInt(5);
+            for (int i = 0; i < edits; i++) {
+                int op = queue.isEmpty() ? 0 : random.nextInt(3);
+                if (op == 0) {
+                    insert(random.nextInt(queue.size() + 1), next++, next++);
+                } else if (op == 1) {
+                    int index = random.nextInt(queue.size());
+                    remove(index, 1 + random.nextInt(queue.size() - index));
+                } else {
+                    move(random.nextInt(queue.size()), random.nextInt(queue.size()));
+                }
+            }
+            QueueDelta<Long> delta = recorder.take();
+            if (delta != null) {
+                delta.applyTo(copy, null);
+            }
+            assertEquals(queue, copy);
+        }
+    }
+
+    private void insert(int index, Long... items) {
+        queue.addAll(index, Arrays.asList(items));
+        recorder.inserted(index, Arrays.asList(items));
+    }
+
+    private void remove(int index, int count) {
+        queue.subList(index, index + count).clear();
+        recorder.removed(index, count);
+    }
+
+    private void move(int from, int to) {
+        queue.add(to, queue.remove(from));
+        recorder.moved(from, to);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.ui.MediaBrowserClient;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the {@link BrowseListFilter} class.
+ */
+@RunWith(JUnit4.class)
+public class BrowseListFilterTest {
+
+    private static final BrowseListFilter.Cancellation NOT_CANCELLED =
+            new BrowseListFilter.Cancellation() {
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+            };
+
+    private BrowseListFilter filter;
+
+    @Before
+    public void setupFilter() {
+        filter = new BrowseListFilter(new String[] {
+                BrowseListFilter.searchKey("Alpha", "Joe Singer"),
+                BrowseListFilter.searchKey("Bravo", "Smith Singer"),
+                BrowseListFilter.searchKey("Charlie", null),
+                BrowseListFilter.searchKey("Alphabet", "Smith Singer"),
+        });
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        assertArrayEquals(new int[] {0, 1, 2, 3}, filter.filter("", NOT_CANCELLED));
+        assertArrayEquals(new int[] {0, 3}, filter.filter("ALPH", NOT_CANCELLED));
+        assertArrayEquals(new int[] {1, 3}, filter.filter("smith", NOT_CANCELLED));
+        // a query can't match across the title and the subtitle
+        assertEquals(0, filter.filter("bet smith", NOT_CANCELLED).length);
+    }
+
+    @Test
+    public void testNarrowingAndWidening() throws Exception {
+        assertArrayEquals(new int[] {0, 3}, filter.filter("al", NOT_CANCELLED));
+        assertArrayEquals(new int[] {3}, filter.filter("alphab", NOT_CANCELLED));
+        assertArrayEquals(new int[] {0, 3}, filter.filter("alp", NOT_CANCELLED));
+        assertArrayEquals(new int[] {0, 1, 2, 3}, filter.filter("a", NOT_CANCELLED));
+    }
+
+    @Test
+    public void testCancelled() throws Exception {
+        assertNull(filter.filter("a", new BrowseListFilter.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        }));
+        // a cancelled filter is not used to narrow the next one
+        assertArrayEquals(new int[] {1}, filter.filter("bravo", NOT_CANCELLED));
+    }
+
+    @Test
+    public void testDispatchUpdates() throws Exception {
+        final StringBuilder updates = new StringBuilder();
+        BrowseListFilter.UpdateCallback callback = new BrowseListFilter.UpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.append("+").append(position).append(',').append(count).append(' ');
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.append("-").append(position).append(',').append(count).append(' ');
+            }
+        };
+        BrowseListFilter.dispatchUpdates(new int[] {0, 1, 2, 5, 6}, new int[] {1, 3, 4, 6, 7, 8},
+                callback);
+        assertEquals("-0,1 -1,1 +1,2 -3,1 +4,2 ", updates.toString());
+
+        updates.setLength(0);
+        BrowseListFilter.dispatchUpdates(new int[0], new int[] {2, 3}, callback);
+        BrowseListFilter.dispatchUpdates(new int[] {2, 3}, new int[0], callback);
+        assertEquals("+0,2 -0,2 ", updates.toString());
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the pure arithmetic and stream helpers of {@link BitmapHelper}.
+ */
+@RunWith(JUnit4.class)
+public class BitmapHelperTest {
+
+    @Test
+    public void testPowerOfTwoSampleSize() throws Exception {
+        // already small enough
+        assertEquals(1, BitmapHelper.computePowerOfTwoSampleSize(100, 100, 128, 128));
+        assertEquals(1, BitmapHelper.computePowerOfTwoSampleSize(200, 200, 128, 128));
+        // 1000 / 4 = 250 >= 128, 1000 / 8 = 125 < 128
+        assertEquals(4, BitmapHelper.computePowerOfTwoSampleSize(1000, 1000, 128, 128));
+        // the result is bounded by the height: 1600x960 fits 800x480 exactly at 2
+        assertEquals(2, BitmapHelper.computePowerOfTwoSampleSize(1600, 960, 800, 480));
+        // a tall image fitted in a wide box is limited by its height
+        assertEquals(4, BitmapHelper.computePowerOfTwoSampleSize(1000, 2000, 800, 480));
+    }
+
+    @Test
+    public void testReadFully() throws Exception {
+        byte[] data = new byte[40000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertArrayEquals(data, BitmapHelper.readFully(new ByteArrayInputStream(data)));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the {@link DiskLruCache} class. Covers eviction order and rebuilding the
+ * index from the journal.
+ */
+@RunWith(JUnit4.class)
+public class DiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = new File(folder.getRoot(), "cache");
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        DiskLruCache cache = new DiskLruCache(dir, 100);
+        assertNull(cache.get("a"));
+        cache.put("a", new byte[10]);
+        File file = cache.get("a");
+        assertNotNull(file);
+        assertEquals(10, file.length());
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        DiskLruCache cache = new DiskLruCache(dir, 30);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("c", new byte[10]);
+        cache.get("a");
+        cache.put("d", new byte[10]);
+        assertNull(cache.get("b"));
+        assertFalse(new File(dir, "b").exists());
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(30, cache.size());
+    }
+
+    @Test
+    public void testIndexSurvivesReopen() throws Exception {
+        DiskLruCache cache = new DiskLruCache(dir, 30);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("c", new byte[10]);
+        cache.remove("c");
+        cache.get("a");
+        cache.close();
+
+        cache = new DiskLruCache(dir, 30);
+        assertEquals(20, cache.size());
+        assertNull(cache.get("c"));
+        // b is now the least recently used
+        cache.put("d", new byte[15]);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void testCorruptJournalClearsCache() throws Exception {
+        DiskLruCache cache = new DiskLruCache(dir, 30);
+        cache.put("a", new byte[10]);
+        cache.close();
+
+        FileOutputStream out = new FileOutputStream(new File(dir, DiskLruCache.JOURNAL_FILE));
+        out.write("garbage\n".getBytes("UTF-8"));
+        out.close();
+
+        cache = new DiskLruCache(dir, 30);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertFalse(new File(dir, "a").exists());
+        cache.put("b", new byte[5]);
+        assertNotNull(cache.get("b"));
+    }
+}